@@ -59,6 +59,8 @@ import bdv.viewer.render.PainterThread;
 import bdv.viewer.state.SourceGroup;
 import bdv.viewer.state.ViewerState;
 import bdv.viewer.state.XmlIoViewerState;
+import bvv.core.backend.jogl.JoglGpuContext;
+import bvv.core.render.Foveation;
 import bvv.core.render.RenderData;
 import bvv.core.render.VolumeRenderer;
 import bvv.core.util.MatrixMath;
@@ -84,6 +86,7 @@ import javax.swing.DefaultBoundedRangeModel;
 import javax.swing.JSlider;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import net.imglib2.Point;
 import net.imglib2.RealLocalizable;
 import net.imglib2.RealPoint;
 import net.imglib2.RealPositionable;
@@ -323,7 +326,16 @@ public class VolumeViewerPanel
 				getDitherStep( options.getDitherWidth() ),
 				options.getNumDitherSamples(),
 				options.getCacheBlockSize(),
-				options.getMaxCacheSizeInMB() );
+				options.getMaxCacheSizeInMB(),
+				1024L * 1024L * options.getGpuMemoryBudgetInMB() );
+		renderer.setLodHysteresis( options.getLodHysteresis() );
+		renderer.setCoarseToFine( options.isCoarseToFine() );
+		renderer.setMosaic( options.isMosaic() );
+		renderer.setNumVolumeSlots( options.getVolumeSlots() );
+		renderer.setSimpleVolumeBudget( 1024L * 1024L * options.getSimpleVolumeBudgetInMB() );
+		multiResolutionThreshold = 1024L * 1024L * options.getMultiResolutionThresholdInMB();
+		foveationRadius = options.getFoveationRadius();
+		foveationFalloff = options.getFoveationFalloff();
 
 		dCam = options.getDCam();
 		dClipNear = options.getDClipNear();
@@ -544,14 +556,39 @@ public class VolumeViewerPanel
 		repaint.request( type );
 	}
 
+	/**
+	 * When the focus point follows the mouse, levels are only re-selected
+	 * after the mouse moved this fraction of {@code foveationFalloff} away
+	 * from the focus point of the last frame.
+	 */
+	private static final double FOCUS_UPDATE_FRACTION = 0.25;
+
 	@Override
 	protected void onMouseMoved()
 	{
-		if ( Prefs.showTextOverlay() )
+		if ( foveationFalloff > 0 && focusFollowsMouse && focusMovedSignificantly() )
+			// re-select resolution levels around the new focus point
+			requestRepaint();
+		else if ( Prefs.showTextOverlay() )
 			// trigger repaint for showing updated mouse coordinates
 			getDisplayComponent().repaint();
 	}
 
+	/**
+	 * Whether the mouse is far enough from the focus point used for the last
+	 * frame to justify re-selecting resolution levels. Small movements are
+	 * ignored, so that the image can converge while the mouse moves.
+	 */
+	private boolean focusMovedSignificantly()
+	{
+		final Point mouse = new Point( 2 );
+		getMouseCoordinates( mouse );
+		final double dx = mouse.getDoublePosition( 0 ) - focusX;
+		final double dy = mouse.getDoublePosition( 1 ) - focusY;
+		final double threshold = FOCUS_UPDATE_FRACTION * foveationFalloff;
+		return dx * dx + dy * dy >= threshold * threshold;
+	}
+
 	@Override
 	public void drawOverlays( final Graphics g )
 	{
@@ -914,6 +951,12 @@ public class VolumeViewerPanel
 	private double screenWidth;
 	private double screenHeight;
 	private double maxAllowedStepInVoxels;
+	private double foveationRadius;
+	private double foveationFalloff;
+	private long multiResolutionThreshold;
+	private boolean focusFollowsMouse = true;
+	private volatile double focusX;
+	private volatile double focusY;
 
 	public void setCamParams( final double dCam, final double dClip )
 	{
@@ -932,6 +975,51 @@ public class VolumeViewerPanel
 		this.maxAllowedStepInVoxels = maxAllowedStepInVoxels;
 	}
 
+	/**
+	 * Set parameters for foveated level of detail. Within {@code radius}
+	 * screen pixels of the focus point, volumes are rendered at the best
+	 * resolution. Further out, the resolution is reduced by one level per
+	 * {@code falloff} screen pixels.
+	 *
+	 * @param radius
+	 * 		radius (in screen pixels) around the focus point that is rendered at best resolution.
+	 * @param falloff
+	 * 		distance (in screen pixels) over which resolution is reduced by one level. {@code falloff <= 0} disables foveation.
+	 */
+	public void setFoveation( final double radius, final double falloff )
+	{
+		this.foveationRadius = radius;
+		this.foveationFalloff = falloff;
+		requestRepaint();
+	}
+
+	/**
+	 * Set the focus point for foveated level of detail to a fixed position on screen.
+	 * (Only has an effect if foveation is enabled, see {@link #setFoveation(double, double)}.)
+	 *
+	 * @param x
+	 * 		X coordinate of focus point on screen
+	 * @param y
+	 * 		Y coordinate of focus point on screen
+	 */
+	public void setFocusPoint( final double x, final double y )
+	{
+		focusFollowsMouse = false;
+		focusX = x;
+		focusY = y;
+		requestRepaint();
+	}
+
+	/**
+	 * Let the focus point for foveated level of detail follow the mouse (this is the default).
+	 * (Only has an effect if foveation is enabled, see {@link #setFoveation(double, double)}.)
+	 */
+	public void setFocusFollowsMouse()
+	{
+		focusFollowsMouse = true;
+		requestRepaint();
+	}
+
 	@Override
 	public void setCanvasSize( final int width, final int height )
 	{
@@ -967,12 +1055,26 @@ public class VolumeViewerPanel
 				final ConverterSetup converter = setups.getConverterSetup( source );
 				if ( source.asVolatile() != null )
 					source = source.asVolatile();
-				final Stack3D< ? > stack3D = SourceStacks.getStack3D( source.getSpimSource(), currentTimepoint );
+				final Stack3D< ? > stack3D = SourceStacks.getStack3D( source.getSpimSource(), currentTimepoint, multiResolutionThreshold );
 				renderStacks.add( stack3D );
 				renderConverters.add( converter );
 			}
 			renderData = new RenderData( pv, currentTimepoint, renderTransformWorldToScreen, dCam, dClipNear, dClipFar, screenWidth, screenHeight );
 		}
+
+		if ( foveationFalloff > 0 )
+		{
+			if ( focusFollowsMouse )
+			{
+				final Point mouse = new Point( 2 );
+				getMouseCoordinates( mouse );
+				focusX = mouse.getDoublePosition( 0 );
+				focusY = mouse.getDoublePosition( 1 );
+			}
+			renderer.setFoveation( new Foveation( focusX, focusY, foveationRadius, foveationFalloff, screenWidth, screenHeight ) );
+		}
+		else
+			renderer.setFoveation( null );
 	}
 
 	private final GLEventListener glEventListener = new GLEventListener()
@@ -1003,7 +1105,10 @@ public class VolumeViewerPanel
 				gl.glEnable( GL_DEPTH_TEST );
 				gl.glDepthFunc( GL_LESS );
 				if ( renderScene != null )
+				{
 					renderScene.render( gl, renderData );
+					JoglGpuContext.get( gl ).invalidate();
+				}
 				sceneBuf.unbind( gl, false );
 			}
 
@@ -36,6 +36,27 @@ public interface GpuContext
 	// build and cache and bind
 	void use( Shader shader );
 
+	/**
+	 * Start building the program for {@code shader} if necessary. If the
+	 * backend supports it, the program is compiled in the background.
+	 *
+	 * @return {@code true} if the program is ready, i.e., {@link #use} will not
+	 * wait for compilation.
+	 */
+	boolean isReady( Shader shader );
+
+	/**
+	 * Forget any cached GL state (bound program, buffers, textures, active
+	 * texture unit). Must be called after the GL state was modified
+	 * bypassing this context, for example by direct GL calls.
+	 */
+	void invalidate();
+
+	/**
+	 * Get the accounting of GPU memory held by this context.
+	 */
+	GpuMemory getMemory();
+
 	// from cached shader thingie and gl context, build SetUniforms
 	SetUniforms getUniformSetter( Shader shader );
 
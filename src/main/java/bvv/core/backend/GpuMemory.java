@@ -0,0 +1,171 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.backend;
+
+import java.util.Arrays;
+
+/**
+ * Accounts for the GPU memory held by a {@link GpuContext}, per
+ * {@link Category}, and checks allocations against a configurable budget.
+ * <p>
+ * The budget is not enforced here. Components that can do with less memory
+ * (texture cache, lookup page pools, simple volumes) size their allocations
+ * according to {@link #getAvailableBytes()}. Other allocations are accounted
+ * anyway, and exceeding the budget only prints a warning.
+ * <p>
+ * Sizes are estimated from the dimensions and formats of allocated textures
+ * and buffers, driver overhead (padding, mipmaps, etc.) is not included.
+ */
+public class GpuMemory
+{
+	public enum Category
+	{
+		/**
+		 * the texture cache holding blocks of multi-resolution volumes
+		 */
+		CACHE,
+
+		/**
+		 * lookup textures (page tables) for the texture cache
+		 */
+		LUT,
+
+		/**
+		 * textures holding simple (non-multi-resolution) volumes
+		 */
+		SIMPLE_VOLUME,
+
+		/**
+		 * offscreen framebuffers used for rendering and dithering
+		 */
+		FRAMEBUFFER,
+
+		/**
+		 * staging buffers (PBOs) for uploading texture data
+		 */
+		PBO,
+
+		OTHER
+	}
+
+	private final long[] bytes = new long[ Category.values().length ];
+
+	private long budget = 0;
+
+	/**
+	 * Whether the warning about exceeding the budget was printed.
+	 */
+	private boolean warned = false;
+
+	/**
+	 * Set the budget for the total GPU memory. See {@link #checkBudget(long)}.
+	 *
+	 * @param budget
+	 * 		budget in bytes, or {@code 0} for no limit.
+	 */
+	public synchronized void setBudget( final long budget )
+	{
+		this.budget = budget;
+	}
+
+	/**
+	 * @return budget in bytes, or {@code 0} if there is no limit.
+	 */
+	public synchronized long getBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * @return bytes currently allocated in {@code category}.
+	 */
+	public synchronized long getBytes( final Category category )
+	{
+		return bytes[ category.ordinal() ];
+	}
+
+	/**
+	 * @return bytes currently allocated in all categories.
+	 */
+	public synchronized long getTotalBytes()
+	{
+		return Arrays.stream( bytes ).sum();
+	}
+
+	/**
+	 * @return bytes that can be allocated without exceeding the budget, or
+	 * {@code Long.MAX_VALUE} if there is no limit.
+	 */
+	public synchronized long getAvailableBytes()
+	{
+		return budget <= 0 ? Long.MAX_VALUE : Math.max( 0, budget - getTotalBytes() );
+	}
+
+	/**
+	 * Check whether allocating {@code size} more bytes fits into the budget.
+	 * The first time it does not, a warning is printed.
+	 *
+	 * @return {@code true} if the allocation fits into the budget.
+	 */
+	public synchronized boolean checkBudget( final long size )
+	{
+		final boolean fits = size <= getAvailableBytes();
+		if ( !fits && !warned )
+		{
+			warned = true;
+			System.err.println( String.format(
+					"WARNING! GPU memory budget exceeded: allocating %d bytes, %d of %d bytes in use (%s)",
+					size, getTotalBytes(), budget, this ) );
+		}
+		return fits;
+	}
+
+	public synchronized void allocated( final Category category, final long size )
+	{
+		bytes[ category.ordinal() ] += size;
+	}
+
+	public synchronized void freed( final Category category, final long size )
+	{
+		bytes[ category.ordinal() ] -= size;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		final StringBuilder sb = new StringBuilder();
+		for ( final Category category : Category.values() )
+		{
+			if ( sb.length() > 0 )
+				sb.append( ", " );
+			sb.append( category ).append( "=" ).append( bytes[ category.ordinal() ] );
+		}
+		return sb.toString();
+	}
+}
@@ -36,6 +36,7 @@ public interface Texture
 		R16( 2 ),
 		RGBA8( 4 ),
 		RGBA8UI( 4 ),
+		RGBA16UI( 8 ),
 		R32F( 4 ),
 		UNKNOWN( -1 );
 
@@ -87,4 +88,12 @@ public interface Texture
 	MagFilter texMagFilter();
 
 	Wrap texWrap();
+
+	/**
+	 * The category under which the GPU memory of this texture is accounted.
+	 */
+	default GpuMemory.Category texMemoryCategory()
+	{
+		return GpuMemory.Category.OTHER;
+	}
 }
@@ -31,13 +31,21 @@ package bvv.core.backend.jogl;
 import bvv.core.shadergen.Shader;
 import com.jogamp.opengl.GL3;
 import com.jogamp.opengl.util.glsl.ShaderCode;
-import com.jogamp.opengl.util.glsl.ShaderProgram;
+import java.io.File;
 import java.nio.Buffer;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.function.Consumer;
 import bvv.core.backend.GpuContext;
+import bvv.core.backend.GpuMemory;
 import bvv.core.backend.SetUniforms;
 import bvv.core.backend.StagingBuffer;
 import bvv.core.backend.Texture;
@@ -45,6 +53,7 @@ import bvv.core.backend.Texture3D;
 
 import static com.jogamp.opengl.GL.GL_ACTIVE_TEXTURE;
 import static com.jogamp.opengl.GL.GL_CLAMP_TO_EDGE;
+import static com.jogamp.opengl.GL.GL_FALSE;
 import static com.jogamp.opengl.GL.GL_FLOAT;
 import static com.jogamp.opengl.GL.GL_LINEAR;
 import static com.jogamp.opengl.GL.GL_NEAREST;
@@ -64,7 +73,10 @@ import static com.jogamp.opengl.GL.GL_UNSIGNED_BYTE;
 import static com.jogamp.opengl.GL.GL_UNSIGNED_SHORT;
 import static com.jogamp.opengl.GL.GL_WRITE_ONLY;
 import static com.jogamp.opengl.GL2ES2.GL_CLAMP_TO_BORDER;
+import static com.jogamp.opengl.GL2ES2.GL_COMPILE_STATUS;
 import static com.jogamp.opengl.GL2ES2.GL_FRAGMENT_SHADER;
+import static com.jogamp.opengl.GL2ES2.GL_INFO_LOG_LENGTH;
+import static com.jogamp.opengl.GL2ES2.GL_LINK_STATUS;
 import static com.jogamp.opengl.GL2ES2.GL_RED;
 import static com.jogamp.opengl.GL2ES2.GL_STREAM_DRAW;
 import static com.jogamp.opengl.GL2ES2.GL_TEXTURE_3D;
@@ -74,6 +86,7 @@ import static com.jogamp.opengl.GL2ES2.GL_TEXTURE_WRAP_R;
 import static com.jogamp.opengl.GL2ES2.GL_VERTEX_SHADER;
 import static com.jogamp.opengl.GL2ES3.GL_PIXEL_UNPACK_BUFFER;
 import static com.jogamp.opengl.GL2ES3.GL_PIXEL_UNPACK_BUFFER_BINDING;
+import static com.jogamp.opengl.GL2ES3.GL_RGBA16UI;
 import static com.jogamp.opengl.GL2ES3.GL_RGBA8UI;
 import static com.jogamp.opengl.GL2ES3.GL_RGBA_INTEGER;
 import static com.jogamp.opengl.GL2GL3.GL_R16;
@@ -86,175 +99,189 @@ public class JoglGpuContext implements GpuContext
 	@Override
 	public void use( final Shader shader )
 	{
-		final ShaderProgram prog = getShaderProgram( shader );
-		gl.glUseProgram( prog.program() );
+		final Program prog = getLinkedProgram( shader );
+		if ( boundProgram != prog.id )
+		{
+			gl.glUseProgram( prog.id );
+			boundProgram = prog.id;
+		}
 	}
 
 	@Override
 	public SetUniforms getUniformSetter( final Shader shader )
 	{
-		final ShaderProgram prog = getShaderProgram( shader );
-		return new JoglSetUniforms( gl, prog.program() );
+		final Program prog = getLinkedProgram( shader );
+		if ( prog.uniformSetter == null )
+			prog.uniformSetter = new JoglSetUniforms( gl, prog.id );
+		return prog.uniformSetter;
 	}
 
 	@Override
-	public int bindStagingBuffer( final StagingBuffer stagingBuffer )
+	public boolean isReady( final Shader shader )
 	{
-		final int[] tmp = new int[ 1 ];
-		gl.glGetIntegerv( GL_PIXEL_UNPACK_BUFFER_BINDING, tmp, 0 );
-		final int restoreId = tmp[ 0 ];
-
-		gl.glBindBuffer( GL_PIXEL_UNPACK_BUFFER, getPboId( stagingBuffer ) );
+		final Program prog = getShaderProgram( shader );
+		if ( !prog.linked )
+		{
+			if ( parallelShaderCompile )
+			{
+				final int[] status = new int[ 1 ];
+				gl.glGetProgramiv( prog.id, GL_COMPLETION_STATUS, status, 0 );
+				if ( status[ 0 ] == GL_FALSE )
+					return false;
+			}
+			prog.finish( gl );
+		}
+		return true;
+	}
 
-		return restoreId;
+	@Override
+	public int bindStagingBuffer( final StagingBuffer stagingBuffer )
+	{
+		return bindStagingBufferId( getPboId( stagingBuffer ) );
 	}
 
 	@Override
 	public int bindStagingBufferId( final int id )
 	{
-		final int[] tmp = new int[ 1 ];
-		gl.glGetIntegerv( GL_PIXEL_UNPACK_BUFFER_BINDING, tmp, 0 );
-		final int restoreId = tmp[ 0 ];
-
-		gl.glBindBuffer( GL_PIXEL_UNPACK_BUFFER, id );
-
+		final int restoreId = boundPbo();
+		bindPbo( id );
 		return restoreId;
 	}
 
 	@Override
 	public int bindTexture( final Texture texture )
 	{
-		final TexId texId = getTextureId( texture );
-
-		final int[] tmp = new int[ 1 ];
-		gl.glGetIntegerv( texId.binding, tmp, 0 );
-		final int restoreId = tmp[ 0 ];
-
-		gl.glBindTexture( texId.target, texId.id );
-
-		return restoreId;
+		final int id = getTextureId( texture ).id;
+		return bindTextureId( id, texture.texDims() );
 	}
 
 	@Override
 	public void bindTexture( final Texture texture, final int unit )
 	{
-		final TexId texId = getTextureId( texture );
-
-		final int[] tmp = new int[ 1 ];
-		gl.glGetIntegerv( GL_ACTIVE_TEXTURE, tmp, 0 );
-		final int restoreActiveTextureId = tmp[ 0 ];
-
-		gl.glActiveTexture( GL_TEXTURE0 + unit );
-
-		gl.glGetIntegerv( texId.binding, tmp, 0 );
-		final int restoreId = tmp[ 0 ];
-
-		gl.glBindTexture( texId.target, texId.id );
+		final int id = getTextureId( texture ).id;
+		activeTexture( unit );
+		bindTexture( texture.texDims(), id );
 	}
 
 	@Override
 	public int bindTextureId( final int id, final int numTexDimensions )
 	{
-		final int[] tmp = new int[ 1 ];
-		gl.glGetIntegerv( targetBinding( numTexDimensions ), tmp, 0 );
-		final int restoreId = tmp[ 0 ];
-
-		gl.glBindTexture( target( numTexDimensions ), id );
-
+		final int restoreId = boundTexture( numTexDimensions );
+		bindTexture( numTexDimensions, id );
 		return restoreId;
 	}
 
 	@Override
 	public Buffer map( final StagingBuffer stagingBuffer )
 	{
-		final int pboId = getPboId( stagingBuffer );
-
-		final int[] tmp = new int[ 1 ];
-		gl.glGetIntegerv( GL_PIXEL_UNPACK_BUFFER_BINDING, tmp, 0 );
-		final int restoreId = tmp[ 0 ];
-
-		if ( restoreId != pboId )
-			gl.glBindBuffer( GL_PIXEL_UNPACK_BUFFER, pboId );
-
+		final int restoreId = bindStagingBuffer( stagingBuffer );
 		gl.glBufferData( GL_PIXEL_UNPACK_BUFFER, stagingBuffer.getSizeInBytes(), null, GL_STREAM_DRAW );
 		final ByteBuffer buffer = gl.glMapBuffer( GL_PIXEL_UNPACK_BUFFER, GL_WRITE_ONLY );
-
-		if ( restoreId != pboId )
-			gl.glBindBuffer( GL_PIXEL_UNPACK_BUFFER, restoreId );
-
+		bindPbo( restoreId );
 		return buffer;
 	}
 
 	@Override
 	public void unmap( final StagingBuffer stagingBuffer )
 	{
-		final int pboId = getPboId( stagingBuffer );
-
-		final int[] tmp = new int[ 1 ];
-		gl.glGetIntegerv( GL_PIXEL_UNPACK_BUFFER_BINDING, tmp, 0 );
-		final int restoreId = tmp[ 0 ];
-
-		if ( restoreId != pboId )
-			gl.glBindBuffer( GL_PIXEL_UNPACK_BUFFER, pboId );
-
+		final int restoreId = bindStagingBuffer( stagingBuffer );
 		gl.glUnmapBuffer( GL_PIXEL_UNPACK_BUFFER );
-
-		if ( restoreId != pboId )
-			gl.glBindBuffer( GL_PIXEL_UNPACK_BUFFER, restoreId );
+		bindPbo( restoreId );
 	}
 
 	@Override
 	public void delete( final Texture texture )
 	{
 		final TexId texId = textures.remove( texture );
-		if ( texId != null )
-			gl.glDeleteTextures( 1, new int[] { texId.id }, 0 );
+		if ( texId != null && texId.resource != null )
+			release( texId.resource );
 	}
 
 	@Override
 	public void texSubImage3D( final StagingBuffer stagingBuffer, final Texture3D texture, final int xoffset, final int yoffset, final int zoffset, final int width, final int height, final int depth, final long pixels_buffer_offset )
 	{
-		final int pboId = getPboId( stagingBuffer );
 		final int textureId = getTextureId( texture ).id;
-
-		final int[] tmp = new int[ 1 ];
-		gl.glGetIntegerv( GL_PIXEL_UNPACK_BUFFER_BINDING, tmp, 0 );
-		final int restorePboId = tmp[ 0 ];
-
-		gl.glGetIntegerv( GL_TEXTURE_BINDING_3D, tmp, 0 );
-		final int restoreTextureId = tmp[ 0 ];
-
-		if ( restorePboId != pboId )
-			gl.glBindBuffer( GL_PIXEL_UNPACK_BUFFER, pboId );
-
-		if ( restoreTextureId != textureId )
-			gl.glBindTexture( GL_TEXTURE_3D, textureId );
+		final int restorePboId = bindStagingBuffer( stagingBuffer );
+		final int restoreTextureId = bindTextureId( textureId, 3 );
 
 		gl.glTexSubImage3D( GL_TEXTURE_3D, 0, xoffset, yoffset, zoffset, width, height, depth, format( texture ), type( texture ), pixels_buffer_offset );
 
-		if ( restorePboId != pboId )
-			gl.glBindBuffer( GL_PIXEL_UNPACK_BUFFER, restorePboId );
-
-		if ( restoreTextureId != textureId )
-			gl.glBindTexture( GL_TEXTURE_3D, restoreTextureId );
+		bindPbo( restorePboId );
+		bindTexture( 3, restoreTextureId );
 	}
 
 	@Override
 	public void texSubImage3D( final Texture3D texture, final int xoffset, final int yoffset, final int zoffset, final int width, final int height, final int depth, final Buffer pixels )
 	{
 		final int textureId = getTextureId( texture ).id;
+		final int restoreTextureId = bindTextureId( textureId, 3 );
 
-		final int[] tmp = new int[ 1 ];
-		gl.glGetIntegerv( GL_TEXTURE_BINDING_3D, tmp, 0 );
-		final int restoreTextureId = tmp[ 0 ];
+		gl.glTexSubImage3D( GL_TEXTURE_3D, 0, xoffset, yoffset, zoffset, width, height, depth, format( texture ), type( texture ), pixels );
 
-		if ( restoreTextureId != textureId )
-			gl.glBindTexture( GL_TEXTURE_3D, textureId );
+		bindTexture( 3, restoreTextureId );
+	}
 
-		gl.glTexSubImage3D( GL_TEXTURE_3D, 0, xoffset, yoffset, zoffset, width, height, depth, format( texture ), type( texture ), pixels );
+	@Override
+	public GpuMemory getMemory()
+	{
+		return memory;
+	}
 
-		if ( restoreTextureId != textureId )
-			gl.glBindTexture( GL_TEXTURE_3D, restoreTextureId );
+	/**
+	 * Delete GL objects whose owners ({@code Texture}, {@code StagingBuffer},
+	 * {@code Shader}, or owners registered with {@link #track}) have been
+	 * garbage-collected. Must be called on the GL thread.
+	 */
+	public void reclaim()
+	{
+		boolean released = false;
+		Reference< ? > ref;
+		while ( ( ref = orphans.poll() ) != null )
+			released |= release( ( Resource ) ref );
+		if ( released )
+			invalidate();
+	}
+
+	/**
+	 * Account for GL objects that were created outside of this context, and
+	 * delete them (on the GL thread) when {@code owner} is garbage-collected.
+	 * {@code delete} must not reference {@code owner}.
+	 *
+	 * @param owner
+	 * 		the object that holds the GL objects
+	 * @param category
+	 * 		memory category
+	 * @param bytes
+	 * 		estimated GPU memory held by the GL objects
+	 * @param delete
+	 * 		deletes the GL objects
+	 */
+	public void track( final Object owner, final GpuMemory.Category category, final long bytes, final Consumer< GL3 > delete )
+	{
+		track( owner, 0, category, bytes, () -> delete.accept( gl ) );
+	}
+
+	@Override
+	public void invalidate()
+	{
+		boundProgram = UNKNOWN;
+		boundPbo = UNKNOWN;
+		activeUnit = UNKNOWN;
+		for ( final int[] bindings : boundTextures )
+			Arrays.fill( bindings, UNKNOWN );
+	}
+
+	/**
+	 * Set the directory in which linked shader program binaries are cached
+	 * across sessions (default {@code ~/.bvv/shadercache}). This affects
+	 * contexts created afterwards.
+	 *
+	 * @param dir
+	 * 		cache directory, or {@code null} to disable the cache.
+	 */
+	public static void setProgramBinaryCacheDirectory( final File dir )
+	{
+		programBinaryCacheDirectory = dir;
 	}
 
 	public static JoglGpuContext get( final GL3 gl )
@@ -268,7 +295,7 @@ public class JoglGpuContext implements GpuContext
 
 	public int getPboIdHack( StagingBuffer stagingBuffer )
 	{
-		return pbos.get( stagingBuffer );
+		return pbos.get( stagingBuffer ).id;
 	}
 
 	public int getTextureIdHack( Texture texture )
@@ -278,7 +305,7 @@ public class JoglGpuContext implements GpuContext
 
 	public int getProgramIdHack( Shader shader )
 	{
-		return shaders.get( shader ).program();
+		return shaders.get( shader ).id;
 	}
 
 	/*
@@ -289,41 +316,353 @@ public class JoglGpuContext implements GpuContext
 
 	private final GL3 gl;
 
-	private final Map< Shader, ShaderProgram > shaders = new WeakHashMap<>();
+	private final Map< Shader, Program > shaders = new WeakHashMap<>();
 
-	private final Map< StagingBuffer, Integer > pbos = new WeakHashMap<>();
+	/**
+	 * Whether {@code GL_KHR_parallel_shader_compile} (or the ARB variant) is
+	 * available. Then shaders are compiled and linked in the background by
+	 * the driver, and completion can be polled without blocking.
+	 */
+	private final boolean parallelShaderCompile;
+
+	/**
+	 * Persists linked program binaries across sessions, or {@code null} if disabled or not supported.
+	 */
+	private final ProgramBinaryCache programBinaryCache;
+
+	private static volatile File programBinaryCacheDirectory = new File( System.getProperty( "user.home" ), ".bvv" + File.separator + "shadercache" );
+
+	/**
+	 * {@code GL_COMPLETION_STATUS_KHR} (same value for ARB).
+	 */
+	private static final int GL_COMPLETION_STATUS = 0x91B1;
+
+	private final Map< StagingBuffer, Resource > pbos = new WeakHashMap<>();
 
 	private final Map< Texture, TexId > textures = new WeakHashMap<>();
 
+	/**
+	 * GL objects (textures, buffers, programs) owned by this context. They are
+	 * deleted when released explicitly or when their owner is
+	 * garbage-collected, see {@link #reclaim()}.
+	 */
+	private final Set< Resource > resources = new HashSet<>();
+
+	private final ReferenceQueue< Object > orphans = new ReferenceQueue<>();
+
+	private final GpuMemory memory = new GpuMemory();
+
+	/*
+	 * Shadowed GL state. Bindings are tracked here to avoid glGet round trips
+	 * (which may force the driver to synchronize). A value of UNKNOWN means
+	 * the state must be queried from GL on next access, see invalidate().
+	 */
+
+	private static final int UNKNOWN = -1;
+
+	private int boundProgram = UNKNOWN;
+
+	private int boundPbo = UNKNOWN;
+
+	private int activeUnit = UNKNOWN;
+
+	/**
+	 * Bound texture ids, indexed by {@code [numTexDimensions - 1][unit]}.
+	 */
+	private final int[][] boundTextures = new int[ 3 ][ 0 ];
+
+	private final int[] queried = new int[ 1 ];
+
 	private JoglGpuContext( final GL3 gl )
 	{
 		this.gl = gl;
+		parallelShaderCompile =
+				gl.isExtensionAvailable( "GL_KHR_parallel_shader_compile" ) ||
+				gl.isExtensionAvailable( "GL_ARB_parallel_shader_compile" );
+		programBinaryCache = ProgramBinaryCache.create( gl, programBinaryCacheDirectory );
+	}
+
+	/**
+	 * A shader program that is compiled and linked asynchronously. Compile and
+	 * link status are only queried in {@link #finish}, because these queries
+	 * block until the driver is done. If a {@link ProgramBinaryCache} is given,
+	 * the program is loaded from the cached binary if possible, and otherwise
+	 * its binary is stored after linking.
+	 */
+	private static class Program
+	{
+		final int id;
+
+		private int vs;
+
+		private int fs;
+
+		private final ProgramBinaryCache cache;
+
+		private final String key;
+
+		boolean linked;
+
+		/**
+		 * Reused for all {@link #getUniformSetter} calls, caches uniform locations.
+		 */
+		JoglSetUniforms uniformSetter;
+
+		Program( final GL3 gl, final CharSequence vertexShaderCode, final CharSequence fragmentShaderCode, final ProgramBinaryCache cache )
+		{
+			final String vsSource = customize( gl, GL_VERTEX_SHADER, vertexShaderCode );
+			final String fsSource = customize( gl, GL_FRAGMENT_SHADER, fragmentShaderCode );
+			id = gl.glCreateProgram();
+			this.cache = cache;
+			if ( cache != null )
+			{
+				key = cache.key( vsSource, fsSource );
+				if ( cache.load( gl, id, key ) )
+				{
+					linked = true;
+					return;
+				}
+				cache.prepare( gl, id );
+			}
+			else
+				key = null;
+			vs = compile( gl, GL_VERTEX_SHADER, vsSource );
+			fs = compile( gl, GL_FRAGMENT_SHADER, fsSource );
+			gl.glAttachShader( id, vs );
+			gl.glAttachShader( id, fs );
+			gl.glLinkProgram( id );
+		}
+
+		/**
+		 * Add version header etc. to shader {@code code}.
+		 */
+		private static String customize( final GL3 gl, final int type, final CharSequence code )
+		{
+			final ShaderCode sc = new ShaderCode( type, 1, new CharSequence[][] { { code } } );
+			sc.defaultShaderCustomization( gl, true, false );
+			final StringBuilder source = new StringBuilder();
+			for ( final CharSequence part : sc.shaderSource()[ 0 ] )
+				source.append( part );
+			return source.toString();
+		}
+
+		private static int compile( final GL3 gl, final int type, final String source )
+		{
+			final int shader = gl.glCreateShader( type );
+			gl.glShaderSource( shader, 1, new String[] { source }, new int[] { source.length() }, 0 );
+			gl.glCompileShader( shader );
+			return shader;
+		}
+
+		/**
+		 * Wait for linking to complete, print errors, and release the shader objects.
+		 */
+		void finish( final GL3 gl )
+		{
+			final int[] status = new int[ 1 ];
+			gl.glGetProgramiv( id, GL_LINK_STATUS, status, 0 );
+			if ( status[ 0 ] == GL_FALSE )
+			{
+				printShaderLog( gl, vs );
+				printShaderLog( gl, fs );
+				final int[] length = new int[ 1 ];
+				gl.glGetProgramiv( id, GL_INFO_LOG_LENGTH, length, 0 );
+				final byte[] log = new byte[ Math.max( length[ 0 ], 1 ) ];
+				gl.glGetProgramInfoLog( id, log.length, length, 0, log, 0 );
+				System.err.println( "shader program link failed:\n" + new String( log, 0, length[ 0 ] ) );
+			}
+			else if ( cache != null )
+				cache.store( gl, id, key );
+			gl.glDetachShader( id, vs );
+			gl.glDetachShader( id, fs );
+			gl.glDeleteShader( vs );
+			gl.glDeleteShader( fs );
+			linked = true;
+		}
+
+		private static void printShaderLog( final GL3 gl, final int shader )
+		{
+			final int[] status = new int[ 1 ];
+			gl.glGetShaderiv( shader, GL_COMPILE_STATUS, status, 0 );
+			if ( status[ 0 ] == GL_FALSE )
+			{
+				final int[] length = new int[ 1 ];
+				gl.glGetShaderiv( shader, GL_INFO_LOG_LENGTH, length, 0 );
+				final byte[] log = new byte[ Math.max( length[ 0 ], 1 ) ];
+				gl.glGetShaderInfoLog( shader, log.length, length, 0, log, 0 );
+				System.err.println( "shader compilation failed:\n" + new String( log, 0, length[ 0 ] ) );
+			}
+		}
 	}
 
-	private ShaderProgram getShaderProgram( final Shader shader )
+	/**
+	 * Get the program for {@code shader}, starting compilation if necessary.
+	 * The returned program may still be compiling.
+	 */
+	private Program getShaderProgram( final Shader shader )
 	{
 		return shaders.computeIfAbsent( shader, s -> {
-			final ShaderCode vs = new ShaderCode( GL_VERTEX_SHADER, 1, new CharSequence[][] { { s.getVertexShaderCode() } } );
-			final ShaderCode fs = new ShaderCode( GL_FRAGMENT_SHADER, 1, new CharSequence[][] { { s.getFragmentShaderCode() } } );
-			vs.defaultShaderCustomization( gl, true, false );
-			fs.defaultShaderCustomization( gl, true, false );
-			final ShaderProgram prog = new ShaderProgram();
-			prog.add( vs );
-			prog.add( fs );
-			prog.link( gl, System.err );
-			vs.destroy( gl );
-			fs.destroy( gl );
+			final Program prog = new Program( gl, s.getVertexShaderCode(), s.getFragmentShaderCode(), programBinaryCache );
+			track( s, prog.id, GpuMemory.Category.OTHER, 0, () -> {
+				gl.glDeleteProgram( prog.id );
+				boundProgram = UNKNOWN;
+			} );
 			return prog;
 		} );
 	}
 
+	/**
+	 * Get the program for {@code shader}, waiting for compilation to complete if necessary.
+	 */
+	private Program getLinkedProgram( final Shader shader )
+	{
+		final Program prog = getShaderProgram( shader );
+		if ( !prog.linked )
+			prog.finish( gl );
+		return prog;
+	}
+
+	private int query( final int pname )
+	{
+		gl.glGetIntegerv( pname, queried, 0 );
+		return queried[ 0 ];
+	}
+
+	private int boundPbo()
+	{
+		if ( boundPbo == UNKNOWN )
+			boundPbo = query( GL_PIXEL_UNPACK_BUFFER_BINDING );
+		return boundPbo;
+	}
+
+	private void bindPbo( final int id )
+	{
+		if ( boundPbo() != id )
+		{
+			gl.glBindBuffer( GL_PIXEL_UNPACK_BUFFER, id );
+			boundPbo = id;
+		}
+	}
+
+	private int activeUnit()
+	{
+		if ( activeUnit == UNKNOWN )
+			activeUnit = query( GL_ACTIVE_TEXTURE ) - GL_TEXTURE0;
+		return activeUnit;
+	}
+
+	private void activeTexture( final int unit )
+	{
+		if ( activeUnit() != unit )
+		{
+			gl.glActiveTexture( GL_TEXTURE0 + unit );
+			activeUnit = unit;
+		}
+	}
+
+	/**
+	 * Get the id of the texture bound to the active unit for the given target.
+	 */
+	private int boundTexture( final int numTexDimensions )
+	{
+		final int unit = activeUnit();
+		int[] bindings = boundTextures[ numTexDimensions - 1 ];
+		if ( unit >= bindings.length )
+		{
+			final int oldLength = bindings.length;
+			bindings = Arrays.copyOf( bindings, unit + 1 );
+			Arrays.fill( bindings, oldLength, bindings.length, UNKNOWN );
+			boundTextures[ numTexDimensions - 1 ] = bindings;
+		}
+		if ( bindings[ unit ] == UNKNOWN )
+			bindings[ unit ] = query( targetBinding( numTexDimensions ) );
+		return bindings[ unit ];
+	}
+
+	/**
+	 * Bind texture {@code id} to the active unit for the given target, if it is not bound already.
+	 */
+	private void bindTexture( final int numTexDimensions, final int id )
+	{
+		if ( boundTexture( numTexDimensions ) != id )
+		{
+			gl.glBindTexture( target( numTexDimensions ), id );
+			boundTextures[ numTexDimensions - 1 ][ activeUnit ] = id;
+		}
+	}
+
+	/**
+	 * A GL object that is deleted when its owner is garbage-collected.
+	 */
+	private static class Resource extends WeakReference< Object >
+	{
+		final int id;
+
+		final GpuMemory.Category category;
+
+		final long bytes;
+
+		final Runnable delete;
+
+		Resource( final Object owner, final ReferenceQueue< Object > queue, final int id, final GpuMemory.Category category, final long bytes, final Runnable delete )
+		{
+			super( owner, queue );
+			this.id = id;
+			this.category = category;
+			this.bytes = bytes;
+			this.delete = delete;
+		}
+	}
+
+	private Resource track( final Object owner, final int id, final GpuMemory.Category category, final long bytes, final Runnable delete )
+	{
+		final Resource resource = new Resource( owner, orphans, id, category, bytes, delete );
+		resources.add( resource );
+		memory.allocated( category, bytes );
+		return resource;
+	}
+
+	/**
+	 * Delete the GL object of {@code resource}, if that has not happened yet.
+	 *
+	 * @return {@code true} if the GL object was deleted.
+	 */
+	private boolean release( final Resource resource )
+	{
+		if ( !resources.remove( resource ) )
+			return false;
+		resource.clear();
+		resource.delete.run();
+		memory.freed( resource.category, resource.bytes );
+		return true;
+	}
+
+	private void deleteBuffer( final int id )
+	{
+		gl.glDeleteBuffers( 1, new int[] { id }, 0 );
+		// deleting a buffer resets bindings to it to 0
+		if ( boundPbo == id )
+			boundPbo = 0;
+	}
+
+	private void deleteTexture( final int id )
+	{
+		gl.glDeleteTextures( 1, new int[] { id }, 0 );
+		// deleting a texture resets bindings to it to 0
+		for ( final int[] bindings : boundTextures )
+			for ( int unit = 0; unit < bindings.length; ++unit )
+				if ( bindings[ unit ] == id )
+					bindings[ unit ] = 0;
+	}
+
 	private int getPboId( final StagingBuffer stagingBuffer )
 	{
-		return pbos.computeIfAbsent( stagingBuffer, o -> {
+		return pbos.computeIfAbsent( stagingBuffer, buf -> {
 			final int[] tmp = new int[ 1 ];
 			gl.glGenBuffers( 1, tmp, 0 );
-			return tmp[ 0 ];
-		} );
+			final int id = tmp[ 0 ];
+			return track( buf, id, GpuMemory.Category.PBO, buf.getSizeInBytes(), () -> deleteBuffer( id ) );
+		} ).id;
 	}
 
 	private static class TexId
@@ -334,6 +673,11 @@ public class JoglGpuContext implements GpuContext
 
 		int binding; // GL_TEXTURE_BINDING_1D, GL_TEXTURE_BINDING_2D, or GL_TEXTURE_BINDING_3D
 
+		/**
+		 * {@code null} for textures that are {@link #registerTexture registered}, i.e., not owned by this context.
+		 */
+		Resource resource;
+
 		TexId( final int id, final int target, final int binding )
 		{
 			this.id = id;
@@ -342,18 +686,34 @@ public class JoglGpuContext implements GpuContext
 		}
 	}
 
+	private static long sizeInBytes( final Texture texture )
+	{
+		final long bytesPerElement = Math.max( 0, texture.texInternalFormat().getBytesPerElement() );
+		return bytesPerElement
+				* Math.max( 1, texture.texWidth() )
+				* Math.max( 1, texture.texHeight() )
+				* Math.max( 1, texture.texDepth() );
+	}
+
 	private TexId getTextureId( final Texture texture )
 	{
+		final TexId existing = textures.get( texture );
+		if ( existing != null )
+			return existing;
+
+		// reclaim() runs arbitrary delete callbacks, keep it out of the mapping function
+		reclaim();
+		final long bytes = sizeInBytes( texture );
+		// mandatory allocations are not refused, only warned about
+		memory.checkBudget( bytes );
+
 		return textures.computeIfAbsent( texture, tex -> {
 			final int[] tmp = new int[ 1 ];
 			gl.glGenTextures( 1, tmp, 0 );
 			final int id = tmp[ 0 ];
 
 			final int target = target( tex );
-			gl.glGetIntegerv( targetBinding( tex ), tmp, 0 );
-			final int restoreId = tmp[ 0 ];
-
-			gl.glBindTexture( target, id );
+			final int restoreId = bindTextureId( id, tex.texDims() );
 			gl.glTexStorage3D( target, 1, internalFormat( tex ), tex.texWidth(), tex.texHeight(), tex.texDepth() );
 			gl.glTexParameteri( target, GL_TEXTURE_MIN_FILTER, minFilter( tex ) );
 			gl.glTexParameteri( target, GL_TEXTURE_MAG_FILTER, magFilter( tex ) );
@@ -365,22 +725,19 @@ public class JoglGpuContext implements GpuContext
 			if ( tex.texWrap() == CLAMP_TO_BORDER_ZERO )
 				gl.glTexParameterfv( target, GL_TEXTURE_BORDER_COLOR, new float[ 4 ], 1 );
 
-			gl.glBindTexture( target, restoreId );
+			bindTexture( tex.texDims(), restoreId );
 
-			return new TexId( id, target, targetBinding( texture ) );
+			final TexId texId = new TexId( id, target, targetBinding( texture ) );
+			texId.resource = track( tex, id, tex.texMemoryCategory(), bytes, () -> deleteTexture( id ) );
+			return texId;
 		} );
 	}
 
 	public void registerTexture( final Texture texture, final int id )
 	{
 		textures.computeIfAbsent( texture, tex -> {
-			final int[] tmp = new int[ 1 ];
-
 			final int target = target( tex );
-			gl.glGetIntegerv( targetBinding( tex ), tmp, 0 );
-			final int restoreId = tmp[ 0 ];
-
-			gl.glBindTexture( target, id );
+			final int restoreId = bindTextureId( id, tex.texDims() );
 			gl.glTexParameteri( target, GL_TEXTURE_MIN_FILTER, minFilter( tex ) );
 			gl.glTexParameteri( target, GL_TEXTURE_MAG_FILTER, magFilter( tex ) );
 			gl.glTexParameteri( target, GL_TEXTURE_WRAP_S, wrap( tex ) );
@@ -389,7 +746,7 @@ public class JoglGpuContext implements GpuContext
 			if ( tex.texDims() > 2 )
 				gl.glTexParameteri( target, GL_TEXTURE_WRAP_R, wrap( tex ) );
 
-			gl.glBindTexture( target, restoreId );
+			bindTexture( tex.texDims(), restoreId );
 
 			return new TexId( id, target, targetBinding( texture ) );
 		} );
@@ -447,6 +804,8 @@ public class JoglGpuContext implements GpuContext
 			return GL_RGBA8;
 		case RGBA8UI:
 			return GL_RGBA8UI;
+		case RGBA16UI:
+			return GL_RGBA16UI;
 		case R32F:
 			return GL_R32F;
 		default:
@@ -466,6 +825,8 @@ public class JoglGpuContext implements GpuContext
 			return GL_RGBA;
 		case RGBA8UI:
 			return GL_RGBA_INTEGER;
+		case RGBA16UI:
+			return GL_RGBA_INTEGER;
 		case R32F:
 			return GL_RED;
 		default:
@@ -485,6 +846,8 @@ public class JoglGpuContext implements GpuContext
 			return GL_UNSIGNED_BYTE;
 		case RGBA8UI:
 			return GL_UNSIGNED_BYTE;
+		case RGBA16UI:
+			return GL_UNSIGNED_SHORT;
 		case R32F:
 			return GL_FLOAT;
 		default:
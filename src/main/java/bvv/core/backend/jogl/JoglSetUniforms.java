@@ -30,14 +30,22 @@ package bvv.core.backend.jogl;
 
 import com.jogamp.opengl.GL2ES2;
 import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
 import bvv.core.backend.SetUniforms;
 
+/**
+ * Sets uniforms of one shader program. Uniform locations are queried once and
+ * cached, so instances should be reused for the lifetime of the program.
+ */
 public class JoglSetUniforms implements SetUniforms
 {
 	private final GL2ES2 gl;
 
 	private final int program;
 
+	private final Map< String, Integer > locations = new HashMap<>();
+
 	JoglSetUniforms( final GL2ES2 gl, final int program )
 	{
 		this.gl = gl;
@@ -160,6 +168,12 @@ public class JoglSetUniforms implements SetUniforms
 
 	private int location( final String name )
 	{
-		return gl.glGetUniformLocation( program, name );
+		Integer location = locations.get( name );
+		if ( location == null )
+		{
+			location = gl.glGetUniformLocation( program, name );
+			locations.put( name, location );
+		}
+		return location;
 	}
 }
@@ -0,0 +1,199 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.backend.jogl;
+
+import com.jogamp.opengl.GL3;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static com.jogamp.opengl.GL.GL_FALSE;
+import static com.jogamp.opengl.GL.GL_RENDERER;
+import static com.jogamp.opengl.GL.GL_VENDOR;
+import static com.jogamp.opengl.GL.GL_VERSION;
+import static com.jogamp.opengl.GL2ES2.GL_LINK_STATUS;
+
+/**
+ * Persists linked program binaries ({@code glGetProgramBinary}) in a
+ * directory, so that programs do not have to be compiled again in later
+ * sessions. Binaries are keyed by the SHA-1 of driver (vendor, renderer,
+ * version) and shader sources. If a binary cannot be loaded (e.g., because
+ * the driver was updated), the program is compiled from source.
+ */
+class ProgramBinaryCache
+{
+	private static final int GL_PROGRAM_BINARY_RETRIEVABLE_HINT = 0x8257;
+
+	private static final int GL_PROGRAM_BINARY_LENGTH = 0x8741;
+
+	private static final int GL_NUM_PROGRAM_BINARY_FORMATS = 0x87FE;
+
+	private final File dir;
+
+	private final String driver;
+
+	private ProgramBinaryCache( final File dir, final String driver )
+	{
+		this.dir = dir;
+		this.driver = driver;
+	}
+
+	/**
+	 * Create a cache in {@code dir}.
+	 *
+	 * @return the cache, or {@code null} if {@code dir == null} or program
+	 * binaries are not supported by the driver.
+	 */
+	static ProgramBinaryCache create( final GL3 gl, final File dir )
+	{
+		if ( dir == null || !gl.isFunctionAvailable( "glProgramBinary" ) )
+			return null;
+		final int[] numFormats = new int[ 1 ];
+		gl.glGetIntegerv( GL_NUM_PROGRAM_BINARY_FORMATS, numFormats, 0 );
+		if ( numFormats[ 0 ] == 0 )
+			return null;
+		final String driver = gl.glGetString( GL_VENDOR ) + "\n" + gl.glGetString( GL_RENDERER ) + "\n" + gl.glGetString( GL_VERSION );
+		return new ProgramBinaryCache( dir, driver );
+	}
+
+	/**
+	 * Compute the cache key for a program with the given (final) shader sources.
+	 */
+	String key( final String vertexShaderSource, final String fragmentShaderSource )
+	{
+		try
+		{
+			final MessageDigest sha1 = MessageDigest.getInstance( "SHA-1" );
+			sha1.update( driver.getBytes( StandardCharsets.UTF_8 ) );
+			sha1.update( ( byte ) 0 );
+			sha1.update( vertexShaderSource.getBytes( StandardCharsets.UTF_8 ) );
+			sha1.update( ( byte ) 0 );
+			sha1.update( fragmentShaderSource.getBytes( StandardCharsets.UTF_8 ) );
+			final StringBuilder sb = new StringBuilder();
+			for ( final byte b : sha1.digest() )
+				sb.append( String.format( "%02x", b ) );
+			return sb.toString();
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+
+	/**
+	 * Try to load the binary for {@code key} into {@code program}.
+	 *
+	 * @return {@code true} if {@code program} was successfully linked from the cached binary.
+	 */
+	boolean load( final GL3 gl, final int program, final String key )
+	{
+		final File file = file( key );
+		if ( !file.isFile() )
+			return false;
+
+		final byte[] bytes;
+		try
+		{
+			bytes = Files.readAllBytes( file.toPath() );
+		}
+		catch ( final IOException e )
+		{
+			return false;
+		}
+		if ( bytes.length <= 4 )
+			return false;
+
+		final ByteBuffer data = ByteBuffer.allocateDirect( bytes.length );
+		data.put( bytes ).flip();
+		final int format = data.getInt();
+		gl.glProgramBinary( program, format, data.slice(), bytes.length - 4 );
+
+		final int[] status = new int[ 1 ];
+		gl.glGetProgramiv( program, GL_LINK_STATUS, status, 0 );
+		if ( status[ 0 ] == GL_FALSE )
+		{
+			// stale binary (e.g., driver update), will be replaced after compiling from source
+			file.delete();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Ask the driver to keep the binary of {@code program} retrievable. Must be
+	 * called before linking.
+	 */
+	void prepare( final GL3 gl, final int program )
+	{
+		gl.glProgramParameteri( program, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, 1 );
+	}
+
+	/**
+	 * Store the binary of the (successfully linked) {@code program} for {@code key}.
+	 * Errors are ignored, the cache is best effort only.
+	 */
+	void store( final GL3 gl, final int program, final String key )
+	{
+		final int[] length = new int[ 1 ];
+		gl.glGetProgramiv( program, GL_PROGRAM_BINARY_LENGTH, length, 0 );
+		if ( length[ 0 ] <= 0 )
+			return;
+
+		final ByteBuffer data = ByteBuffer.allocateDirect( 4 + length[ 0 ] );
+		final ByteBuffer binary = ( ByteBuffer ) data.duplicate().position( 4 );
+		final int[] format = new int[ 1 ];
+		gl.glGetProgramBinary( program, length[ 0 ], length, 0, format, 0, binary.slice() );
+		data.putInt( 0, format[ 0 ] );
+		final byte[] bytes = new byte[ 4 + length[ 0 ] ];
+		data.get( bytes );
+
+		try
+		{
+			dir.mkdirs();
+			final File file = file( key );
+			final File tmp = File.createTempFile( key, ".tmp", dir );
+			Files.write( tmp.toPath(), bytes );
+			Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+		}
+		catch ( final IOException e )
+		{
+			// ignore
+		}
+	}
+
+	private File file( final String key )
+	{
+		return new File( dir, key + ".bin" );
+	}
+}
@@ -30,6 +30,9 @@ package bvv.core.blockmath;
 
 import bvv.core.util.MatrixMath;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import net.imglib2.algorithm.kdtree.ConvexPolytope;
 import net.imglib2.algorithm.kdtree.HyperPlane;
@@ -130,6 +133,9 @@ public class FindRequiredBlocks
 	{
 		final int n = clip.numDimensions();
 		final RequiredBlocks required = new RequiredBlocks( n );
+		for ( int d = 0; d < n; ++d )
+			if ( gridMin[ d ] > gridMax[ d ] )
+				return required;
 
 		final ConvexPolytope shrunkClip = shrinkClippingPolytope( clip, blockSize );
 //		System.out.println( "shrunkClip = " + GeomUtils.toString( shrunkClip ) );
@@ -170,17 +176,43 @@ public class FindRequiredBlocks
 			final int[] blockSize,
 			final long[] gridMin,
 			final long[] gridMax )
+	{
+		return getRequiredLevelBlocksFrustum( levelToNDC, blockSize, gridMin, gridMax, Collections.emptyList() );
+	}
+
+	/**
+	 * Backproject NDC {@code (-1,-1,-1) ... (1,1,1)} to source image and find
+	 * overlapping blocks that also overlap all {@code clipPlanes}.
+	 *
+	 * @param levelToNDC
+	 * 		Projection * View * Model * Upscale matrix
+	 * @param blockSize
+	 * @param gridMin
+	 * @param gridMax
+	 * @param clipPlanes
+	 * 		additional half-spaces (in source level coordinates, normals facing inwards) restricting the visible region
+	 *
+	 * @return
+	 */
+	public static RequiredBlocks getRequiredLevelBlocksFrustum(
+			final Matrix4fc levelToNDC,
+			final int[] blockSize,
+			final long[] gridMin,
+			final long[] gridMax,
+			final List< HyperPlane > clipPlanes )
 	{
 		final Matrix4f T = levelToNDC.transpose( new Matrix4f() );
 
 		// planes bounding the view frustum, normals facing inwards, transformed to source coordinates
-		final ConvexPolytope sourceRegion = new ConvexPolytope(
+		final List< HyperPlane > planes = new ArrayList<>( Arrays.asList(
 				sourceHyperPlane( T,  1,  0,  0, -1 ),
 				sourceHyperPlane( T, -1,  0,  0, -1 ),
 				sourceHyperPlane( T,  0,  1,  0, -1 ),
 				sourceHyperPlane( T,  0, -1,  0, -1 ),
 				sourceHyperPlane( T,  0,  0,  1, -1 ),
-				sourceHyperPlane( T,  0,  0, -1, -1 ) );
+				sourceHyperPlane( T,  0,  0, -1, -1 ) ) );
+		planes.addAll( clipPlanes );
+		final ConvexPolytope sourceRegion = new ConvexPolytope( planes );
 
 		return getRequiredBlocks( sourceRegion, blockSize, gridMin, gridMax );
 	}
@@ -30,6 +30,7 @@ package bvv.core.blockmath;
 
 import bvv.core.util.MatrixMath;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import net.imglib2.algorithm.kdtree.ConvexPolytope;
@@ -69,6 +70,27 @@ public class MipmapSizes
 
 	private final Vector3f dir = new Vector3f();
 
+	/**
+	 * {@code Projection * View * Model} matrix, for evaluating screen-space errors.
+	 */
+	private final Matrix4f sourceToNDC = new Matrix4f();
+
+	/**
+	 * Viewport pixels per NDC unit, in X and Y.
+	 */
+	private float pixelsPerNDCX;
+	private float pixelsPerNDCY;
+
+	/**
+	 * {@code w} coordinate (in clip space) of the near plane.
+	 */
+	private float wNear;
+
+	/**
+	 * Scale factors from each resolution level to full resolution.
+	 */
+	private int[][] levelScaleFactors;
+
 	/**
 	 * @param sourceToNDC
 	 * 		{@code Projection * View * Model} matrix
@@ -77,10 +99,44 @@ public class MipmapSizes
 	 */
 	public void init( final Matrix4fc sourceToNDC, final int viewportWidth, final List< ? extends ResolutionLevel3D< ? > > resolutions )
 	{
+		init( sourceToNDC, viewportWidth, viewportWidth, resolutions );
+	}
+
+	/**
+	 * @param sourceToNDC
+	 * 		{@code Projection * View * Model} matrix
+	 * @param viewportWidth
+	 * @param viewportHeight
+	 * @param resolutions
+	 */
+	public void init( final Matrix4fc sourceToNDC, final int viewportWidth, final int viewportHeight, final List< ? extends ResolutionLevel3D< ? > > resolutions )
+	{
+		init( sourceToNDC, viewportWidth, viewportHeight, resolutions, Collections.emptyList() );
+	}
+
+	/**
+	 * @param sourceToNDC
+	 * 		{@code Projection * View * Model} matrix
+	 * @param viewportWidth
+	 * @param viewportHeight
+	 * @param resolutions
+	 * @param clipPlanes
+	 * 		additional half-spaces (in source coordinates) restricting the visible part of the source
+	 */
+	public void init( final Matrix4fc sourceToNDC, final int viewportWidth, final int viewportHeight, final List< ? extends ResolutionLevel3D< ? > > resolutions, final List< HyperPlane > clipPlanes )
+	{
+		this.sourceToNDC.set( sourceToNDC );
+		pixelsPerNDCX = 0.5f * viewportWidth;
+		pixelsPerNDCY = 0.5f * viewportHeight;
+		levelScaleFactors = new int[ resolutions.size() ][];
+		for ( int i = 0; i < resolutions.size(); i++ )
+			levelScaleFactors[ i ] = resolutions.get( i ).getR();
+
 		final Matrix4f NDCtoSource = sourceToNDC.invert( new Matrix4f() );
 		final float w = 2f / viewportWidth;
 		// viewport pixel width on near and far plane (in source coordinates)
 		NDCtoSource.transformProject( 0, 0, -1, pNear );
+		wNear = sourceToNDC.transform( new Vector4f( pNear, 1 ) ).w();
 		final Vector3f pFar = NDCtoSource.transformProject( 0, 0, 1, new Vector3f() );
 		sn = NDCtoSource.transformProject( w, 0, -1, new Vector3f() ).sub( pNear ).length();
 		sf = NDCtoSource.transformProject( w, 0, 1, new Vector3f() ).sub( pFar ).length();
@@ -128,10 +184,16 @@ public class MipmapSizes
 		final List< LinearConstraint > constraints = new ArrayList<>();
 		for ( final HyperPlane plane : sourceRegion.getHyperplanes() )
 			constraints.add( new LinearConstraint( plane.getNormal(), Relationship.GEQ, plane.getDistance() ) );
+		for ( final HyperPlane plane : clipPlanes )
+			constraints.add( new LinearConstraint( plane.getNormal(), Relationship.GEQ, plane.getDistance() ) );
+		Vector3f closestSourcePoint = null;
 		try
 		{
 			final PointValuePair sln = new SimplexSolver().optimize( f, new LinearConstraintSet( constraints ), GoalType.MINIMIZE );
 			drelClosestSourcePoint = Math.max( Math.min( sln.getValue().floatValue(), 1.0f ), 0.0f );
+			final double[] p = sln.getPoint();
+			closestSourcePoint = new Vector3f( ( float ) p[ 0 ], ( float ) p[ 1 ], ( float ) p[ 2 ] );
+			isVisible = true;
 		}
 		catch ( final NoFeasibleSolutionException e )
 		{
@@ -139,6 +201,13 @@ public class MipmapSizes
 		}
 
 		baseLevel = bestLevel( drelClosestSourcePoint );
+		if ( closestSourcePoint != null )
+		{
+			// the screen-space error at the closest point may ask for more resolution (e.g., for anisotropic sources)
+			final float[] errors = new float[ resolutions.size() ];
+			getScreenSpaceErrors( closestSourcePoint, closestSourcePoint, errors );
+			baseLevel = Math.min( baseLevel, bestLevel( errors ) );
+		}
 	}
 
 	private static HyperPlane sourceHyperPlane( final Matrix4fc sourceToNDCTransposed, final double nx, final double ny, final double nz, final double d )
@@ -184,6 +253,137 @@ public class MipmapSizes
 		return bestLevel( drel );
 	}
 
+	/**
+	 * Get the screen-space error at each resolution level, for a block
+	 * spanning source coordinates {@code min} to {@code max}.
+	 * <p>
+	 * The screen-space error of a level is the size (in pixels) of a voxel at
+	 * that level, at the point of the block that is closest to the camera. It
+	 * takes into account the lateral position of the block and the
+	 * orientation of the (possibly anisotropic) voxel axes relative to the
+	 * view.
+	 *
+	 * @param min
+	 * 		min corner of the block in source coordinates (full resolution voxels)
+	 * @param max
+	 * 		max corner of the block in source coordinates (full resolution voxels)
+	 * @param errors
+	 * 		array of length {@code numLevels} to store the error for each level
+	 */
+	public void getScreenSpaceErrors( final Vector3fc min, final Vector3fc max, final float[] errors )
+	{
+		final float cx = 0.5f * ( min.x() + max.x() );
+		final float cy = 0.5f * ( min.y() + max.y() );
+		final float cz = 0.5f * ( min.z() + max.z() );
+		final Matrix4f m = sourceToNDC;
+
+		// clip coordinates of block center
+		final float x = m.m00() * cx + m.m10() * cy + m.m20() * cz + m.m30();
+		final float y = m.m01() * cx + m.m11() * cy + m.m21() * cz + m.m31();
+		final float w = m.m03() * cx + m.m13() * cy + m.m23() * cz + m.m33();
+		final float w2 = w * w;
+
+		// size in pixels of a full resolution voxel along each source axis (at block center)
+		final float lx = axisLengthInPixels( m.m00(), m.m01(), m.m03(), x, y, w, w2 );
+		final float ly = axisLengthInPixels( m.m10(), m.m11(), m.m13(), x, y, w, w2 );
+		final float lz = axisLengthInPixels( m.m20(), m.m21(), m.m23(), x, y, w, w2 );
+
+		// closest point of the block to the camera has minimal w
+		final float wMin = w
+				- 0.5f * Math.abs( m.m03() ) * ( max.x() - min.x() )
+				- 0.5f * Math.abs( m.m13() ) * ( max.y() - min.y() )
+				- 0.5f * Math.abs( m.m23() ) * ( max.z() - min.z() );
+		final float scale = w / Math.max( wMin, wNear );
+
+		for ( int l = 0; l < errors.length; ++l )
+		{
+			final int[] r = levelScaleFactors[ l ];
+			errors[ l ] = scale * Math.max( r[ 0 ] * lx, Math.max( r[ 1 ] * ly, r[ 2 ] * lz ) );
+		}
+	}
+
+	/**
+	 * Length in pixels of the derivative of the projected point (with clip
+	 * coordinates {@code x, y, w}) along a source axis (with clip coordinates
+	 * derivatives {@code dx, dy, dw}).
+	 */
+	private float axisLengthInPixels( final float dx, final float dy, final float dw, final float x, final float y, final float w, final float w2 )
+	{
+		final float px = pixelsPerNDCX * ( dx * w - x * dw ) / w2;
+		final float py = pixelsPerNDCY * ( dy * w - y * dw ) / w2;
+		return ( float ) Math.sqrt( px * px + py * py );
+	}
+
+	/**
+	 * Get the best resolution level for the block spanning source coordinates
+	 * {@code min} to {@code max}, based on {@link #getScreenSpaceErrors
+	 * screen-space errors}. The best level is the one whose voxels are closest
+	 * to one pixel in size.
+	 * <p>
+	 * If {@code hysteresis > 0}, {@code previousLevel >= 0}, and the
+	 * screen-space error of {@code previousLevel} is within {@code hysteresis}
+	 * (in octaves) of the range that would be accepted for the best level,
+	 * {@code previousLevel} is
+	 * returned instead. This avoids flipping between levels for small camera
+	 * movements.
+	 *
+	 * @param min
+	 * 		min corner of the block in source coordinates (full resolution voxels)
+	 * @param max
+	 * 		max corner of the block in source coordinates (full resolution voxels)
+	 * @param previousLevel
+	 * 		level currently used for the block, or {@code -1}
+	 * @param hysteresis
+	 * 		tolerance for keeping {@code previousLevel}, in octaves. {@code 0}
+	 * 		disables hysteresis, i.e., the best level is always returned.
+	 * @param errors
+	 * 		temporary array of length {@code numLevels}
+	 */
+	public int bestLevel( final Vector3fc min, final Vector3fc max, final int previousLevel, final float hysteresis, final float[] errors )
+	{
+		return bestLevel( min, max, previousLevel, hysteresis, 1, errors );
+	}
+
+	/**
+	 * Get the best resolution level for the block spanning source coordinates
+	 * {@code min} to {@code max}, like {@link #bestLevel(Vector3fc, Vector3fc,
+	 * int, float, float[])}, but with screen-space errors scaled by {@code
+	 * errorScale}. For example, {@code errorScale = 0.5} means that voxels
+	 * twice the size of a pixel are considered acceptable.
+	 */
+	public int bestLevel( final Vector3fc min, final Vector3fc max, final int previousLevel, final float hysteresis, final float errorScale, final float[] errors )
+	{
+		getScreenSpaceErrors( min, max, errors );
+		if ( errorScale != 1 )
+			for ( int l = 0; l < errors.length; ++l )
+				errors[ l ] *= errorScale;
+		final int best = bestLevel( errors );
+		if ( hysteresis > 0 && previousLevel >= 0 && previousLevel != best && previousLevel < errors.length )
+		{
+			final double octaves = Math.abs( Math.log( errors[ previousLevel ] ) ) / Math.log( 2 );
+			if ( octaves <= 0.5 + hysteresis )
+				return previousLevel;
+		}
+		return best;
+	}
+
+	/**
+	 * Get the level with screen-space error closest to 1 (in log scale).
+	 */
+	private static int bestLevel( final float[] errors )
+	{
+		for ( int l = 0; l < errors.length; ++l )
+		{
+			if ( errors[ l ] >= 1 )
+			{
+				if ( l == 0 )
+					return 0;
+				return ( errors[ l ] * errors[ l - 1 ] < 1 ) ? l : ( l - 1 );
+			}
+		}
+		return errors.length - 1;
+	}
+
 	private int bestLevel( final float drel )
 	{
 		final float sd = drel * sf + ( 1 - drel ) * sn;
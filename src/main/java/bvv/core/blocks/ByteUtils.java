@@ -30,72 +30,340 @@ package bvv.core.blocks;
 
 import java.lang.reflect.Field;
 import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedExceptionAction;
 
 import sun.misc.Unsafe;
 
+/**
+ * Bulk copies from primitive arrays into direct buffers, and bulk fills of
+ * direct buffers.
+ * <p>
+ * All methods address {@code dst} by absolute element index. Data is written
+ * with the bulk {@code put} methods of the buffers, which modify the position
+ * of {@code dst} (but not its limit). Callers should pass a view that is not
+ * shared with code relying on its position, e.g. the cached views of {@link
+ * Address}.
+ * <p>
+ * If the system property {@code bvv.blocks.unsafe} is set, and {@code
+ * Buffer.address} is accessible through {@code sun.misc.Unsafe}, direct
+ * buffers are written with {@code Unsafe.copyMemory} instead, after checking
+ * bounds.
+ */
 @SuppressWarnings( "restriction" )
 public class ByteUtils
 {
+	private static final byte[] ZEROS = new byte[ 4096 ];
+
+	private static final short[] ZERO_SHORTS = new short[ 2048 ];
+
+	/**
+	 * {@code null} unless enabled by {@code bvv.blocks.unsafe} and {@code
+	 * Buffer.address} is accessible.
+	 */
 	private static final Unsafe UNSAFE;
 
 	private static final long BUFFER_ADDRESS_OFFSET;
 	private static final long BYTE_ARRAY_OFFSET;
 	private static final long SHORT_ARRAY_OFFSET;
+	private static final long FLOAT_ARRAY_OFFSET;
 
 	static
 	{
-		try
+		Unsafe unsafe = null;
+		long bufferAddressOffset = 0;
+		if ( Boolean.getBoolean( "bvv.blocks.unsafe" ) )
 		{
-			final PrivilegedExceptionAction< Unsafe > action = new PrivilegedExceptionAction< Unsafe >()
+			try
+			{
+				final PrivilegedExceptionAction< Unsafe > action = new PrivilegedExceptionAction< Unsafe >()
+				{
+					@Override
+					public Unsafe run() throws Exception
+					{
+						final Field field = Unsafe.class.getDeclaredField( "theUnsafe" );
+						field.setAccessible( true );
+						return ( Unsafe ) field.get( null );
+					}
+				};
+				unsafe = AccessController.doPrivileged( action );
+				bufferAddressOffset = unsafe.objectFieldOffset( Buffer.class.getDeclaredField( "address" ) );
+
+				// check that the address is read correctly
+				final ByteBuffer probe = ByteBuffer.allocateDirect( 1 );
+				unsafe.putByte( unsafe.getLong( probe, bufferAddressOffset ), ( byte ) 1 );
+				if ( probe.get( 0 ) != 1 )
+					unsafe = null;
+			}
+			catch ( final Throwable t )
 			{
-				@Override
-				public Unsafe run() throws Exception
+				unsafe = null;
+			}
+		}
+		UNSAFE = unsafe;
+		BUFFER_ADDRESS_OFFSET = bufferAddressOffset;
+		BYTE_ARRAY_OFFSET = unsafe == null ? 0 : unsafe.arrayBaseOffset( byte[].class );
+		SHORT_ARRAY_OFFSET = unsafe == null ? 0 : unsafe.arrayBaseOffset( short[].class );
+		FLOAT_ARRAY_OFFSET = unsafe == null ? 0 : unsafe.arrayBaseOffset( float[].class );
+	}
+
+	/**
+	 * @return {@code true} if copies go through {@code Unsafe.copyMemory},
+	 * {@code false} if they go through buffer bulk {@code put}s.
+	 */
+	public static boolean isUnsafeAvailable()
+	{
+		return UNSAFE != null;
+	}
+
+	/**
+	 * Get a view of {@code buffer} in native byte order, starting at byte
+	 * {@code offset} of {@code buffer}. The view shares content with {@code
+	 * buffer}, no data is copied.
+	 */
+	public static ByteBuffer view( final ByteBuffer buffer, final int offset )
+	{
+		final ByteBuffer duplicate = ( ByteBuffer ) buffer.duplicate().clear().position( offset );
+		return duplicate.slice().order( ByteOrder.nativeOrder() );
+	}
+
+	/*
+	 * The copy and fill methods below write {@code numPlanes * numRows} runs
+	 * of {@code rowLength} elements. Consecutive runs start {@code rowStride}
+	 * elements apart, and consecutive planes of runs start {@code planeStride}
+	 * elements apart, in the source array and in {@code dst}. Contiguous rows
+	 * or planes should be merged into one run by the caller.
+	 */
+
+	public static void copyShorts(
+			final short[] src, final int so, final int srcRowStride, final int srcPlaneStride,
+			final ShortBuffer dst, final int o, final int dstRowStride, final int dstPlaneStride,
+			final int rowLength, final int numRows, final int numPlanes )
+	{
+		if ( useUnsafe( dst ) )
+		{
+			checkBounds( so, span( srcRowStride, srcPlaneStride, rowLength, numRows, numPlanes ), src.length );
+			checkBounds( o, span( dstRowStride, dstPlaneStride, rowLength, numRows, numPlanes ), dst.limit() );
+			final long address = addressOf( dst );
+			for ( int z = 0; z < numPlanes; ++z )
+				for ( int y = 0; y < numRows; ++y )
+				{
+					final int s = so + z * srcPlaneStride + y * srcRowStride;
+					final int d = o + z * dstPlaneStride + y * dstRowStride;
+					UNSAFE.copyMemory( src, SHORT_ARRAY_OFFSET + 2L * s, null, address + 2L * d, 2L * rowLength );
+				}
+		}
+		else
+		{
+			for ( int z = 0; z < numPlanes; ++z )
+				for ( int y = 0; y < numRows; ++y )
+				{
+					dst.position( o + z * dstPlaneStride + y * dstRowStride );
+					dst.put( src, so + z * srcPlaneStride + y * srcRowStride, rowLength );
+				}
+		}
+	}
+
+	public static void copyBytes(
+			final byte[] src, final int so, final int srcRowStride, final int srcPlaneStride,
+			final ByteBuffer dst, final int o, final int dstRowStride, final int dstPlaneStride,
+			final int rowLength, final int numRows, final int numPlanes )
+	{
+		if ( useUnsafe( dst ) )
+		{
+			checkBounds( so, span( srcRowStride, srcPlaneStride, rowLength, numRows, numPlanes ), src.length );
+			checkBounds( o, span( dstRowStride, dstPlaneStride, rowLength, numRows, numPlanes ), dst.limit() );
+			final long address = addressOf( dst );
+			for ( int z = 0; z < numPlanes; ++z )
+				for ( int y = 0; y < numRows; ++y )
+				{
+					final int s = so + z * srcPlaneStride + y * srcRowStride;
+					final int d = o + z * dstPlaneStride + y * dstRowStride;
+					UNSAFE.copyMemory( src, BYTE_ARRAY_OFFSET + s, null, address + d, rowLength );
+				}
+		}
+		else
+		{
+			for ( int z = 0; z < numPlanes; ++z )
+				for ( int y = 0; y < numRows; ++y )
+				{
+					dst.position( o + z * dstPlaneStride + y * dstRowStride );
+					dst.put( src, so + z * srcPlaneStride + y * srcRowStride, rowLength );
+				}
+		}
+	}
+
+	public static void copyFloats(
+			final float[] src, final int so, final int srcRowStride, final int srcPlaneStride,
+			final FloatBuffer dst, final int o, final int dstRowStride, final int dstPlaneStride,
+			final int rowLength, final int numRows, final int numPlanes )
+	{
+		if ( useUnsafe( dst ) )
+		{
+			checkBounds( so, span( srcRowStride, srcPlaneStride, rowLength, numRows, numPlanes ), src.length );
+			checkBounds( o, span( dstRowStride, dstPlaneStride, rowLength, numRows, numPlanes ), dst.limit() );
+			final long address = addressOf( dst );
+			for ( int z = 0; z < numPlanes; ++z )
+				for ( int y = 0; y < numRows; ++y )
+				{
+					final int s = so + z * srcPlaneStride + y * srcRowStride;
+					final int d = o + z * dstPlaneStride + y * dstRowStride;
+					UNSAFE.copyMemory( src, FLOAT_ARRAY_OFFSET + 4L * s, null, address + 4L * d, 4L * rowLength );
+				}
+		}
+		else
+		{
+			for ( int z = 0; z < numPlanes; ++z )
+				for ( int y = 0; y < numRows; ++y )
 				{
-					final Field field = Unsafe.class.getDeclaredField( "theUnsafe" );
-					field.setAccessible( true );
-					return ( Unsafe ) field.get( null );
+					dst.position( o + z * dstPlaneStride + y * dstRowStride );
+					dst.put( src, so + z * srcPlaneStride + y * srcRowStride, rowLength );
 				}
-			};
+		}
+	}
 
-			UNSAFE = AccessController.doPrivileged( action );
+	/**
+	 * Zero {@code numPlanes * numRows} runs of {@code rowLength} bytes (see above).
+	 */
+	public static void clearBytes(
+			final ByteBuffer dst, final int o, final int rowStride, final int planeStride,
+			final int rowLength, final int numRows, final int numPlanes )
+	{
+		if ( useUnsafe( dst ) )
+		{
+			checkBounds( o, span( rowStride, planeStride, rowLength, numRows, numPlanes ), dst.limit() );
+			final long address = addressOf( dst );
+			for ( int z = 0; z < numPlanes; ++z )
+				for ( int y = 0; y < numRows; ++y )
+					UNSAFE.setMemory( address + o + z * planeStride + y * rowStride, rowLength, ( byte ) 0 );
+		}
+		else
+		{
+			for ( int z = 0; z < numPlanes; ++z )
+				for ( int y = 0; y < numRows; ++y )
+				{
+					dst.position( o + z * planeStride + y * rowStride );
+					for ( int remaining = rowLength; remaining > 0; remaining -= ZEROS.length )
+						dst.put( ZEROS, 0, Math.min( remaining, ZEROS.length ) );
+				}
+		}
+	}
 
-			final Field bufferAddressField = Buffer.class.getDeclaredField( "address" );
-			BUFFER_ADDRESS_OFFSET = UNSAFE.objectFieldOffset( bufferAddressField );
+	public static void setShorts( final short src, final ShortBuffer dst, final int dox, final int csx )
+	{
+		if ( useUnsafe( dst ) )
+		{
+			checkBounds( dox, csx, dst.limit() );
+			final long address = addressOf( dst ) + 2L * dox;
+			if ( src == 0 )
+				UNSAFE.setMemory( address, 2L * csx, ( byte ) 0 );
+			else
+				for ( int i = 0; i < csx; ++i )
+					UNSAFE.putShort( address + 2L * i, src );
+		}
+		else
+		{
+			dst.position( dox );
+			if ( src == 0 )
+			{
+				for ( int remaining = csx; remaining > 0; remaining -= ZERO_SHORTS.length )
+					dst.put( ZERO_SHORTS, 0, Math.min( remaining, ZERO_SHORTS.length ) );
+			}
+			else
+			{
+				for ( int i = 0; i < csx; ++i )
+					dst.put( src );
+			}
+		}
+	}
 
-			BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset( byte[].class );
-			SHORT_ARRAY_OFFSET = UNSAFE.arrayBaseOffset( short[].class );
+	public static void setBytes( final byte src, final ByteBuffer dst, final int dox, final int csx )
+	{
+		if ( useUnsafe( dst ) )
+		{
+			checkBounds( dox, csx, dst.limit() );
+			UNSAFE.setMemory( addressOf( dst ) + dox, csx, src );
 		}
-		catch ( final Exception ex )
+		else
 		{
-			throw new RuntimeException( ex );
+			dst.position( dox );
+			if ( src == 0 )
+			{
+				for ( int remaining = csx; remaining > 0; remaining -= ZEROS.length )
+					dst.put( ZEROS, 0, Math.min( remaining, ZEROS.length ) );
+			}
+			else
+			{
+				for ( int i = 0; i < csx; ++i )
+					dst.put( src );
+			}
 		}
 	}
 
-	public static long addressOf( final Buffer buffer )
+	private static boolean useUnsafe( final Buffer dst )
 	{
-		return UNSAFE.getLong( buffer, BUFFER_ADDRESS_OFFSET );
+		return UNSAFE != null && dst.isDirect();
 	}
 
-	public static void copyShorts( final short[] src, final long dst, final long sox, final long csx )
+	/**
+	 * Address of element 0 of the direct buffer {@code buffer}. Only valid if
+	 * {@link #isUnsafeAvailable()}.
+	 */
+	private static long addressOf( final Buffer buffer )
 	{
-		UNSAFE.copyMemory( src, SHORT_ARRAY_OFFSET + 2 * sox, null, dst, 2 * csx );
+		return UNSAFE.getLong( buffer, BUFFER_ADDRESS_OFFSET );
 	}
 
-	public static void setShorts( final short src, final long dst, final long csx )
+	/**
+	 * Number of elements from the start of the first run to the end of the last run.
+	 */
+	private static int span( final int rowStride, final int planeStride, final int rowLength, final int numRows, final int numPlanes )
 	{
-		for ( int i = 0; i < csx; ++i )
-			UNSAFE.putShort( dst + 2 * i, src );
+		if ( rowLength <= 0 || numRows <= 0 || numPlanes <= 0 )
+			return 0;
+		return ( numPlanes - 1 ) * planeStride + ( numRows - 1 ) * rowStride + rowLength;
 	}
 
-	public static void setBytes( final byte src, final long dst, final long csx )
+	private static void checkBounds( final int offset, final int length, final int size )
 	{
-		UNSAFE.setMemory( dst, csx, src );
+		if ( offset < 0 || length < 0 || offset > size - length )
+			throw new IndexOutOfBoundsException( String.format( "range [%d, %d) out of bounds for size %d", offset, offset + length, size ) );
 	}
 
+	/**
+	 * A destination for copying image data, e.g., a tile-sized region of a
+	 * mapped PBO.
+	 */
 	public interface Address
 	{
-		long getAddress();
+		/**
+		 * Get the destination memory as a direct buffer in native byte order,
+		 * whose index 0 is the start of the destination region.
+		 */
+		ByteBuffer getByteBuffer();
+
+		/**
+		 * Get the destination memory as a {@code ShortBuffer}, whose index 0
+		 * is the start of the destination region. Implementations may return
+		 * the same (cached) view on every call.
+		 */
+		default ShortBuffer getShortBuffer()
+		{
+			return getByteBuffer().asShortBuffer();
+		}
+
+		/**
+		 * Get the destination memory as a {@code FloatBuffer}, whose index 0
+		 * is the start of the destination region. Implementations may return
+		 * the same (cached) view on every call.
+		 */
+		default FloatBuffer getFloatBuffer()
+		{
+			return getByteBuffer().asFloatBuffer();
+		}
 	}
 }
@@ -0,0 +1,161 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wraps a {@code GridDataAccess} and remembers the cell data it has seen
+ * during the current batch (see {@link #nextBatch()}). Cells that are visited
+ * repeatedly, e.g., by {@code canLoadCompletely()} and {@code loadTile()} for
+ * the same tile, or by neighbouring padded tiles, are looked up in the table
+ * instead of repositioning the wrapped access. Only valid data is remembered,
+ * cells that are not (yet) loaded are queried again on every visit.
+ * <p>
+ * Like {@link TileAccess}, this class is not thread-safe.
+ *
+ * @param <T>
+ *            primitive array type of cell data, e.g. {@code short[]}.
+ */
+class CellTable< T > implements GridDataAccess< T >
+{
+	/**
+	 * Upper bound on the number of remembered cells, so that the table does
+	 * not keep arbitrarily much data alive until the next batch.
+	 */
+	private static final int MAX_SIZE = 4096;
+
+	private static final AtomicInteger batch = new AtomicInteger();
+
+	/**
+	 * Start a new batch. Data remembered in previous batches is forgotten.
+	 */
+	static void nextBatch()
+	{
+		batch.incrementAndGet();
+	}
+
+	private final GridDataAccess< T > access;
+
+	private final HashMap< Long, T > cells = new HashMap<>();
+
+	private final int[] position = new int[ 3 ];
+
+	/**
+	 * Whether {@link #access} is at {@link #position}.
+	 */
+	private boolean synced = false;
+
+	private int tableBatch = -1;
+
+	CellTable( final GridDataAccess< T > access )
+	{
+		this.access = access;
+	}
+
+	@Override
+	public void fwd( final int d )
+	{
+		++position[ d ];
+		synced = false;
+	}
+
+	@Override
+	public void setPosition( final int position, final int d )
+	{
+		this.position[ d ] = position;
+		synced = false;
+	}
+
+	@Override
+	public void setPosition( final int[] position )
+	{
+		System.arraycopy( position, 0, this.position, 0, 3 );
+		synced = false;
+	}
+
+	@Override
+	public int[] getPosition()
+	{
+		return position.clone();
+	}
+
+	@Override
+	public T get()
+	{
+		final int b = batch.get();
+		if ( tableBatch != b )
+		{
+			cells.clear();
+			tableBatch = b;
+		}
+
+		final Long key = ( ( long ) position[ 0 ] & 0x1fffff )
+				| ( ( ( long ) position[ 1 ] & 0x1fffff ) << 21 )
+				| ( ( ( long ) position[ 2 ] & 0x1fffff ) << 42 );
+		T data = cells.get( key );
+		if ( data == null )
+		{
+			if ( !synced )
+			{
+				access.setPosition( position );
+				synced = true;
+			}
+			data = access.get();
+			if ( data != null && cells.size() < MAX_SIZE )
+				cells.put( key, data );
+		}
+		return data;
+	}
+
+	@Override
+	public boolean isVolatile()
+	{
+		return access.isVolatile();
+	}
+
+	@Override
+	public int cellSize( final int d )
+	{
+		return access.cellSize( d );
+	}
+
+	@Override
+	public int cellSize( final int d, final int cellGridPosition )
+	{
+		return access.cellSize( d, cellGridPosition );
+	}
+
+	@Override
+	public int imgSize( final int d )
+	{
+		return access.imgSize( d );
+	}
+}
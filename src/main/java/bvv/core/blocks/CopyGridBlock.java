@@ -107,7 +107,8 @@ public class CopyGridBlock
 	}
 
 	/**
-	 * Copy (non-aligned) block from cell grid.
+	 * Copy (non-aligned) block from cell grid into a sub-region of {@code dst}.
+	 * The block must be completely inside the source image.
 	 *
 	 * @param min min coordinate of block to copy
 	 * @param dim dimensions of block to copy
@@ -124,7 +125,7 @@ public class CopyGridBlock
 	 *
 	 * @return {@code true}, if {@code dst} was completely loaded
 	 */
-	private < S, T > boolean copyNoOob(
+	public < S, T > boolean copyNoOob(
 			final int[] min,
 			final int[] dim,
 			final int[] doff,
@@ -28,6 +28,10 @@
  */
 package bvv.core.blocks;
 
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
 public class CopySubArrayImp
 {
 	// -------------------------------------------------------------
@@ -38,61 +42,104 @@ public class CopySubArrayImp
 		@Override
 		public void clearsubarray3d( final ByteUtils.Address dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
 		{
-			final ArrayFill fill = ( o, l ) -> ByteUtils.setShorts( ( short ) 0, dst.getAddress() + 2 * o, l );
-			fillsubarray3dn( fill, dox, doy, doz, dsx, dsy, csx, csy, csz );
+			clearsubarray3dn( dst.getByteBuffer(), 2, dox, doy, doz, dsx, dsy, csx, csy, csz );
 		}
 
 		@Override
 		public void copysubarray3d( final short[] src, final int sox, final int soy, final int soz, final int ssx, final int ssy, final ByteUtils.Address dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
 		{
-			final ArrayCopy copy = ( so, o, l ) -> ByteUtils.copyShorts( src, dst.getAddress() + 2 * o, so, l );
-			copysubarray3dn( copy, sox, soy, soz, ssx, ssy, dox, doy, doz, dsx, dsy, csx, csy, csz );
+			final ShortBuffer buffer = dst.getShortBuffer();
+			final int so = offset( sox, soy, soz, ssx, ssy );
+			final int o = offset( dox, doy, doz, dsx, dsy );
+			if ( csx == ssx && csx == dsx )
+			{
+				if ( csy == ssy && csy == dsy )
+					ByteUtils.copyShorts( src, so, 0, 0, buffer, o, 0, 0, csx * csy * csz, 1, 1 );
+				else
+					ByteUtils.copyShorts( src, so, 0, ssx * ssy, buffer, o, 0, dsx * dsy, csx * csy, 1, csz );
+			}
+			else
+				ByteUtils.copyShorts( src, so, ssx, ssx * ssy, buffer, o, dsx, dsx * dsy, csx, csy, csz );
 		}
 	}
 
-	static void copysubarray3dn(
-			ArrayCopy copysubarray1dn,
-			final int sox,
-			final int soy,
-			final int soz,
-			final int ssx,
-			final int ssy,
-			final int dox,
-			final int doy,
-			final int doz,
-			final int dsx,
-			final int dsy,
-			final int csx,
-			final int csy,
-			final int csz )
+	// -------------------------------------------------------------
+	// byte[] to address
+
+	public static class ByteToAddress implements CopySubArray< byte[], ByteUtils.Address >
 	{
-		for ( int z = 0; z < csz; ++z )
-			copysubarray2dn( copysubarray1dn, sox, soy + soz * ssy + z * ssy, ssx, dox, doy + doz * dsy + z * dsy, dsx, csx, csy );
+		@Override
+		public void clearsubarray3d( final ByteUtils.Address dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
+		{
+			clearsubarray3dn( dst.getByteBuffer(), 1, dox, doy, doz, dsx, dsy, csx, csy, csz );
+		}
+
+		@Override
+		public void copysubarray3d( final byte[] src, final int sox, final int soy, final int soz, final int ssx, final int ssy, final ByteUtils.Address dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
+		{
+			final ByteBuffer buffer = dst.getByteBuffer();
+			final int so = offset( sox, soy, soz, ssx, ssy );
+			final int o = offset( dox, doy, doz, dsx, dsy );
+			if ( csx == ssx && csx == dsx )
+			{
+				if ( csy == ssy && csy == dsy )
+					ByteUtils.copyBytes( src, so, 0, 0, buffer, o, 0, 0, csx * csy * csz, 1, 1 );
+				else
+					ByteUtils.copyBytes( src, so, 0, ssx * ssy, buffer, o, 0, dsx * dsy, csx * csy, 1, csz );
+			}
+			else
+				ByteUtils.copyBytes( src, so, ssx, ssx * ssy, buffer, o, dsx, dsx * dsy, csx, csy, csz );
+		}
 	}
 
-	static void copysubarray2dn(
-			ArrayCopy copysubarray1dn,
-			final int sox,
-			final int soy,
-			final int ssx,
-			final int dox,
-			final int doy,
-			final int dsx,
-			final int csx,
-			final int csy )
+	// -------------------------------------------------------------
+	// float[] to address
+
+	public static class FloatToAddress implements CopySubArray< float[], ByteUtils.Address >
 	{
-		for ( int y = 0; y < csy; ++y )
-			copysubarray1dn.copy( sox + soy * ssx + y * ssx, dox + doy * dsx + y * dsx, csx );
+		@Override
+		public void clearsubarray3d( final ByteUtils.Address dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
+		{
+			// all-zero bytes are 0.0f
+			clearsubarray3dn( dst.getByteBuffer(), 4, dox, doy, doz, dsx, dsy, csx, csy, csz );
+		}
+
+		@Override
+		public void copysubarray3d( final float[] src, final int sox, final int soy, final int soz, final int ssx, final int ssy, final ByteUtils.Address dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
+		{
+			final FloatBuffer buffer = dst.getFloatBuffer();
+			final int so = offset( sox, soy, soz, ssx, ssy );
+			final int o = offset( dox, doy, doz, dsx, dsy );
+			if ( csx == ssx && csx == dsx )
+			{
+				if ( csy == ssy && csy == dsy )
+					ByteUtils.copyFloats( src, so, 0, 0, buffer, o, 0, 0, csx * csy * csz, 1, 1 );
+				else
+					ByteUtils.copyFloats( src, so, 0, ssx * ssy, buffer, o, 0, dsx * dsy, csx * csy, 1, csz );
+			}
+			else
+				ByteUtils.copyFloats( src, so, ssx, ssx * ssy, buffer, o, dsx, dsx * dsy, csx, csy, csz );
+		}
 	}
 
-	@FunctionalInterface
-	interface ArrayCopy
+	/**
+	 * Linear index of element {@code (ox, oy, oz)} in an array of dimensions
+	 * {@code sx * sy * ...}.
+	 */
+	static int offset( final int ox, final int oy, final int oz, final int sx, final int sy )
 	{
-		void copy( int sox, int dox, int csx );
+		return ox + sx * ( oy + sy * oz );
 	}
 
-	static void fillsubarray3dn(
-			final ArrayFill fillsubarray1dn,
+	/**
+	 * Zero the box of size {@code csx * csy * csz} at {@code (dox, doy, doz)}
+	 * in the array of dimensions {@code dsx * dsy * ...} in {@code buffer}.
+	 * Rows or planes that are contiguous in the destination are cleared with
+	 * a single bulk fill.
+	 */
+	static void clearsubarray3dn(
+			final ByteBuffer buffer,
+			final int bytesPerElement,
 			final int dox,
 			final int doy,
 			final int doz,
@@ -102,25 +149,17 @@ public class CopySubArrayImp
 			final int csy,
 			final int csz )
 	{
-		for ( int z = 0; z < csz; ++z )
-			fillsubarray2dn( fillsubarray1dn, dox, doy + doz * dsy + z * dsy, dsx, csx, csy );
-	}
-
-	static void fillsubarray2dn(
-			final ArrayFill fillsubarray1dn,
-			final int dox,
-			final int doy,
-			final int dsx,
-			final int csx,
-			final int csy )
-	{
-		for ( int y = 0; y < csy; ++y )
-			fillsubarray1dn.fill( dox + doy * dsx + y * dsx, csx );
-	}
-
-	@FunctionalInterface
-	interface ArrayFill
-	{
-		void fill( int dox, int csx );
+		final int o = bytesPerElement * offset( dox, doy, doz, dsx, dsy );
+		final int rowStride = bytesPerElement * dsx;
+		final int planeStride = rowStride * dsy;
+		if ( csx == dsx )
+		{
+			if ( csy == dsy )
+				ByteUtils.clearBytes( buffer, o, 0, 0, bytesPerElement * csx * csy * csz, 1, 1 );
+			else
+				ByteUtils.clearBytes( buffer, o, 0, planeStride, bytesPerElement * csx * csy, 1, csz );
+		}
+		else
+			ByteUtils.clearBytes( buffer, o, rowStride, planeStride, bytesPerElement * csx, csy, csz );
 	}
 }
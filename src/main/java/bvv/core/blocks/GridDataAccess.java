@@ -52,6 +52,15 @@ public interface GridDataAccess< T >
 	 */
 	T get();
 
+	/**
+	 * Whether data is loaded asynchronously, i.e., whether {@link #get()} may
+	 * return {@code null} and trigger loading instead of blocking.
+	 */
+	default boolean isVolatile()
+	{
+		return false;
+	}
+
 
 	/*
 	 * ====================================================
@@ -134,6 +134,12 @@ public class GridDataAccessImp
 			final A data = access.get().getData();
 			return data.isValid() ? ( T ) data.getCurrentStorageArray() : null;
 		}
+
+		@Override
+		public boolean isVolatile()
+		{
+			return true;
+		}
 	}
 
 	private GridDataAccessImp()
@@ -0,0 +1,175 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+import bvv.core.cache.CacheSpec;
+import bvv.core.cache.UploadBuffer;
+import bvv.core.multires.MosaicStack3D;
+
+/**
+ * Copy blocks from a {@link MosaicStack3D.Level} to an {@link UploadBuffer}.
+ * For each block, the overlapping tiles are looked up, and the intersection
+ * with each tile is copied from that tile's cell grid.
+ * <p>
+ * This class is not thread-safe. Use {@link TileAccess.Cache} to keep cached
+ * instances per thread.
+ *
+ * @param <S>
+ *            primitive array type of image data, e.g. {@code short[]}.
+ */
+class MosaicTileAccess< S > extends TileAccess< S >
+{
+	private final MosaicStack3D.Level< ? > level;
+
+	private final CacheSpec cacheSpec;
+
+	private final CopySubArray< S, ByteUtils.Address > copySubArray;
+
+	/** per-tile accesses, created on demand */
+	private final TileAccess< ? >[] tiles;
+
+	/** temporary to store block min (computed from gridPos) */
+	private final int[] min = new int[ 3 ];
+
+	private final int[] tmin = new int[ 3 ];
+
+	private final int[] tdim = new int[ 3 ];
+
+	private final int[] doff = new int[ 3 ];
+
+	MosaicTileAccess(
+			final MosaicStack3D.Level< ? > level,
+			final CopySubArray< S, ByteUtils.Address > copySubArray,
+			final CacheSpec cacheSpec )
+	{
+		// cell data is accessed through the per-tile TileAccesses
+		super( null, copySubArray, cacheSpec );
+		this.level = level;
+		this.cacheSpec = cacheSpec;
+		this.copySubArray = copySubArray;
+		tiles = new TileAccess[ level.numTiles() ];
+	}
+
+	@Override
+	public boolean canLoadCompletely( final int[] gridPos, final boolean failfast )
+	{
+		setMin( gridPos );
+		boolean complete = true;
+		for ( int i = 0; i < tiles.length; ++i )
+		{
+			if ( intersect( i ) && !tile( i ).canLoadCompletely( tmin, tdim, failfast ) )
+			{
+				complete = false;
+				if ( failfast )
+					return false;
+			}
+		}
+		return complete;
+	}
+
+	@Override
+	public boolean canLoadPartially( final int[] gridPos )
+	{
+		setMin( gridPos );
+		for ( int i = 0; i < tiles.length; ++i )
+			if ( intersect( i ) && tile( i ).canLoadPartially( tmin, tdim ) )
+				return true;
+		return false;
+	}
+
+	@Override
+	public void prefetch( final int[] gridPos )
+	{
+		setMin( gridPos );
+		for ( int i = 0; i < tiles.length; ++i )
+			if ( intersect( i ) )
+				tile( i ).prefetch( tmin, tdim );
+	}
+
+	@Override
+	public boolean loadTile( final int[] gridPos, final UploadBuffer buffer )
+	{
+		setMin( gridPos );
+		final int[] dim = cacheSpec.paddedBlockSize();
+		copySubArray.clearsubarray3d( buffer, 0, 0, 0, dim[ 0 ], dim[ 1 ], dim[ 0 ], dim[ 1 ], dim[ 2 ] );
+		boolean complete = true;
+		for ( int i = 0; i < tiles.length; ++i )
+			if ( intersect( i ) )
+				complete &= tile( i ).loadBlock( tmin, tdim, doff, dim, buffer );
+		return complete;
+	}
+
+	private void setMin( final int[] gridPos )
+	{
+		for ( int d = 0; d < 3; ++d )
+			min[ d ] = gridPos[ d ] * cacheSpec.blockSize()[ d ] - cacheSpec.padOffset()[ d ];
+	}
+
+	/**
+	 * Intersect the current padded block with tile {@code i}. Sets {@code
+	 * tmin}, {@code tdim} (in tile image coordinates), and {@code doff}
+	 * (offset in the padded block).
+	 *
+	 * @return {@code true}, if the intersection is not empty
+	 */
+	private boolean intersect( final int i )
+	{
+		final long[] lmin = level.getTileMin( i );
+		final long[] lmax = level.getTileMax( i );
+		final int[] dim = cacheSpec.paddedBlockSize();
+		for ( int d = 0; d < 3; ++d )
+		{
+			final long bmin = Math.max( min[ d ], lmin[ d ] );
+			final long bmax = Math.min( min[ d ] + dim[ d ] - 1, lmax[ d ] );
+			if ( bmin > bmax )
+				return false;
+			tmin[ d ] = ( int ) ( bmin - lmin[ d ] );
+			tdim[ d ] = ( int ) ( bmax - bmin + 1 );
+			doff[ d ] = ( int ) ( bmin - min[ d ] );
+		}
+		return true;
+	}
+
+	private TileAccess< ? > tile( final int i )
+	{
+		if ( tiles[ i ] == null )
+			tiles[ i ] = TileAccess.create( level.getTile( i ), cacheSpec );
+		return tiles[ i ];
+	}
+
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	static TileAccess< ? > create( final MosaicStack3D.Level< ? > level, final CacheSpec cacheSpec )
+	{
+		final CopySubArray< ?, ByteUtils.Address > copySubArray = TileAccess.copySubArray( level.getType(), cacheSpec.format() );
+		if ( copySubArray != null )
+			return new MosaicTileAccess<>( level, ( CopySubArray ) copySubArray, cacheSpec );
+
+		throw new UnsupportedOperationException( "pixel and/or image type not supported (yet)." );
+	}
+}
@@ -32,6 +32,7 @@ import bdv.util.volatiles.VolatileView;
 import bvv.core.backend.Texture;
 import bvv.core.cache.CacheSpec;
 import bvv.core.cache.UploadBuffer;
+import bvv.core.multires.MosaicStack3D;
 import bvv.core.multires.ResolutionLevel3D;
 import net.imglib2.RandomAccessible;
 import net.imglib2.Volatile;
@@ -42,8 +43,6 @@ import net.imglib2.type.NativeType;
 import net.imglib2.type.PrimitiveType;
 import net.imglib2.util.Fraction;
 
-import static net.imglib2.type.PrimitiveType.SHORT;
-
 /**
  * Copy blocks from a {@link ResolutionLevel3D} source to an {@link UploadBuffer}.
  * <p>
@@ -92,6 +91,31 @@ public class TileAccess< S >
 		return gcopy.canLoadPartially( min, cacheSpec.paddedBlockSize(), dataAccess );
 	}
 
+	/**
+	 * Request the data of all cells overlapping the tile at {@code gridPos},
+	 * without copying anything. For volatile sources, missing cells are
+	 * enqueued for loading, and valid cells are remembered for the current
+	 * batch. For non-volatile sources this does nothing (visiting the cells
+	 * would load them synchronously, which is left to the fill tasks).
+	 */
+	public void prefetch( final int[] gridPos )
+	{
+		if ( dataAccess.isVolatile() )
+			canLoadCompletely( gridPos, false );
+	}
+
+	/**
+	 * Start a new batch of tile accesses. Cell data that was looked up in
+	 * previous batches is no longer reused.
+	 * <p>
+	 * This should be called before the {@code FillTask}s for a frame are
+	 * created. Within a batch, valid cell data is assumed not to change.
+	 */
+	public static void nextBatch()
+	{
+		CellTable.nextBatch();
+	}
+
 	/**
 	 * Load data for the tile at {@code gridPos} into {@code buffer}.
 	 * The tile is a padded block according to the {@code CacheSpec}.
@@ -103,25 +127,67 @@ public class TileAccess< S >
 		return gcopy.copy( min, cacheSpec.paddedBlockSize(), buffer, dataAccess, copySubArray );
 	}
 
+	/**
+	 * Check whether the block at {@code min} of size {@code dim} (image
+	 * coordinates, may be partially outside the image) can be loaded completely.
+	 */
+	boolean canLoadCompletely( final int[] min, final int[] dim, final boolean failfast )
+	{
+		return gcopy.canLoadCompletely( min, dim, dataAccess, failfast );
+	}
+
+	/**
+	 * Check whether any data of the block at {@code min} of size {@code dim}
+	 * (image coordinates, may be partially outside the image) is available.
+	 */
+	boolean canLoadPartially( final int[] min, final int[] dim )
+	{
+		return gcopy.canLoadPartially( min, dim, dataAccess );
+	}
+
+	/**
+	 * Request the data of the block at {@code min} of size {@code dim} (image
+	 * coordinates, may be partially outside the image), see {@link
+	 * #prefetch(int[])}.
+	 */
+	void prefetch( final int[] min, final int[] dim )
+	{
+		if ( dataAccess.isVolatile() )
+			gcopy.canLoadCompletely( min, dim, dataAccess, false );
+	}
+
+	/**
+	 * Load the block at {@code min} of size {@code dim} (image coordinates,
+	 * must be inside the image) into the region at offset {@code doff} of a
+	 * destination tile of size {@code ddim} in {@code buffer}.
+	 */
+	boolean loadBlock( final int[] min, final int[] dim, final int[] doff, final int[] ddim, final UploadBuffer buffer )
+	{
+		return gcopy.copyNoOob( min, dim, doff, ddim, buffer, dataAccess, copySubArray );
+	}
+
 	@SuppressWarnings( { "rawtypes", "unchecked" } )
 	static TileAccess< ? > create( final ResolutionLevel3D< ? > resolutionLevel3D, final CacheSpec cacheSpec )
 	{
+		if ( resolutionLevel3D instanceof MosaicStack3D.Level )
+			return MosaicTileAccess.create( ( MosaicStack3D.Level< ? > ) resolutionLevel3D, cacheSpec );
+
 		final Object type = resolutionLevel3D.getType();
-		if ( isSupportedType( type ) )
+		final CopySubArray< ?, ByteUtils.Address > copySubArray = copySubArray( type, cacheSpec.format() );
+		if ( copySubArray != null )
 		{
 			RandomAccessible< ? > img = resolutionLevel3D.getImage();
 			if ( img instanceof VolatileView )
 				img = ( ( VolatileView ) img ).getVolatileViewData().getImg();
-			final boolean cellimg = img instanceof AbstractCellImg;
 
-			if ( cacheSpec.format() == Texture.InternalFormat.R16 && cellimg )
+			if ( img instanceof AbstractCellImg )
 			{
 				final boolean volatil = type instanceof Volatile;
 				return new TileAccess<>(
-						volatil
+						new CellTable<>( volatil
 								? new GridDataAccessImp.VolatileCells<>( ( AbstractCellImg ) img )
-								: new GridDataAccessImp.Cells<>( ( AbstractCellImg ) img ),
-						new CopySubArrayImp.ShortToAddress(),
+								: new GridDataAccessImp.Cells<>( ( AbstractCellImg ) img ) ),
+						( CopySubArray ) copySubArray,
 						cacheSpec
 				);
 			}
@@ -130,18 +196,73 @@ public class TileAccess< S >
 		throw new UnsupportedOperationException( "pixel and/or image type not supported (yet)." );
 	}
 
+	/**
+	 * Whether {@code [Volatile]} CellImgs of the given pixel type can be
+	 * loaded into a {@code TextureCache}. Supported are 8-bit, 16-bit, and
+	 * 32-bit float primitive types with one entity per pixel, see {@link
+	 * #getCacheFormat(Object)}.
+	 */
 	public static boolean isSupportedType( final Object type )
 	{
-		// Currently only [Volatile]UnsignedShortType CellImgs are handled correctly
+		return getCacheFormat( type ) != null;
+	}
+
+	/**
+	 * Get the format of the {@code TextureCache} into which images of the
+	 * given pixel type are loaded.
+	 *
+	 * @return {@code R8}, {@code R16}, or {@code R32F}, or {@code null} if the
+	 * 		type is not supported.
+	 */
+	public static Texture.InternalFormat getCacheFormat( final Object type )
+	{
 		if ( type instanceof NativeType )
 		{
 			final PrimitiveType primitive = ( ( NativeType ) type ).getNativeTypeFactory().getPrimitiveType();
 			final Fraction epp = ( ( NativeType ) type ).getEntitiesPerPixel();
-			if ( primitive == SHORT && epp.getNumerator() == epp.getDenominator() )
-				return true;
+			if ( epp.getNumerator() == epp.getDenominator() )
+			{
+				switch ( primitive )
+				{
+				case BYTE:
+					return Texture.InternalFormat.R8;
+				case SHORT:
+					return Texture.InternalFormat.R16;
+				case FLOAT:
+					return Texture.InternalFormat.R32F;
+				default:
+					break;
+				}
+			}
 		}
 
-		return false;
+		return null;
+	}
+
+	/**
+	 * Get a {@code CopySubArray} for copying primitive arrays of the given
+	 * pixel type to a {@code TextureCache} of the given format.
+	 *
+	 * @return the {@code CopySubArray}, or {@code null} if the type cannot be
+	 * 		stored in the format.
+	 */
+	static CopySubArray< ?, ByteUtils.Address > copySubArray( final Object type, final Texture.InternalFormat format )
+	{
+		final Texture.InternalFormat cacheFormat = getCacheFormat( type );
+		if ( cacheFormat == null || cacheFormat != format )
+			return null;
+
+		switch ( cacheFormat )
+		{
+		case R8:
+			return new CopySubArrayImp.ByteToAddress();
+		case R16:
+			return new CopySubArrayImp.ShortToAddress();
+		case R32F:
+			return new CopySubArrayImp.FloatToAddress();
+		default:
+			return null;
+		}
 	}
 
 	/**
@@ -37,6 +37,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import net.imglib2.util.Intervals;
+import bvv.core.backend.GpuMemory.Category;
 import bvv.core.backend.Texture3D;
 import bvv.core.blocks.ByteUtils;
 
@@ -101,6 +102,11 @@ public class TextureCache implements Texture3D
 			return state;
 		}
 
+		/**
+		 * Mark the tile as used in the frame with the given {@code timestamp}.
+		 * This may be called concurrently from several threads for the same
+		 * {@code timestamp} (all write the same value).
+		 */
 		public void useAtTimestamp( final int timestamp )
 		{
 //			lru = Math.max( lru, timestamp );
@@ -158,7 +164,7 @@ public class TextureCache implements Texture3D
 	private final int texDepth;
 
 	// width, height, depth in tiles
-	private final int[] dimensions; // TODO: unused? remove?
+	private final int[] dimensions;
 
 	// tile size and texture format
 	private final CacheSpec spec;
@@ -212,6 +218,14 @@ public class TextureCache implements Texture3D
 		return spec;
 	}
 
+	/**
+	 * @return width, height, depth of this cache in tiles
+	 */
+	public int[] getGridSize()
+	{
+		return dimensions.clone();
+	}
+
 	/**
 	 * @return number of tiles that can fit into this cache
 	 */
@@ -301,9 +315,9 @@ public class TextureCache implements Texture3D
 		final Tile oobTile = tiles[ 0 ];
 		final Object dummyImage = new Object();
 		final ImageBlockKey< Object > oobDummyKey = new ImageBlockKey<>( dummyImage, new int[] { 0, 0, 0 } );
-		final int elementsPerTile = ( int ) Intervals.numElements( spec.paddedBlockSize() );
+		final int bytesPerTile = spec.format().getBytesPerElement() * ( int ) Intervals.numElements( spec.paddedBlockSize() );
 		tileFillTasks.add( new TileFillTask( new DefaultFillTask( oobDummyKey, buf -> {
-			ByteUtils.setShorts( ( short ) 0, buf.getAddress(), elementsPerTile );
+			ByteUtils.setBytes( ( byte ) 0, buf.getByteBuffer(), 0, bytesPerTile );
 			return true;
 		} , () -> true ), oobTile ) );
 	}
@@ -433,4 +447,10 @@ public class TextureCache implements Texture3D
 	{
 		return Wrap.CLAMP_TO_EDGE;
 	}
+
+	@Override
+	public Category texMemoryCategory()
+	{
+		return Category.CACHE;
+	}
 }
@@ -29,6 +29,9 @@
 package bvv.core.cache;
 
 import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 
 import bvv.core.blocks.ByteUtils;
 
@@ -36,6 +39,9 @@ public class UploadBuffer implements ByteUtils.Address
 {
 	private final Buffer buffer;
 	private final int offset;
+	private ByteBuffer view;
+	private ShortBuffer shortView;
+	private FloatBuffer floatView;
 	private TextureCache.ContentState state;
 
 	public UploadBuffer( final Buffer buffer, final int offset )
@@ -81,11 +87,31 @@ public class UploadBuffer implements ByteUtils.Address
 	}
 
 	/**
-	 * ...tentative...
+	 * Native-order view of the tile region of the buffer, starting at
+	 * {@link #getOffset()}. This shares memory with {@link #getBuffer()} (for
+	 * a PBO, the mapped memory is written directly).
 	 */
 	@Override
-	public long getAddress()
+	public ByteBuffer getByteBuffer()
 	{
-		return ByteUtils.addressOf( buffer ) + offset;
+		if ( view == null )
+			view = ByteUtils.view( ( ByteBuffer ) buffer, offset );
+		return view;
+	}
+
+	@Override
+	public ShortBuffer getShortBuffer()
+	{
+		if ( shortView == null )
+			shortView = getByteBuffer().asShortBuffer();
+		return shortView;
+	}
+
+	@Override
+	public FloatBuffer getFloatBuffer()
+	{
+		if ( floatView == null )
+			floatView = getByteBuffer().asFloatBuffer();
+		return floatView;
 	}
 }
@@ -229,6 +229,7 @@ public class DitherBuffer
 		quad.draw( gl );
 
 		gl.glBindTexture( GL_TEXTURE_2D, 0 );
+		context.invalidate();
 	}
 
 	private double deltaSp( final int sps, final int spo, final int se )
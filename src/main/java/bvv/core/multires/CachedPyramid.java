@@ -0,0 +1,168 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.multires;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.Volatile;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.img.Img;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import bvv.core.blocks.TileAccess;
+
+/**
+ * A lazily computed, cached multi-resolution pyramid of a 3D image.
+ * <p>
+ * Level 0 is a cached copy of the image, cut into cells. Each further level
+ * is computed from the previous one by 2x2x2 block averaging (see {@link
+ * DownSamplingScheme#DEFAULT_BLOCK_AVERAGE}), until the image fits into a
+ * single cell. Cells are computed when they are first accessed, and are
+ * soft-referenced.
+ *
+ * @param <T>
+ * 		pixel type
+ */
+final class CachedPyramid< T extends NativeType< T > & RealType< T > >
+{
+	/**
+	 * Size of the cells of all levels.
+	 */
+	private static final int CELL_SIZE = 64;
+
+	private final List< Img< T > > levels;
+
+	CachedPyramid( final RandomAccessibleInterval< T > image, final T type )
+	{
+		final ReadOnlyCachedCellImgFactory factory = new ReadOnlyCachedCellImgFactory(
+				ReadOnlyCachedCellImgOptions.options().cellDimensions( CELL_SIZE, CELL_SIZE, CELL_SIZE ) );
+
+		levels = new ArrayList<>();
+		long[] dimensions = Intervals.dimensionsAsLongArray( image );
+		levels.add( factory.create( dimensions, type.createVariable(), cell ->
+				LoopBuilder.setImages( Views.interval( image, cell ), cell ).forEachPixel( ( i, o ) -> o.set( i ) ) ) );
+
+		while ( Math.max( dimensions[ 0 ], Math.max( dimensions[ 1 ], dimensions[ 2 ] ) ) > CELL_SIZE )
+		{
+			final Img< T > previous = levels.get( levels.size() - 1 );
+			dimensions = new long[] { ( dimensions[ 0 ] + 1 ) / 2, ( dimensions[ 1 ] + 1 ) / 2, ( dimensions[ 2 ] + 1 ) / 2 };
+			levels.add( factory.create( dimensions, type.createVariable(), cell -> downsample( previous, cell ) ) );
+		}
+	}
+
+	int numLevels()
+	{
+		return levels.size();
+	}
+
+	RandomAccessibleInterval< T > getImage( final int level )
+	{
+		return levels.get( level );
+	}
+
+	/**
+	 * Fill {@code cell} with 2x2x2 block averages of {@code source}. At the
+	 * border of odd-sized images, blocks are truncated and only the voxels
+	 * inside {@code source} are averaged.
+	 */
+	private static < T extends RealType< T > > void downsample( final RandomAccessibleInterval< T > source, final RandomAccessibleInterval< T > cell )
+	{
+		final long[] max = Intervals.maxAsLongArray( source );
+		final RandomAccess< T > in = source.randomAccess();
+		final Cursor< T > out = Views.flatIterable( cell ).localizingCursor();
+		final long[] pos = new long[ 3 ];
+		while ( out.hasNext() )
+		{
+			out.fwd();
+			out.localize( pos );
+			double sum = 0;
+			int n = 0;
+			for ( long z = 2 * pos[ 2 ]; z <= Math.min( 2 * pos[ 2 ] + 1, max[ 2 ] ); ++z )
+			{
+				in.setPosition( z, 2 );
+				for ( long y = 2 * pos[ 1 ]; y <= Math.min( 2 * pos[ 1 ] + 1, max[ 1 ] ); ++y )
+				{
+					in.setPosition( y, 1 );
+					for ( long x = 2 * pos[ 0 ]; x <= Math.min( 2 * pos[ 0 ] + 1, max[ 0 ] ); ++x )
+					{
+						in.setPosition( x, 0 );
+						sum += in.get().getRealDouble();
+						++n;
+					}
+				}
+			}
+			out.get().setReal( sum / n );
+		}
+	}
+
+	/**
+	 * Whether images of the given pixel type can be wrapped in a {@code
+	 * CachedPyramid}, i.e., the type is a non-volatile {@code RealType} that
+	 * can be streamed through the texture cache.
+	 */
+	static boolean isSupportedType( final Object type )
+	{
+		return type instanceof NativeType
+				&& type instanceof RealType
+				&& !( type instanceof Volatile )
+				&& TileAccess.isSupportedType( type );
+	}
+
+	/**
+	 * Get the size of the image data of {@code image} in bytes.
+	 */
+	static long sizeInBytes( final RandomAccessibleInterval< ? > image, final NativeType< ? > type )
+	{
+		final long entities = type.getEntitiesPerPixel().mulCeil( Intervals.numElements( image ) );
+		switch ( type.getNativeTypeFactory().getPrimitiveType() )
+		{
+		case BOOLEAN:
+		case BYTE:
+			return entities;
+		case CHAR:
+		case SHORT:
+			return 2 * entities;
+		case INT:
+		case FLOAT:
+			return 4 * entities;
+		case LONG:
+		case DOUBLE:
+		default:
+			return 8 * entities;
+		}
+	}
+}
@@ -0,0 +1,408 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.multires;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import net.imglib2.AbstractInterval;
+import net.imglib2.Interval;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.Type;
+import net.imglib2.util.Intervals;
+
+/**
+ * A {@link MultiResolutionStack3D} that aggregates several tiles (e.g., the
+ * stitched tiles of a large acquisition) into one stack, so that they share a
+ * single block lookup texture and shader volume slot.
+ * <p>
+ * Tiles must be {@link #isCompatible compatible}: They have the same pixel
+ * type and resolution levels, and their source transforms differ only by a
+ * translation. Tiles are placed in the voxel grid of the first tile, at the
+ * translation rounded to full voxels. When image blocks are loaded, the tiles
+ * overlapping each block are looked up and copied into the block. Where tiles
+ * overlap, later tiles take precedence.
+ *
+ * @param <T>
+ *            pixel type
+ */
+public class MosaicStack3D< T > implements MultiResolutionStack3D< T >
+{
+	private final List< MultiResolutionStack3D< T > > tiles;
+
+	private final AffineTransform3D sourceTransform;
+
+	private final List< Level< T > > resolutions;
+
+	public MosaicStack3D( final List< ? extends MultiResolutionStack3D< T > > tiles )
+	{
+		if ( tiles.isEmpty() )
+			throw new IllegalArgumentException( "expected at least one tile" );
+		final MultiResolutionStack3D< T > first = tiles.get( 0 );
+		for ( final MultiResolutionStack3D< T > tile : tiles )
+			if ( !isCompatible( first, tile ) )
+				throw new IllegalArgumentException( "incompatible mosaic tiles" );
+		this.tiles = Collections.unmodifiableList( new ArrayList<>( tiles ) );
+
+		// offsets of tiles in voxel coordinates of the first tile
+		final int numTiles = tiles.size();
+		final long[][] offsets = new long[ numTiles ][ 3 ];
+		final long[] omin = new long[] { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+		final AffineTransform3D firstInverse = first.getSourceTransform().inverse();
+		final double[] t = new double[ 3 ];
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			final AffineTransform3D transform = tiles.get( i ).getSourceTransform();
+			for ( int d = 0; d < 3; ++d )
+				t[ d ] = transform.get( d, 3 );
+			firstInverse.apply( t, t );
+			for ( int d = 0; d < 3; ++d )
+			{
+				offsets[ i ][ d ] = Math.round( t[ d ] );
+				omin[ d ] = Math.min( omin[ d ], offsets[ i ][ d ] );
+			}
+		}
+		for ( int i = 0; i < numTiles; ++i )
+			for ( int d = 0; d < 3; ++d )
+				offsets[ i ][ d ] -= omin[ d ];
+
+		sourceTransform = first.getSourceTransform().copy();
+		sourceTransform.translate( new double[] {
+				sourceTransform.get( 0, 0 ) * omin[ 0 ] + sourceTransform.get( 0, 1 ) * omin[ 1 ] + sourceTransform.get( 0, 2 ) * omin[ 2 ],
+				sourceTransform.get( 1, 0 ) * omin[ 0 ] + sourceTransform.get( 1, 1 ) * omin[ 1 ] + sourceTransform.get( 1, 2 ) * omin[ 2 ],
+				sourceTransform.get( 2, 0 ) * omin[ 0 ] + sourceTransform.get( 2, 1 ) * omin[ 1 ] + sourceTransform.get( 2, 2 ) * omin[ 2 ] } );
+
+		final int numLevels = first.resolutions().size();
+		final List< Level< T > > levels = new ArrayList<>( numLevels );
+		for ( int level = 0; level < numLevels; ++level )
+		{
+			final List< ResolutionLevel3D< T > > tileLevels = new ArrayList<>( numTiles );
+			for ( final MultiResolutionStack3D< T > tile : tiles )
+				tileLevels.add( tile.resolutions().get( level ) );
+			levels.add( new Level<>( first.resolutions().get( level ), tileLevels, offsets ) );
+		}
+		resolutions = Collections.unmodifiableList( levels );
+	}
+
+	/**
+	 * Check whether {@code tile} can be aggregated into a mosaic with {@code
+	 * first}: Both have the same pixel type, down-sampling scheme, and
+	 * resolution levels, no crop, and their source transforms have the same
+	 * linear part.
+	 */
+	public static boolean isCompatible( final MultiResolutionStack3D< ? > first, final MultiResolutionStack3D< ? > tile )
+	{
+		if ( first.getCrop() != null || tile.getCrop() != null )
+			return false;
+		if ( first.getType().getClass() != tile.getType().getClass() )
+			return false;
+		if ( first.getDownSamplingScheme() != tile.getDownSamplingScheme() )
+			return false;
+
+		final List< ? extends ResolutionLevel3D< ? > > r0 = first.resolutions();
+		final List< ? extends ResolutionLevel3D< ? > > r1 = tile.resolutions();
+		if ( r0.size() != r1.size() )
+			return false;
+		for ( int level = 0; level < r0.size(); ++level )
+			if ( !Arrays.equals( r0.get( level ).getR(), r1.get( level ).getR() ) )
+				return false;
+
+		final AffineTransform3D t0 = first.getSourceTransform();
+		final AffineTransform3D t1 = tile.getSourceTransform();
+		double scale = 0;
+		for ( int r = 0; r < 3; ++r )
+			for ( int c = 0; c < 3; ++c )
+				scale = Math.max( scale, Math.abs( t0.get( r, c ) ) );
+		final double eps = 1e-6 * scale;
+		for ( int r = 0; r < 3; ++r )
+			for ( int c = 0; c < 3; ++c )
+				if ( Math.abs( t0.get( r, c ) - t1.get( r, c ) ) > eps )
+					return false;
+		return true;
+	}
+
+	public List< MultiResolutionStack3D< T > > getTiles()
+	{
+		return tiles;
+	}
+
+	@Override
+	public AffineTransform3D getSourceTransform()
+	{
+		return sourceTransform;
+	}
+
+	@Override
+	public T getType()
+	{
+		return tiles.get( 0 ).getType();
+	}
+
+	@Override
+	public DownSamplingScheme getDownSamplingScheme()
+	{
+		return tiles.get( 0 ).getDownSamplingScheme();
+	}
+
+	@Override
+	public List< Level< T > > resolutions()
+	{
+		return resolutions;
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( o == null || getClass() != o.getClass() )
+			return false;
+
+		final MosaicStack3D< ? > that = ( MosaicStack3D< ? > ) o;
+		return tiles.equals( that.tiles );
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return tiles.hashCode();
+	}
+
+	/**
+	 * One resolution level of a {@link MosaicStack3D}. Provides the resolution
+	 * levels of the individual tiles and their placement in the mosaic.
+	 */
+	public static class Level< T > implements ResolutionLevel3D< T >
+	{
+		private final ResolutionLevel3D< T > first;
+
+		private final List< ResolutionLevel3D< T > > tiles;
+
+		/**
+		 * Per tile min and max (inclusive) in voxel coordinates of this level.
+		 */
+		private final long[][] tileMin;
+
+		private final long[][] tileMax;
+
+		private final Interval interval;
+
+		private RandomAccessibleInterval< T > image;
+
+		Level( final ResolutionLevel3D< T > first, final List< ResolutionLevel3D< T > > tiles, final long[][] offsets )
+		{
+			this.first = first;
+			this.tiles = tiles;
+
+			final int[] r = first.getR();
+			final int numTiles = tiles.size();
+			tileMin = new long[ numTiles ][ 3 ];
+			tileMax = new long[ numTiles ][ 3 ];
+			final long[] max = new long[ 3 ];
+			for ( int i = 0; i < numTiles; ++i )
+			{
+				final Interval img = tiles.get( i ).getImage();
+				for ( int d = 0; d < 3; ++d )
+				{
+					tileMin[ i ][ d ] = Math.round( ( double ) offsets[ i ][ d ] / r[ d ] );
+					tileMax[ i ][ d ] = tileMin[ i ][ d ] + img.dimension( d ) - 1;
+					max[ d ] = Math.max( max[ d ], tileMax[ i ][ d ] );
+				}
+			}
+			interval = Intervals.createMinMax( 0, 0, 0, max[ 0 ], max[ 1 ], max[ 2 ] );
+		}
+
+		public int numTiles()
+		{
+			return tiles.size();
+		}
+
+		public ResolutionLevel3D< T > getTile( final int i )
+		{
+			return tiles.get( i );
+		}
+
+		/**
+		 * Get the min of tile {@code i} in voxel coordinates of this level.
+		 */
+		public long[] getTileMin( final int i )
+		{
+			return tileMin[ i ];
+		}
+
+		/**
+		 * Get the max (inclusive) of tile {@code i} in voxel coordinates of this level.
+		 */
+		public long[] getTileMax( final int i )
+		{
+			return tileMax[ i ];
+		}
+
+		@Override
+		public int getLevel()
+		{
+			return first.getLevel();
+		}
+
+		@Override
+		public int[] getR()
+		{
+			return first.getR();
+		}
+
+		@Override
+		public double[] getS()
+		{
+			return first.getS();
+		}
+
+		@Override
+		public AffineTransform3D getLevelTransform()
+		{
+			return first.getLevelTransform();
+		}
+
+		@Override
+		public synchronized RandomAccessibleInterval< T > getImage()
+		{
+			if ( image == null )
+				image = new MosaicImage<>( this );
+			return image;
+		}
+
+		@Override
+		public T getType()
+		{
+			return first.getType();
+		}
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			if ( this == o )
+				return true;
+			if ( o == null || getClass() != o.getClass() )
+				return false;
+
+			final Level< ? > that = ( Level< ? > ) o;
+			return tiles.equals( that.tiles );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return tiles.hashCode();
+		}
+	}
+
+	/**
+	 * Lazy view of the image data of a mosaic {@link Level}. Voxels that are
+	 * not covered by any tile are zero.
+	 */
+	private static class MosaicImage< T > extends AbstractInterval implements RandomAccessibleInterval< T >
+	{
+		private final Level< T > level;
+
+		MosaicImage( final Level< T > level )
+		{
+			super( level.interval );
+			this.level = level;
+		}
+
+		@Override
+		public RandomAccess< T > randomAccess()
+		{
+			return new MosaicRandomAccess<>( level );
+		}
+
+		@Override
+		public RandomAccess< T > randomAccess( final Interval interval )
+		{
+			return randomAccess();
+		}
+	}
+
+	private static class MosaicRandomAccess< T > extends Point implements RandomAccess< T >
+	{
+		private final Level< T > level;
+
+		private final RandomAccess< T >[] accesses;
+
+		private final T zero;
+
+		@SuppressWarnings( { "unchecked", "rawtypes" } )
+		MosaicRandomAccess( final Level< T > level )
+		{
+			super( 3 );
+			this.level = level;
+			accesses = new RandomAccess[ level.numTiles() ];
+			zero = ( T ) ( ( Type ) level.getType() ).createVariable();
+		}
+
+		private boolean contains( final int i )
+		{
+			final long[] min = level.tileMin[ i ];
+			final long[] max = level.tileMax[ i ];
+			for ( int d = 0; d < 3; ++d )
+				if ( position[ d ] < min[ d ] || position[ d ] > max[ d ] )
+					return false;
+			return true;
+		}
+
+		@Override
+		public T get()
+		{
+			int tile = level.numTiles() - 1;
+			while ( tile >= 0 && !contains( tile ) )
+				--tile;
+			if ( tile < 0 )
+				return zero;
+
+			if ( accesses[ tile ] == null )
+				accesses[ tile ] = level.getTile( tile ).getImage().randomAccess();
+			final RandomAccess< T > access = accesses[ tile ];
+			final long[] min = level.tileMin[ tile ];
+			for ( int d = 0; d < 3; ++d )
+				access.setPosition( position[ d ] - min[ d ], d );
+			return access.get();
+		}
+
+		@Override
+		public MosaicRandomAccess< T > copy()
+		{
+			final MosaicRandomAccess< T > copy = new MosaicRandomAccess<>( level );
+			copy.setPosition( this );
+			return copy;
+		}
+	}
+}
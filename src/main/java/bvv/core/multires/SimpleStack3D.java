@@ -28,6 +28,7 @@
  */
 package bvv.core.multires;
 
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
 
 /**
@@ -48,4 +49,21 @@ public interface SimpleStack3D< T > extends Stack3D< T >
 	 * @return the image.
 	 */
 	RandomAccessibleInterval< T > getImage();
+
+	/**
+	 * If this stack refers to the same image as {@code previous}, but with
+	 * modified image data, get the region that was modified. This allows to
+	 * update only that region of a texture uploaded for {@code previous}.
+	 *
+	 * @param previous
+	 * 		an earlier stack of the same image
+	 *
+	 * @return the modified region (in image coordinates), or {@code null} if
+	 * 		it is not known (or {@code previous} does not refer to the same
+	 * 		image).
+	 */
+	default Interval getModifiedRegion( final SimpleStack3D< ? > previous )
+	{
+		return null;
+	}
 }
@@ -0,0 +1,173 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.multires;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import net.imglib2.RealInterval;
+import net.imglib2.algorithm.kdtree.HyperPlane;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.LinAlgHelpers;
+
+/**
+ * Region of interest of a source: An optional box in source coordinates
+ * (voxel coordinates of the full resolution level), intersected with optional
+ * clip planes in world coordinates. Only the region inside the box and all
+ * planes is rendered, and blocks outside of it are not loaded.
+ * <p>
+ * Clip planes are half-spaces <em>n.x &ge; d</em>, i.e., normals point to
+ * the inside.
+ * <p>
+ * {@code SourceCrop} is immutable. It is assigned to a source with {@link
+ * SourceStacks#setCrop}.
+ */
+public final class SourceCrop
+{
+	/**
+	 * Maximum number of clip planes in world coordinates. (The renderer
+	 * evaluates at most this many planes per voxel. The source box is handled
+	 * separately and does not count.)
+	 */
+	public static final int MAX_CLIP_PLANES = 8;
+
+	private final RealInterval sourceBox;
+
+	private final List< HyperPlane > worldPlanes;
+
+	/**
+	 * @param sourceBox
+	 * 		box in source coordinates, or {@code null}
+	 * @param worldPlanes
+	 * 		clip planes in world coordinates (at most {@link #MAX_CLIP_PLANES})
+	 */
+	public SourceCrop( final RealInterval sourceBox, final List< HyperPlane > worldPlanes )
+	{
+		if ( sourceBox != null && sourceBox.numDimensions() != 3 )
+			throw new IllegalArgumentException( "expected 3D box" );
+		if ( worldPlanes.size() > MAX_CLIP_PLANES )
+			throw new IllegalArgumentException( "at most " + MAX_CLIP_PLANES + " clip planes are supported" );
+		for ( final HyperPlane plane : worldPlanes )
+			if ( plane.numDimensions() != 3 )
+				throw new IllegalArgumentException( "expected 3D plane" );
+		this.sourceBox = sourceBox;
+		this.worldPlanes = Collections.unmodifiableList( new ArrayList<>( worldPlanes ) );
+	}
+
+	/**
+	 * Create a crop to a box in source coordinates.
+	 */
+	public static SourceCrop sourceBox( final RealInterval sourceBox )
+	{
+		return new SourceCrop( sourceBox, Collections.emptyList() );
+	}
+
+	/**
+	 * Create a crop to an axis-aligned box in world coordinates.
+	 */
+	public static SourceCrop worldBox( final RealInterval worldBox )
+	{
+		return new SourceCrop( null, boxPlanes( worldBox ) );
+	}
+
+	/**
+	 * Create a crop with an additional clip plane in world coordinates.
+	 *
+	 * @param worldPlane
+	 * 		half-space <em>n.x &ge; d</em> in world coordinates
+	 * @return new {@code SourceCrop}
+	 */
+	public SourceCrop withClipPlane( final HyperPlane worldPlane )
+	{
+		final List< HyperPlane > planes = new ArrayList<>( worldPlanes );
+		planes.add( worldPlane );
+		return new SourceCrop( sourceBox, planes );
+	}
+
+	/**
+	 * @return box in source coordinates, or {@code null}
+	 */
+	public RealInterval getSourceBox()
+	{
+		return sourceBox;
+	}
+
+	/**
+	 * @return clip planes in world coordinates
+	 */
+	public List< HyperPlane > getWorldPlanes()
+	{
+		return worldPlanes;
+	}
+
+	/**
+	 * Get all constraints of this crop (faces of the source box and clip
+	 * planes) as half-spaces in source coordinates.
+	 *
+	 * @param sourceTransform
+	 * 		transformation from source to world coordinates
+	 * @return half-spaces <em>n.x &ge; d</em> in source coordinates, with unit normals
+	 */
+	public List< HyperPlane > getSourcePlanes( final AffineTransform3D sourceTransform )
+	{
+		final List< HyperPlane > planes = new ArrayList<>();
+		if ( sourceBox != null )
+			planes.addAll( boxPlanes( sourceBox ) );
+
+		// dot(n, A x + t) >= d  <==>  dot(A^T n, x) >= d - dot(n, t)
+		final double[] n = new double[ 3 ];
+		for ( final HyperPlane plane : worldPlanes )
+		{
+			final double[] nw = plane.getNormal();
+			double d = plane.getDistance();
+			for ( int c = 0; c < 3; ++c )
+			{
+				n[ c ] = 0;
+				for ( int r = 0; r < 3; ++r )
+					n[ c ] += sourceTransform.get( r, c ) * nw[ r ];
+				d -= nw[ c ] * sourceTransform.get( c, 3 );
+			}
+			final double len = LinAlgHelpers.length( n );
+			planes.add( new HyperPlane( n[ 0 ] / len, n[ 1 ] / len, n[ 2 ] / len, d / len ) );
+		}
+		return planes;
+	}
+
+	private static List< HyperPlane > boxPlanes( final RealInterval box )
+	{
+		final List< HyperPlane > planes = new ArrayList<>();
+		planes.add( new HyperPlane( 1, 0, 0, box.realMin( 0 ) ) );
+		planes.add( new HyperPlane( 0, 1, 0, box.realMin( 1 ) ) );
+		planes.add( new HyperPlane( 0, 0, 1, box.realMin( 2 ) ) );
+		planes.add( new HyperPlane( -1, 0, 0, -box.realMax( 0 ) ) );
+		planes.add( new HyperPlane( 0, -1, 0, -box.realMax( 1 ) ) );
+		planes.add( new HyperPlane( 0, 0, -1, -box.realMax( 2 ) ) );
+		return planes;
+	}
+}
@@ -31,14 +31,18 @@ package bvv.core.multires;
 import bdv.util.volatiles.VolatileView;
 import bdv.viewer.Source;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.cell.AbstractCellImg;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.Intervals;
 import bvv.core.blocks.TileAccess;
 
 import static bvv.core.multires.SourceStacks.SourceStackType.MULTIRESOLUTION;
@@ -56,7 +60,14 @@ public class SourceStacks
 
 	private static final Map< Source< ? >, SourceStackType > sourceStackTypes = new WeakHashMap<>();
 
-	private static final Map< Source< ? >, AtomicInteger > sourceGenerations = new WeakHashMap<>();
+	private static final Map< Source< ? >, Invalidations > sourceGenerations = new WeakHashMap<>();
+
+	private static final Map< Source< ? >, SourceCrop > sourceCrops = new WeakHashMap<>();
+
+	/**
+	 * Pyramids of promoted simple sources, by timepoint.
+	 */
+	private static final Map< Source< ? >, Map< Integer, CachedPyramid< ? > > > sourcePyramids = new WeakHashMap<>();
 
 	public static void setSourceStackType( Source< ? > source, SourceStackType stack )
 	{
@@ -68,15 +79,146 @@ public class SourceStacks
 		return sourceStackTypes.getOrDefault( source, UNDEFINED );
 	}
 
+	/**
+	 * Restrict rendering of {@code source} to the given region of interest.
+	 * Blocks outside the region are not loaded. Takes effect for stacks
+	 * obtained by subsequent {@link #getStack3D} calls, i.e., the viewer
+	 * should be repainted.
+	 *
+	 * @param crop
+	 * 		region of interest, or {@code null} to render the whole source.
+	 */
+	public static void setCrop( final Source< ? > source, final SourceCrop crop )
+	{
+		synchronized ( sourceCrops )
+		{
+			if ( crop == null )
+				sourceCrops.remove( source );
+			else
+				sourceCrops.put( source, crop );
+		}
+	}
+
+	public static SourceCrop getCrop( final Source< ? > source )
+	{
+		synchronized ( sourceCrops )
+		{
+			return sourceCrops.get( source );
+		}
+	}
+
+	/**
+	 * Mark the image data of {@code source} as modified. Simple stacks
+	 * obtained by subsequent {@link #getStack3D} calls are re-uploaded
+	 * completely.
+	 */
 	public static void invalidate( final Source< ? > source )
+	{
+		invalidate( source, null );
+	}
+
+	/**
+	 * Mark the given region of the image data of {@code source} as modified.
+	 * For simple stacks obtained by subsequent {@link #getStack3D} calls,
+	 * only the modified region is re-uploaded.
+	 *
+	 * @param region
+	 * 		modified region, in (level 0) image coordinates, or {@code null}
+	 * 		if the whole image was modified.
+	 */
+	public static void invalidate( final Source< ? > source, final Interval region )
 	{
 		synchronized ( source )
 		{
-			sourceGenerations.computeIfAbsent( source, s -> new AtomicInteger() ).getAndIncrement();
+			sourceGenerations.computeIfAbsent( source, s -> new Invalidations() ).add( region );
+		}
+		synchronized ( sourcePyramids )
+		{
+			sourcePyramids.remove( source );
+		}
+	}
+
+	/**
+	 * Get the region of the image data of {@code source} that was modified
+	 * between {@code fromGeneration} and {@code toGeneration}.
+	 *
+	 * @return the union of all modified regions, or {@code null} if the whole
+	 * image was modified (or it is not known what was modified).
+	 */
+	static Interval getModifiedRegion( final Source< ? > source, final int fromGeneration, final int toGeneration )
+	{
+		synchronized ( source )
+		{
+			final Invalidations invalidations = sourceGenerations.get( source );
+			return invalidations == null ? null : invalidations.union( fromGeneration, toGeneration );
+		}
+	}
+
+	/**
+	 * Generation counter of a source, and the regions modified by the most
+	 * recent invalidations.
+	 */
+	private static class Invalidations
+	{
+		/**
+		 * How many modified regions to remember.
+		 */
+		private static final int MAX_REGIONS = 64;
+
+		private int generation;
+
+		/**
+		 * {@code regions[g % MAX_REGIONS]} is the region modified by the
+		 * invalidation that produced generation {@code g}.
+		 */
+		private final Interval[] regions = new Interval[ MAX_REGIONS ];
+
+		void add( final Interval region )
+		{
+			++generation;
+			regions[ generation % MAX_REGIONS ] = region == null ? null : new FinalInterval( region );
+		}
+
+		int get()
+		{
+			return generation;
+		}
+
+		Interval union( final int fromGeneration, final int toGeneration )
+		{
+			if ( fromGeneration >= toGeneration || toGeneration > generation || generation - fromGeneration > MAX_REGIONS )
+				return null;
+			Interval union = null;
+			for ( int g = fromGeneration + 1; g <= toGeneration; ++g )
+			{
+				final Interval region = regions[ g % MAX_REGIONS ];
+				if ( region == null )
+					return null;
+				union = union == null ? region : Intervals.union( union, region );
+			}
+			return union;
 		}
 	}
 
 	public static < T > Stack3D< T > getStack3D( final Source< T > source, final int timepoint )
+	{
+		return getStack3D( source, timepoint, 0 );
+	}
+
+	/**
+	 * Get a {@code Stack3D} for the given {@code source} and {@code timepoint}.
+	 * <p>
+	 * Simple sources with more than {@code multiResolutionThreshold} bytes of
+	 * image data (and sources {@link #setSourceStackType set} to {@link
+	 * SourceStackType#MULTIRESOLUTION MULTIRESOLUTION} that are not backed by
+	 * a {@code CellImg}) are promoted to multi-resolution stacks, if possible.
+	 * Their resolution levels are computed lazily and cached (see {@link
+	 * CachedPyramid}).
+	 *
+	 * @param multiResolutionThreshold
+	 * 		threshold in bytes, {@code 0} means simple sources are never promoted.
+	 */
+	public static < T > Stack3D< T > getStack3D( final Source< T > source, final int timepoint, final long multiResolutionThreshold )
 	{
 		if ( !source.isPresent( timepoint ) )
 			return null;
@@ -90,15 +232,18 @@ public class SourceStacks
 
 		if ( stackType == SIMPLE )
 		{
-			final int generation;
-			synchronized ( source )
-			{
-				generation = sourceGenerations.computeIfAbsent( source, s -> new AtomicInteger() ).get();
-			}
+			final int generation = getGeneration( source );
+			if ( multiResolutionThreshold > 0 && canPromote( source, timepoint )
+					&& CachedPyramid.sizeInBytes( source.getSource( timepoint, 0 ), ( NativeType< ? > ) source.getType() ) > multiResolutionThreshold )
+				return new PyramidStack3DImp<>( source, timepoint, generation, getPyramid( source, timepoint ) );
 			return new SimpleStack3DImp<>( source, timepoint, generation );
 		}
 		else if ( stackType == MULTIRESOLUTION )
+		{
+			if ( !isCellImg( source, timepoint ) && canPromote( source, timepoint ) )
+				return new PyramidStack3DImp<>( source, timepoint, getGeneration( source ), getPyramid( source, timepoint ) );
 			return new MultiResolutionStack3DImp<>( source, timepoint );
+		}
 		else
 			return null;
 	}
@@ -109,19 +254,59 @@ public class SourceStacks
 	 */
 	private static SourceStackType inferSourceStackType( Source< ? > source, final int timepoint )
 	{
-		final Object type = source.getType();
+		if ( TileAccess.isSupportedType( source.getType() ) && isCellImg( source, timepoint ) )
+			return MULTIRESOLUTION;
 
-		if ( TileAccess.isSupportedType( type ) )
-		{
-			RandomAccessible< ? > rai = source.getSource( timepoint, 0 );
-			if ( rai instanceof VolatileView )
-				rai = ( ( VolatileView ) rai ).getVolatileViewData().getImg();
+		return SIMPLE;
+	}
 
-			if ( rai instanceof AbstractCellImg )
-				return MULTIRESOLUTION;
+	private static boolean isCellImg( final Source< ? > source, final int timepoint )
+	{
+		RandomAccessible< ? > rai = source.getSource( timepoint, 0 );
+		if ( rai instanceof VolatileView )
+			rai = ( ( VolatileView ) rai ).getVolatileViewData().getImg();
+		return rai instanceof AbstractCellImg;
+	}
+
+	/**
+	 * Whether {@code source} can be wrapped in a {@link CachedPyramid}. This
+	 * requires a supported pixel type, and a 3D, zero-min image.
+	 */
+	private static boolean canPromote( final Source< ? > source, final int timepoint )
+	{
+		if ( !CachedPyramid.isSupportedType( source.getType() ) )
+			return false;
+		final RandomAccessibleInterval< ? > image = source.getSource( timepoint, 0 );
+		if ( image.numDimensions() != 3 )
+			return false;
+		for ( int d = 0; d < 3; ++d )
+			if ( image.min( d ) != 0 )
+				return false;
+		return true;
+	}
+
+	private static int getGeneration( final Source< ? > source )
+	{
+		synchronized ( source )
+		{
+			return sourceGenerations.computeIfAbsent( source, s -> new Invalidations() ).get();
 		}
+	}
 
-		return SIMPLE;
+	/**
+	 * Get the (cached) {@code CachedPyramid} of {@code source} at {@code
+	 * timepoint}. Pyramids are discarded when the source is {@link
+	 * #invalidate invalidated}.
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	private static CachedPyramid< ? > getPyramid( final Source< ? > source, final int timepoint )
+	{
+		synchronized ( sourcePyramids )
+		{
+			return sourcePyramids
+					.computeIfAbsent( source, s -> new HashMap<>() )
+					.computeIfAbsent( timepoint, t -> new CachedPyramid( source.getSource( t, 0 ), ( NativeType ) source.getType() ) );
+		}
 	}
 
 	static abstract class Stack3DImp< T > implements Stack3D< T >
@@ -132,7 +317,9 @@ public class SourceStacks
 
 		private final AffineTransform3D sourceTransform;
 
-		private final int generation;
+		final int generation;
+
+		private final SourceCrop crop;
 
 		Stack3DImp( final Source< T > source, final int timepoint, final int generation )
 		{
@@ -141,6 +328,7 @@ public class SourceStacks
 			this.sourceTransform = new AffineTransform3D();
 			source.getSourceTransform( timepoint, 0, sourceTransform );
 			this.generation = generation;
+			this.crop = SourceStacks.getCrop( source );
 		}
 
 		@Override
@@ -149,6 +337,12 @@ public class SourceStacks
 			return sourceTransform;
 		}
 
+		@Override
+		public SourceCrop getCrop()
+		{
+			return crop;
+		}
+
 		@Override
 		public T getType()
 		{
@@ -194,6 +388,18 @@ public class SourceStacks
 		{
 			return source.getSource( timepoint, 0 );
 		}
+
+		@Override
+		public Interval getModifiedRegion( final SimpleStack3D< ? > previous )
+		{
+			if ( previous == null || getClass() != previous.getClass() )
+				return null;
+
+			final SimpleStack3DImp< ? > that = ( SimpleStack3DImp< ? > ) previous;
+			if ( timepoint != that.timepoint || !source.equals( that.source ) )
+				return null;
+			return SourceStacks.getModifiedRegion( source, that.generation, generation );
+		}
 	}
 
 	static class MultiResolutionStack3DImp< T > extends Stack3DImp< T > implements MultiResolutionStack3D< T >
@@ -218,6 +424,123 @@ public class SourceStacks
 		}
 	}
 
+	/**
+	 * A simple source, promoted to a multi-resolution stack with lazily
+	 * computed resolution levels.
+	 */
+	static class PyramidStack3DImp< T > extends Stack3DImp< T > implements MultiResolutionStack3D< T >
+	{
+		private final ArrayList< PyramidLevel3DImp< T > > resolutions;
+
+		PyramidStack3DImp( final Source< T > source, final int timepoint, final int generation, final CachedPyramid< ? > pyramid )
+		{
+			super( source, timepoint, generation );
+
+			resolutions = new ArrayList<>();
+			for ( int level = 0; level < pyramid.numLevels(); level++ )
+				resolutions.add( new PyramidLevel3DImp<>( source, level, pyramid ) );
+		}
+
+		@Override
+		public List< PyramidLevel3DImp< T > > resolutions()
+		{
+			return resolutions;
+		}
+	}
+
+	/**
+	 * One level of a {@code CachedPyramid}. Levels of different pyramids are
+	 * never equal, so that tiles of invalidated pyramids are not reused.
+	 */
+	static class PyramidLevel3DImp< T > implements ResolutionLevel3D< T >
+	{
+		private final Source< T > source;
+
+		private final int level;
+
+		private final CachedPyramid< ? > pyramid;
+
+		private final int[] resolution;
+
+		private final double[] scale;
+
+		private final AffineTransform3D levelt;
+
+		PyramidLevel3DImp( final Source< T > source, final int level, final CachedPyramid< ? > pyramid )
+		{
+			this.source = source;
+			this.level = level;
+			this.pyramid = pyramid;
+
+			final int r = 1 << level;
+			resolution = new int[] { r, r, r };
+			scale = new double[] { 1.0 / r, 1.0 / r, 1.0 / r };
+			levelt = new AffineTransform3D();
+			levelt.set(
+					r, 0, 0, 0.5 * ( r - 1 ),
+					0, r, 0, 0.5 * ( r - 1 ),
+					0, 0, r, 0.5 * ( r - 1 ) );
+		}
+
+		@Override
+		public int getLevel()
+		{
+			return level;
+		}
+
+		@Override
+		public int[] getR()
+		{
+			return resolution;
+		}
+
+		@Override
+		public double[] getS()
+		{
+			return scale;
+		}
+
+		@Override
+		public AffineTransform3D getLevelTransform()
+		{
+			return levelt;
+		}
+
+		@SuppressWarnings( "unchecked" )
+		@Override
+		public RandomAccessibleInterval< T > getImage()
+		{
+			return ( RandomAccessibleInterval< T > ) pyramid.getImage( level );
+		}
+
+		@Override
+		public T getType()
+		{
+			return source.getType();
+		}
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			if ( this == o )
+				return true;
+			if ( o == null || getClass() != o.getClass() )
+				return false;
+
+			final PyramidLevel3DImp< ? > that = ( PyramidLevel3DImp< ? > ) o;
+
+			if ( level != that.level )
+				return false;
+			return pyramid == that.pyramid;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * level + System.identityHashCode( pyramid );
+		}
+	}
+
 	static class ResolutionLevel3DImp< T > implements ResolutionLevel3D< T >
 	{
 		private final int level;
@@ -50,6 +50,17 @@ public interface Stack3D< T > extends EuclideanSpace, Typed< T >
 	 */
 	AffineTransform3D getSourceTransform();
 
+	/**
+	 * Get the region of interest to which rendering of this stack is
+	 * restricted.
+	 *
+	 * @return crop region, or {@code null} if the whole stack is rendered.
+	 */
+	default SourceCrop getCrop()
+	{
+		return null;
+	}
+
 	@Override
 	default int numDimensions()
 	{
@@ -39,6 +39,7 @@ import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.type.numeric.real.FloatType;
+import bvv.core.backend.GpuMemory.Category;
 import bvv.core.backend.jogl.JoglGpuContext;
 
 import static com.jogamp.opengl.GL.GL_ARRAY_BUFFER;
@@ -55,7 +56,10 @@ import static com.jogamp.opengl.GL.GL_FRAMEBUFFER_COMPLETE;
 import static com.jogamp.opengl.GL.GL_LINEAR;
 import static com.jogamp.opengl.GL.GL_RENDERBUFFER;
 import static com.jogamp.opengl.GL.GL_RGB;
+import static com.jogamp.opengl.GL.GL_RGB16F;
 import static com.jogamp.opengl.GL.GL_RGB32F;
+import static com.jogamp.opengl.GL.GL_RGBA16F;
+import static com.jogamp.opengl.GL.GL_RGBA32F;
 import static com.jogamp.opengl.GL.GL_TEXTURE0;
 import static com.jogamp.opengl.GL.GL_TEXTURE_2D;
 import static com.jogamp.opengl.GL.GL_TEXTURE_MAG_FILTER;
@@ -170,14 +174,16 @@ public class OffScreenFrameBuffer
 		gl.glBindTexture( GL_TEXTURE_2D, texColorBuffer );
 		gl.glTexStorage2D( GL_TEXTURE_2D, 1, internalFormat, fbWidth, fbHeight );
 		gl.glBindTexture( GL_TEXTURE_2D, 0 );
+		// texture bindings were changed behind the shadowed context state
+		JoglGpuContext.get( gl ).invalidate();
 
 		// attach it to currently bound framebuffer object
 		gl.glFramebufferTexture2D( GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, texColorBuffer, 0 );
 
+		int rbo = 0;
 		if ( withDepthAndStencil )
 		{
 			// create depth & stencil renderbuffer
-			int rbo;
 			gl.glGenRenderbuffers( 1, tmp, 0 );
 			rbo = tmp[ 0 ];
 			gl.glBindRenderbuffer( GL_RENDERBUFFER, rbo );
@@ -191,6 +197,38 @@ public class OffScreenFrameBuffer
 		if ( gl.glCheckFramebufferStatus( GL_FRAMEBUFFER ) != GL_FRAMEBUFFER_COMPLETE )
 			System.err.println( "ERROR::FRAMEBUFFER:: Framebuffer is not complete!" );
 		gl.glBindFramebuffer( GL_FRAMEBUFFER, restoreFramebuffer );
+
+		// delete GL objects when this OffScreenFrameBuffer is garbage-collected
+		final long bytes = ( long ) fbWidth * fbHeight * ( bytesPerPixel( internalFormat ) + ( withDepthAndStencil ? 4 : 0 ) );
+		final int fb = framebuffer;
+		final int tex = texColorBuffer;
+		final int rb = rbo;
+		JoglGpuContext.get( gl ).track( this, Category.FRAMEBUFFER, bytes, g -> {
+			g.glDeleteFramebuffers( 1, new int[] { fb }, 0 );
+			g.glDeleteTextures( 1, new int[] { tex }, 0 );
+			if ( rb != 0 )
+				g.glDeleteRenderbuffers( 1, new int[] { rb }, 0 );
+		} );
+	}
+
+	/**
+	 * Estimate bytes per pixel of the given color {@code internalFormat}.
+	 */
+	static int bytesPerPixel( final int internalFormat )
+	{
+		switch ( internalFormat )
+		{
+		case GL_RGB32F:
+			return 12;
+		case GL_RGBA32F:
+			return 16;
+		case GL_RGB16F:
+			return 6;
+		case GL_RGBA16F:
+			return 8;
+		default:
+			return 4;
+		}
 	}
 
 	private void initQuad( GL3 gl )
@@ -339,7 +377,8 @@ public class OffScreenFrameBuffer
 	{
 		initQuad( gl );
 
-		progQuad.use( JoglGpuContext.get( gl ) );
+		final JoglGpuContext context = JoglGpuContext.get( gl );
+		progQuad.use( context );
 		gl.glActiveTexture( GL_TEXTURE0 );
 		gl.glBindTexture( GL_TEXTURE_2D, texColorBuffer );
 		gl.glTexParameteri( GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, minFilter );
@@ -350,6 +389,7 @@ public class OffScreenFrameBuffer
 		gl.glDrawElements( GL_TRIANGLES, 6, GL_UNSIGNED_INT, 0 );
 		gl.glBindVertexArray( 0 );
 		gl.glBindTexture( GL_TEXTURE_2D, 0 );
+		context.invalidate();
 	}
 
 	public void getTexture( GL3 gl )
@@ -363,6 +403,7 @@ public class OffScreenFrameBuffer
 		gl.glBindTexture( GL_TEXTURE_2D, texColorBuffer );
 		gl.glGetTexImage( GL_TEXTURE_2D, 0, GL_RGB, GL_FLOAT, FloatBuffer.wrap( rgb ) );
 		gl.glBindTexture( GL_TEXTURE_2D, 0 );
+		JoglGpuContext.get( gl ).invalidate();
 	}
 
 	public int getWidth()
@@ -39,6 +39,7 @@ import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.type.numeric.real.FloatType;
+import bvv.core.backend.GpuMemory.Category;
 import bvv.core.backend.Texture2D;
 import bvv.core.backend.jogl.JoglGpuContext;
 
@@ -168,6 +169,8 @@ public class OffScreenFrameBufferWithDepth
 		gl.glBindTexture( GL_TEXTURE_2D, texDepthBuffer );
 		gl.glTexStorage2D( GL_TEXTURE_2D, 1, GL_DEPTH_COMPONENT24, fbWidth, fbHeight );
 		gl.glBindTexture( GL_TEXTURE_2D, 0 );
+		// texture bindings were changed behind the shadowed context state
+		JoglGpuContext.get( gl ).invalidate();
 
 		// attach it to currently bound framebuffer object
 		gl.glFramebufferTexture2D( GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, texColorBuffer, 0 );
@@ -177,7 +180,17 @@ public class OffScreenFrameBufferWithDepth
 			System.err.println( "ERROR::FRAMEBUFFER:: Framebuffer is not complete!" );
 		gl.glBindFramebuffer( GL_FRAMEBUFFER, restoreFramebuffer );
 
-		JoglGpuContext.get( gl ).registerTexture( depthTexture, texDepthBuffer );
+		final JoglGpuContext context = JoglGpuContext.get( gl );
+		context.registerTexture( depthTexture, texDepthBuffer );
+
+		// delete GL objects when this OffScreenFrameBufferWithDepth is garbage-collected
+		final long bytes = ( long ) fbWidth * fbHeight * ( OffScreenFrameBuffer.bytesPerPixel( internalFormat ) + 4 );
+		final int fb = framebuffer;
+		final int[] tex = { texColorBuffer, texDepthBuffer };
+		context.track( this, Category.FRAMEBUFFER, bytes, g -> {
+			g.glDeleteFramebuffers( 1, new int[] { fb }, 0 );
+			g.glDeleteTextures( 2, tex, 0 );
+		} );
 	}
 
 	private void initQuad( GL3 gl )
@@ -322,7 +335,8 @@ public class OffScreenFrameBufferWithDepth
 	{
 		initQuad( gl );
 
-		progQuad.use( JoglGpuContext.get( gl ) );
+		final JoglGpuContext context = JoglGpuContext.get( gl );
+		progQuad.use( context );
 		gl.glActiveTexture( GL_TEXTURE0 );
 		gl.glBindTexture( GL_TEXTURE_2D, texColorBuffer );
 		gl.glTexParameteri( GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, minFilter );
@@ -333,6 +347,7 @@ public class OffScreenFrameBufferWithDepth
 		gl.glDrawElements( GL_TRIANGLES, 6, GL_UNSIGNED_INT, 0 );
 		gl.glBindVertexArray( 0 );
 		gl.glBindTexture( GL_TEXTURE_2D, 0 );
+		context.invalidate();
 	}
 
 	public void getTexture( GL3 gl )
@@ -348,6 +363,7 @@ public class OffScreenFrameBufferWithDepth
 		gl.glBindTexture( GL_TEXTURE_2D, texDepthBuffer );
 		gl.glGetTexImage( GL_TEXTURE_2D, 0, GL_DEPTH_COMPONENT, GL_FLOAT, FloatBuffer.wrap( depth ) );
 		gl.glBindTexture( GL_TEXTURE_2D, 0 );
+		JoglGpuContext.get( gl ).invalidate();
 	}
 
 	public int getWidth()
@@ -413,5 +429,11 @@ public class OffScreenFrameBufferWithDepth
 		{
 			return Wrap.CLAMP_TO_EDGE;
 		}
+
+		@Override
+		public Category texMemoryCategory()
+		{
+			return Category.FRAMEBUFFER;
+		}
 	}
 }
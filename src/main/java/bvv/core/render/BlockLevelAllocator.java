@@ -0,0 +1,204 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import bvv.core.blockmath.RequiredBlock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Assigns resolution levels to the {@code RequiredBlocks} of several
+ * volumes, such that they fit into the cache together.
+ * <p>
+ * Every block starts at its best resolution level. While the number of
+ * distinct cache tiles exceeds the capacity, the block for which coarsening
+ * by one level adds the least screen-space error per cache tile saved is
+ * coarsened. This is done for all volumes together, so that the cache
+ * capacity is distributed according to what is visible on screen instead of
+ * bumping the base level of whole volumes.
+ * <p>
+ * For volumes in coarse-to-fine mode, the coverage tiles at the coarsest
+ * level are counted as well (they are requested in addition to the blocks).
+ */
+class BlockLevelAllocator
+{
+	private static class Candidate implements Comparable< Candidate >
+	{
+		final int volumeIndex;
+
+		final RequiredBlock block;
+
+		/**
+		 * screen-space error of the block at each resolution level
+		 */
+		final float[] errors;
+
+		/**
+		 * currently assigned resolution level
+		 */
+		int level;
+
+		/**
+		 * added error per tile saved, when coarsening from {@code level} to {@code level + 1}
+		 */
+		float priority;
+
+		Candidate( final int volumeIndex, final RequiredBlock block, final float[] errors )
+		{
+			this.volumeIndex = volumeIndex;
+			this.block = block;
+			this.errors = errors;
+			this.level = block.getBestLevel();
+		}
+
+		@Override
+		public int compareTo( final Candidate o )
+		{
+			return Float.compare( priority, o.priority );
+		}
+	}
+
+	/**
+	 * Adjust the best levels of the {@code RequiredBlocks} of the given
+	 * volumes such that at most {@code maxNumTiles} distinct cache tiles are
+	 * required. {@link VolumeBlocks#findRequiredBlocks()} must have been
+	 * called for each volume.
+	 *
+	 * @return whether the blocks fit into {@code maxNumTiles} tiles.
+	 */
+	static boolean assignLevels( final List< VolumeBlocks > volumes, final int maxNumTiles )
+	{
+		final int numVolumes = volumes.size();
+
+		// number of blocks referencing each tile, per volume and level
+		final List< List< HashMap< Long, int[] > > > tileRefs = new ArrayList<>();
+		final float[][] tileFractions = new float[ numVolumes ][];
+		final List< Candidate > candidates = new ArrayList<>();
+		int numTiles = 0;
+		for ( int i = 0; i < numVolumes; ++i )
+		{
+			final VolumeBlocks volume = volumes.get( i );
+			final int numLevels = volume.getMaxLevel() + 1;
+			final List< HashMap< Long, int[] > > refs = new ArrayList<>();
+			tileFractions[ i ] = new float[ numLevels ];
+			for ( int level = 0; level < numLevels; ++level )
+			{
+				refs.add( new HashMap<>() );
+				if ( level >= volume.getBaseLevel() )
+					tileFractions[ i ][ level ] = volume.getTileFraction( level );
+			}
+			tileRefs.add( refs );
+
+			for ( final RequiredBlock block : volume.getRequiredBlocks().getBlocks() )
+			{
+				final Candidate candidate = new Candidate( i, block, new float[ numLevels ] );
+				if ( addRef( refs.get( candidate.level ), volume.getTileKey( block, candidate.level ) ) )
+					++numTiles;
+				candidates.add( candidate );
+			}
+
+			// in coarse-to-fine mode, the coarsest tile covering each block is always requested in addition
+			if ( volume.isCoarseToFine() )
+			{
+				final int maxLevel = volume.getMaxLevel();
+				for ( final RequiredBlock block : volume.getRequiredBlocks().getBlocks() )
+					if ( addRef( refs.get( maxLevel ), volume.getTileKey( block, maxLevel ) ) )
+						++numTiles;
+			}
+		}
+
+		if ( numTiles <= maxNumTiles )
+			return true;
+
+		final PriorityQueue< Candidate > queue = new PriorityQueue<>();
+		for ( final Candidate candidate : candidates )
+		{
+			final VolumeBlocks volume = volumes.get( candidate.volumeIndex );
+			if ( candidate.level < volume.getMaxLevel() )
+			{
+				volume.getScreenSpaceErrors( candidate.block, candidate.errors );
+				updatePriority( candidate, tileFractions[ candidate.volumeIndex ] );
+				queue.add( candidate );
+			}
+		}
+
+		while ( numTiles > maxNumTiles && !queue.isEmpty() )
+		{
+			final Candidate candidate = queue.poll();
+			final VolumeBlocks volume = volumes.get( candidate.volumeIndex );
+			final List< HashMap< Long, int[] > > refs = tileRefs.get( candidate.volumeIndex );
+			if ( removeRef( refs.get( candidate.level ), volume.getTileKey( candidate.block, candidate.level ) ) )
+				--numTiles;
+			++candidate.level;
+			if ( addRef( refs.get( candidate.level ), volume.getTileKey( candidate.block, candidate.level ) ) )
+				++numTiles;
+			candidate.block.setBestLevel( candidate.level );
+			if ( candidate.level < volume.getMaxLevel() )
+			{
+				updatePriority( candidate, tileFractions[ candidate.volumeIndex ] );
+				queue.add( candidate );
+			}
+		}
+
+		return numTiles <= maxNumTiles;
+	}
+
+	private static void updatePriority( final Candidate candidate, final float[] tileFractions )
+	{
+		final int l = candidate.level;
+		final float addedError = candidate.errors[ l + 1 ] - candidate.errors[ l ];
+		final float savedTiles = tileFractions[ l ] - tileFractions[ l + 1 ];
+		candidate.priority = addedError / Math.max( savedTiles, 1e-6f );
+	}
+
+	/**
+	 * @return {@code true} if {@code key} was not referenced before
+	 */
+	private static boolean addRef( final HashMap< Long, int[] > refs, final long key )
+	{
+		final int[] count = refs.computeIfAbsent( key, k -> new int[ 1 ] );
+		return count[ 0 ]++ == 0;
+	}
+
+	/**
+	 * @return {@code true} if {@code key} is not referenced anymore
+	 */
+	private static boolean removeRef( final HashMap< Long, int[] > refs, final long key )
+	{
+		final int[] count = refs.get( key );
+		if ( --count[ 0 ] == 0 )
+		{
+			refs.remove( key );
+			return true;
+		}
+		return false;
+	}
+}
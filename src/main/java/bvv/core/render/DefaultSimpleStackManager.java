@@ -30,14 +30,17 @@ package bvv.core.render;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.IntBuffer;
-import java.nio.ShortBuffer;
-import java.util.HashMap;
-
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import net.imglib2.Cursor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
@@ -50,172 +53,479 @@ import bvv.core.backend.GpuContext;
 import bvv.core.backend.Texture3D;
 import bvv.core.multires.SimpleStack3D;
 
+/**
+ * Uploads {@code SimpleStack3D}s as 3D textures.
+ * <p>
+ * Textures are kept in least-recently-used order. If a budget is
+ * {@link #setMaxBytes set}, textures of stacks that are no longer visible are
+ * kept until their memory is needed. Stacks that do not fit into the budget
+ * (or the {@link bvv.core.backend.GpuMemory GPU memory budget}) are drawn from
+ * a downsampled proxy, until enough memory is available. Textures of the same
+ * type and size are reused, e.g., when switching timepoints, to avoid
+ * reallocating texture storage. If the image data of a stack was modified in
+ * a known region (see {@link SimpleStack3D#getModifiedRegion}), only that
+ * region of the previous texture is updated.
+ */
 public class DefaultSimpleStackManager implements SimpleStackManager
 {
-	private final HashMap< SimpleStack3D< ? >, VolumeTextureU16 > texturesU16;
-	private final HashMap< SimpleStack3D< ? >, VolumeTextureU8 > texturesU8;
-	private final HashMap< SimpleStack3D< ? >, VolumeTextureRGBA8 > texturesRGBA8;
+	/**
+	 * Proxies are downsampled to at most this size in every dimension.
+	 */
+	private static final int PROXY_SIZE = 64;
+
+	private enum Kind
+	{
+		U8( 1 ),
+		U16( 2 ),
+		RGBA8( 4 );
+
+		final int bytesPerVoxel;
+
+		Kind( final int bytesPerVoxel )
+		{
+			this.bytesPerVoxel = bytesPerVoxel;
+		}
+
+		static Kind of( final Object type )
+		{
+			if ( type instanceof UnsignedShortType )
+				return U16;
+			else if ( type instanceof UnsignedByteType )
+				return U8;
+			else if ( type instanceof ARGBType )
+				return RGBA8;
+			else
+				throw new IllegalArgumentException();
+		}
+
+		long sizeInBytes( final int[] size )
+		{
+			return bytesPerVoxel * ( long ) size[ 0 ] * size[ 1 ] * size[ 2 ];
+		}
+	}
+
+	/**
+	 * A texture holding a stack, or a downsampled proxy of a stack.
+	 */
+	private static class Entry
+	{
+		final Kind kind;
+
+		final Texture3D texture;
+
+		final int[] size;
+
+		final long bytes;
+
+		/**
+		 * Downsampling steps if this is a proxy, {@code null} otherwise.
+		 */
+		int[] steps;
+
+		int timestamp;
+
+		Entry( final Kind kind, final int[] size )
+		{
+			this.kind = kind;
+			this.size = size.clone();
+			bytes = kind.sizeInBytes( size );
+			switch ( kind )
+			{
+			case U8:
+				final VolumeTextureU8 u8 = new VolumeTextureU8();
+				u8.init( size );
+				texture = u8;
+				break;
+			case U16:
+				final VolumeTextureU16 u16 = new VolumeTextureU16();
+				u16.init( size );
+				texture = u16;
+				break;
+			case RGBA8:
+			default:
+				final VolumeTextureRGBA8 rgba8 = new VolumeTextureRGBA8();
+				rgba8.init( size );
+				texture = rgba8;
+				break;
+			}
+		}
+
+		boolean isProxy()
+		{
+			return steps != null;
+		}
+
+		boolean matches( final Kind kind, final int[] size )
+		{
+			return this.kind == kind && Arrays.equals( this.size, size );
+		}
+	}
+
+	/**
+	 * Textures of stacks, in least-recently-used order.
+	 */
+	private final LinkedHashMap< SimpleStack3D< ? >, Entry > entries;
+
+	/**
+	 * Textures that are not associated to any stack, kept for reuse.
+	 */
+	private final List< Entry > pool;
+
+	/**
+	 * Budget for all textures (including pooled ones), {@code 0} means no limit.
+	 */
+	private long maxBytes;
+
+	private long usedBytes;
 
-	private final HashMap< Texture3D, Integer > timestamps;
 	private int currentTimestamp;
 
+	/**
+	 * Used for copying image data to upload buffers in parallel.
+	 */
+	private final ExecutorService executor;
+
 	public DefaultSimpleStackManager()
 	{
-		texturesU16 = new HashMap<>();
-		texturesU8 = new HashMap<>();
-		texturesRGBA8 = new HashMap<>();
-		timestamps = new HashMap<>();
+		this( ForkJoinPool.commonPool() );
+	}
+
+	/**
+	 * @param executor
+	 * 		used for copying image data to upload buffers in parallel.
+	 */
+	public DefaultSimpleStackManager( final ExecutorService executor )
+	{
+		this.executor = executor;
+		entries = new LinkedHashMap<>( 16, 0.75f, true );
+		pool = new ArrayList<>();
+		maxBytes = 0;
+		usedBytes = 0;
 		currentTimestamp = 0;
 	}
 
+	/**
+	 * Set the budget for simple volume textures. With a budget, textures of
+	 * stacks that are not visible are kept until their memory is needed.
+	 * Without a budget, they are freed by {@link #freeUnusedSimpleVolumes}.
+	 *
+	 * @param maxBytes
+	 * 		budget in bytes, {@code 0} means no limit.
+	 */
+	public synchronized void setMaxBytes( final long maxBytes )
+	{
+		this.maxBytes = maxBytes;
+	}
+
 	@Override
 	public synchronized SimpleVolume getSimpleVolume( final GpuContext context, final SimpleStack3D< ? > stack )
 	{
 		final RandomAccessibleInterval< ? > image = stack.getImage();
-		final Object type = stack.getType();
-
-		final Texture3D texture;
-		final Vector3f sourceMax;
-		final Vector3f sourceMin;
+		final Kind kind = Kind.of( stack.getType() );
 
-		if ( type instanceof UnsignedShortType )
+		Entry entry = entries.get( stack );
+		if ( entry == null )
 		{
-			texture = texturesU16.computeIfAbsent( stack, s -> uploadToTextureU16( context, ( RandomAccessibleInterval< UnsignedShortType > ) image ) );
-			sourceMax = new Vector3f( image.max( 0 ), image.max( 1 ), image.max( 2 ) );
-			sourceMin = new Vector3f( image.min( 0 ), image.min( 1 ), image.min( 2 ) );
+			entry = updateModified( context, stack, image, kind );
+			if ( entry != null )
+				entries.put( stack, entry );
 		}
-		else if ( type instanceof UnsignedByteType )
+		if ( entry != null )
+			entry.timestamp = currentTimestamp;
+		if ( entry == null || entry.isProxy() )
 		{
-			texture = texturesU8.computeIfAbsent( stack, s -> uploadToTextureU8( context, ( RandomAccessibleInterval< UnsignedByteType > ) image ) );
-			sourceMax = new Vector3f( image.max( 0 ), image.max( 1 ), image.max( 2 ) );
-			sourceMin = new Vector3f( image.min( 0 ), image.min( 1 ), image.min( 2 ) );
+			final Entry full = allocate( context, kind, Intervals.dimensionsAsIntArray( image ) );
+			if ( full != null )
+			{
+				if ( entry != null )
+					recycle( entry );
+				upload( context, full, image );
+				entry = full;
+			}
+			else if ( entry == null )
+			{
+				// defer upload, draw from proxy until enough memory is available
+				final long[] steps = new long[ 3 ];
+				for ( int d = 0; d < 3; ++d )
+					steps[ d ] = ( image.dimension( d ) + PROXY_SIZE - 1 ) / PROXY_SIZE;
+				final RandomAccessibleInterval< ? > proxyImage = Views.subsample( Views.zeroMin( image ), steps );
+				entry = reuseOrCreate( kind, Intervals.dimensionsAsIntArray( proxyImage ) );
+				entry.steps = new int[] { ( int ) steps[ 0 ], ( int ) steps[ 1 ], ( int ) steps[ 2 ] };
+				upload( context, entry, proxyImage );
+			}
+			entry.timestamp = currentTimestamp;
+			entries.put( stack, entry );
 		}
-		else if ( type instanceof ARGBType )
+
+		if ( entry.isProxy() )
 		{
-			texture = texturesRGBA8.computeIfAbsent( stack, s -> uploadToTextureRGBA8( context, ( RandomAccessibleInterval< ARGBType > ) image ) );
-			sourceMax = new Vector3f( image.max( 0 ), image.max( 1 ), image.max( 2 ) );
-			sourceMin = new Vector3f( image.min( 0 ), image.min( 1 ), image.min( 2 ) );
+			final int[] steps = entry.steps;
+			final AffineTransform3D proxyToWorld = new AffineTransform3D();
+			proxyToWorld.set(
+					steps[ 0 ], 0, 0, image.min( 0 ),
+					0, steps[ 1 ], 0, image.min( 1 ),
+					0, 0, steps[ 2 ], image.min( 2 ) );
+			proxyToWorld.preConcatenate( stack.getSourceTransform() );
+			final Vector3f sourceMax = new Vector3f( entry.size[ 0 ] - 1, entry.size[ 1 ] - 1, entry.size[ 2 ] - 1 );
+			return new SimpleVolume( entry.texture, proxyToWorld, new Vector3f(), sourceMax );
 		}
 		else
-			throw new IllegalArgumentException();
-
-		timestamps.put( texture, currentTimestamp );
-
-		return new SimpleVolume( texture, stack.getSourceTransform(), sourceMin, sourceMax );
+		{
+			final Vector3f sourceMax = new Vector3f( image.max( 0 ), image.max( 1 ), image.max( 2 ) );
+			final Vector3f sourceMin = new Vector3f( image.min( 0 ), image.min( 1 ), image.min( 2 ) );
+			return new SimpleVolume( entry.texture, stack.getSourceTransform(), sourceMin, sourceMax );
+		}
 	}
 
 	/**
 	 * Free allocated resources associated to all stacks that have not been
 	 * {@link #getSimpleVolume(GpuContext,SimpleStack3D) requested} since the
 	 * last call to {@link #freeUnusedSimpleVolumes(GpuContext)}.
+	 * <p>
+	 * Their textures are kept for reuse until the next call. If a budget is
+	 * set, they remain associated to their stacks until their memory is
+	 * needed.
 	 */
 	@Override
 	public synchronized void freeUnusedSimpleVolumes( final GpuContext context )
 	{
-		final Iterator< Map.Entry< Texture3D, Integer > > it = timestamps.entrySet().iterator();
+		final Iterator< Entry > pit = pool.iterator();
+		while ( pit.hasNext() )
+		{
+			final Entry entry = pit.next();
+			if ( entry.timestamp < currentTimestamp )
+			{
+				delete( context, entry );
+				pit.remove();
+			}
+		}
 
-		texturesU16.entrySet().removeIf( entry -> timestamps.get( entry.getValue() ) < currentTimestamp );
-		texturesU8.entrySet().removeIf( entry -> timestamps.get( entry.getValue() ) < currentTimestamp );
-		texturesRGBA8.entrySet().removeIf( entry -> timestamps.get( entry.getValue() ) < currentTimestamp );
-		while ( it.hasNext() )
+		if ( maxBytes <= 0 )
 		{
-			final Map.Entry< Texture3D, Integer > entry = it.next();
-			if ( entry.getValue() < currentTimestamp )
+			final Iterator< Entry > it = entries.values().iterator();
+			while ( it.hasNext() )
 			{
-				context.delete( entry.getKey() );
-				it.remove();
+				final Entry entry = it.next();
+				if ( entry.timestamp < currentTimestamp )
+				{
+					recycle( entry );
+					it.remove();
+				}
 			}
 		}
 		++currentTimestamp;
 	}
 
 	@Override
-	public void freeSimpleVolumes( final GpuContext context )
+	public synchronized void freeSimpleVolumes( final GpuContext context )
 	{
-		texturesU16.clear();
-		texturesU8.clear();
-		texturesRGBA8.clear();
-		timestamps.keySet().forEach( context::delete );
-		timestamps.clear();
+		entries.values().forEach( entry -> delete( context, entry ) );
+		entries.clear();
+		pool.forEach( entry -> delete( context, entry ) );
+		pool.clear();
 	}
 
-	private static VolumeTextureU16 uploadToTextureU16( final GpuContext context, final RandomAccessibleInterval< UnsignedShortType > rai )
+	/**
+	 * Find the texture of an earlier stack of the same image as {@code stack},
+	 * for which the modified region is known. Remove it from {@code entries}
+	 * and update the modified region.
+	 *
+	 * @return the updated texture, or {@code null} if there is no such texture.
+	 */
+	private Entry updateModified( final GpuContext context, final SimpleStack3D< ? > stack, final RandomAccessibleInterval< ? > image, final Kind kind )
 	{
-		final VolumeTextureU16 texture = new VolumeTextureU16();
-		texture.init( Intervals.dimensionsAsIntArray( rai ) );
+		final int[] size = Intervals.dimensionsAsIntArray( image );
+		final Iterator< Map.Entry< SimpleStack3D< ? >, Entry > > it = entries.entrySet().iterator();
+		while ( it.hasNext() )
+		{
+			final Map.Entry< SimpleStack3D< ? >, Entry > e = it.next();
+			final Entry entry = e.getValue();
+			if ( entry.isProxy() || !entry.matches( kind, size ) )
+				continue;
 
-		final int numBytes = ( int ) ( 2 * Intervals.numElements( rai ) );
-		final ByteBuffer data = ByteBuffer.allocateDirect( numBytes ); // allocate a bit more than needed...
-		data.order( ByteOrder.nativeOrder() );
-		copyToBufferU16( rai, data );
-		texture.upload( context, data );
-		return texture;
+			final Interval region = stack.getModifiedRegion( e.getKey() );
+			if ( region == null || region.numDimensions() != 3 )
+				continue;
+
+			it.remove();
+			final Interval modified = Intervals.intersect( image, region );
+			if ( !Intervals.isEmpty( modified ) )
+			{
+				final int[] offset = new int[ 3 ];
+				for ( int d = 0; d < 3; ++d )
+					offset[ d ] = ( int ) ( modified.min( d ) - image.min( d ) );
+				upload( context, entry, Views.interval( image, modified ), offset );
+			}
+			return entry;
+		}
+		return null;
 	}
 
-	private static void copyToBufferU16( final RandomAccessibleInterval< UnsignedShortType  > rai, final ByteBuffer buffer )
+	/**
+	 * Get a texture of the given {@code kind} and {@code size}, reusing a
+	 * pooled texture, or the texture of the least-recently-used stack that was
+	 * not requested in the current frame. Otherwise, free textures until a new
+	 * texture fits into the budget. Nothing is freed if the texture would not
+	 * fit even then.
+	 *
+	 * @return a new or reused texture, or {@code null} if there is not enough memory.
+	 */
+	private Entry allocate( final GpuContext context, final Kind kind, final int[] size )
 	{
-		// TODO handle specific RAI types more efficiently
-		// TODO multithreading
-		final Cursor< UnsignedShortType > cursor = Views.flatIterable( rai ).cursor();
-		final ShortBuffer sdata = buffer.asShortBuffer();
-		int i = 0;
-		while ( cursor.hasNext() )
-			sdata.put( i++, cursor.next().getShort() );
+		final Entry pooled = takeFromPool( kind, size );
+		if ( pooled != null )
+			return pooled;
+
+		final Iterator< Entry > it = entries.values().iterator();
+		while ( it.hasNext() )
+		{
+			final Entry entry = it.next();
+			if ( entry.timestamp < currentTimestamp && entry.matches( kind, size ) )
+			{
+				it.remove();
+				entry.steps = null;
+				return entry;
+			}
+		}
+
+		final long bytes = kind.sizeInBytes( size );
+		if ( !canFit( context, bytes ) )
+			return null;
+		while ( !fits( context, bytes ) )
+		{
+			if ( !pool.isEmpty() )
+				delete( context, pool.remove( 0 ) );
+			else if ( !evictLeastRecentlyUsed( context ) )
+				return null;
+		}
+		return create( kind, size );
 	}
 
-	private static VolumeTextureU8 uploadToTextureU8( final GpuContext context, final RandomAccessibleInterval< UnsignedByteType > rai )
+	private boolean fits( final GpuContext context, final long bytes )
 	{
-		final VolumeTextureU8 texture = new VolumeTextureU8();
-		texture.init( Intervals.dimensionsAsIntArray( rai ) );
+		return ( maxBytes <= 0 || usedBytes + bytes <= maxBytes )
+				&& bytes <= context.getMemory().getAvailableBytes();
+	}
 
-		final int numBytes = ( int ) ( Intervals.numElements( rai ) );
-		final ByteBuffer data = ByteBuffer.allocateDirect( numBytes ); // allocate a bit more than needed...
-		data.order( ByteOrder.nativeOrder() );
-		copyToBufferU8( rai, data );
-		texture.upload( context, data );
-		return texture;
+	/**
+	 * Whether a texture of {@code bytes} would fit into the budget after
+	 * freeing all textures that are not pinned by stacks requested in the
+	 * current frame.
+	 */
+	private boolean canFit( final GpuContext context, final long bytes )
+	{
+		long pinnedBytes = 0;
+		for ( final Entry entry : entries.values() )
+			if ( entry.timestamp >= currentTimestamp )
+				pinnedBytes += entry.bytes;
+		if ( maxBytes > 0 && bytes > maxBytes - pinnedBytes )
+			return false;
+		final long freeableBytes = usedBytes - pinnedBytes;
+		return bytes - freeableBytes <= context.getMemory().getAvailableBytes();
 	}
 
-	private static void copyToBufferU8( final RandomAccessibleInterval< UnsignedByteType  > rai, final ByteBuffer buffer )
+	/**
+	 * Delete the texture of the least-recently-used stack that was not
+	 * requested in the current frame.
+	 *
+	 * @return {@code false} if there is no such stack.
+	 */
+	private boolean evictLeastRecentlyUsed( final GpuContext context )
 	{
-		// TODO handle specific RAI types more efficiently
-		// TODO multithreading
-		final Cursor< UnsignedByteType > cursor = Views.flatIterable( rai ).cursor();
-		int i = 0;
-		while ( cursor.hasNext() )
-			buffer.put( i++, cursor.next().getByte() );
+		final Iterator< Entry > it = entries.values().iterator();
+		while ( it.hasNext() )
+		{
+			final Entry entry = it.next();
+			if ( entry.timestamp < currentTimestamp )
+			{
+				it.remove();
+				delete( context, entry );
+				return true;
+			}
+		}
+		return false;
 	}
 
-	private static VolumeTextureRGBA8 uploadToTextureRGBA8( final GpuContext context, final RandomAccessibleInterval< ARGBType > rai )
+	private Entry reuseOrCreate( final Kind kind, final int[] size )
 	{
-		final VolumeTextureRGBA8 texture = new VolumeTextureRGBA8();
-		texture.init( Intervals.dimensionsAsIntArray( rai ) );
+		final Entry pooled = takeFromPool( kind, size );
+		return pooled != null ? pooled : create( kind, size );
+	}
 
-		final int numBytes = ( int ) ( 4 * Intervals.numElements( rai ) );
-		final ByteBuffer data = ByteBuffer.allocateDirect( numBytes ); // allocate a bit more than needed...
-		data.order( ByteOrder.nativeOrder() );
-		copyToBufferRGBA8( rai, data );
-		texture.upload( context, data );
-		return texture;
+	private Entry takeFromPool( final Kind kind, final int[] size )
+	{
+		for ( int i = 0; i < pool.size(); ++i )
+		{
+			if ( pool.get( i ).matches( kind, size ) )
+			{
+				final Entry entry = pool.remove( i );
+				entry.steps = null;
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private Entry create( final Kind kind, final int[] size )
+	{
+		final Entry entry = new Entry( kind, size );
+		usedBytes += entry.bytes;
+		return entry;
+	}
+
+	private void recycle( final Entry entry )
+	{
+		entry.timestamp = currentTimestamp;
+		pool.add( entry );
 	}
 
-	private static void copyToBufferRGBA8( final RandomAccessibleInterval< ARGBType > rai, final ByteBuffer buffer )
+	private void delete( final GpuContext context, final Entry entry )
 	{
-		// TODO handle specific RAI types more efficiently
-		// TODO multithreading
-		final Cursor< ARGBType > cursor = Views.flatIterable( rai ).cursor();
-		final IntBuffer sdata = buffer.asIntBuffer();
-		int i = 0;
-		while ( cursor.hasNext() )
-			sdata.put( i++, toRGBA( cursor.next().get() ) );
+		context.delete( entry.texture );
+		usedBytes -= entry.bytes;
 	}
 
-	private static int toRGBA( final int argb )
+	private void upload( final GpuContext context, final Entry entry, final RandomAccessibleInterval< ? > rai )
 	{
-		final int a = ( argb >> 24 ) & 0xff;
-		final int r = ( argb >> 16 ) & 0xff;
-		final int g = ( argb >> 8 ) & 0xff;
-		final int b = argb & 0xff;
-		return ( a << 24 ) | ( b << 16 ) | ( g << 8 ) | r;
+		upload( context, entry, rai, null );
+	}
+
+	/**
+	 * Copy {@code rai} into the texture of {@code entry}, at {@code offset},
+	 * or replacing the whole texture if {@code offset == null}.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private void upload( final GpuContext context, final Entry entry, final RandomAccessibleInterval< ? > rai, final int[] offset )
+	{
+		final int[] size = Intervals.dimensionsAsIntArray( rai );
+		final ByteBuffer data = ByteBuffer.allocateDirect( ( int ) entry.kind.sizeInBytes( size ) );
+		data.order( ByteOrder.nativeOrder() );
+		switch ( entry.kind )
+		{
+		case U8:
+			SimpleStackCopy.copyU8( ( RandomAccessibleInterval< UnsignedByteType > ) rai, data, executor );
+			final VolumeTextureU8 u8 = ( VolumeTextureU8 ) entry.texture;
+			if ( offset == null )
+				u8.upload( context, data );
+			else
+				u8.upload( context, offset, size, data );
+			break;
+		case U16:
+			SimpleStackCopy.copyU16( ( RandomAccessibleInterval< UnsignedShortType > ) rai, data, executor );
+			final VolumeTextureU16 u16 = ( VolumeTextureU16 ) entry.texture;
+			if ( offset == null )
+				u16.upload( context, data );
+			else
+				u16.upload( context, offset, size, data );
+			break;
+		case RGBA8:
+			SimpleStackCopy.copyRGBA8( ( RandomAccessibleInterval< ARGBType > ) rai, data, executor );
+			final VolumeTextureRGBA8 rgba8 = ( VolumeTextureRGBA8 ) entry.texture;
+			if ( offset == null )
+				rgba8.upload( context, data );
+			else
+				rgba8.upload( context, offset, size, data );
+			break;
+		}
 	}
 }
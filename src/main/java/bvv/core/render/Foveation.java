@@ -0,0 +1,95 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+/**
+ * Focus region for foveated level of detail. Within {@code radius} (screen
+ * pixels) of the focus point, blocks are rendered at the best resolution
+ * level. Further out, the resolution is reduced by one level (octave) per
+ * {@code falloff} pixels.
+ */
+public class Foveation
+{
+	private final double focusX;
+
+	private final double focusY;
+
+	private final double radius;
+
+	private final double falloff;
+
+	private final double screenWidth;
+
+	private final double screenHeight;
+
+	/**
+	 * @param focusX
+	 * 		X coordinate of focus point on screen
+	 * @param focusY
+	 * 		Y coordinate of focus point on screen
+	 * @param radius
+	 * 		radius (in screen pixels) around the focus point that is rendered at best resolution
+	 * @param falloff
+	 * 		distance (in screen pixels) over which resolution is reduced by one level, outside of {@code radius}
+	 * @param screenWidth
+	 * 		the width of the screen
+	 * @param screenHeight
+	 * 		the height of the screen
+	 */
+	public Foveation(
+			final double focusX,
+			final double focusY,
+			final double radius,
+			final double falloff,
+			final double screenWidth,
+			final double screenHeight )
+	{
+		this.focusX = focusX;
+		this.focusY = focusY;
+		this.radius = radius;
+		this.falloff = falloff;
+		this.screenWidth = screenWidth;
+		this.screenHeight = screenHeight;
+	}
+
+	/**
+	 * Get the number of octaves by which the resolution should be reduced
+	 * at the given NDC position.
+	 */
+	public float getBias( final float ndcX, final float ndcY )
+	{
+		// NDC to screen coordinates (see MatrixMath.screenPerspective)
+		final double x = 0.5 * ( ndcX * screenWidth + screenWidth - 1 );
+		final double y = 0.5 * ( -ndcY * screenHeight + screenHeight - 1 );
+		final double dx = x - focusX;
+		final double dy = y - focusY;
+		final double d = Math.sqrt( dx * dx + dy * dy );
+		return d <= radius ? 0 : ( float ) ( ( d - radius ) / falloff );
+	}
+}
@@ -0,0 +1,380 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import bvv.core.backend.GpuContext;
+import bvv.core.backend.GpuMemory.Category;
+import bvv.core.backend.Texture3D;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static bvv.core.backend.Texture.InternalFormat.RGBA8UI;
+
+/**
+ * Pool of fine pages of the two-level block lookup table.
+ * <p>
+ * The directory level of the lookup table is a {@link LookupTextureARGB} in
+ * which each entry covers {@code PAGE_SIZE^3} blocks. Directory entries either
+ * contain a tile directly (if all blocks of the page map to the same tile,
+ * e.g., a coarse resolution tile, or the out-of-bounds tile), or refer to a
+ * page in this pool (marked by {@code w == PAGE_MARKER}, with {@code x,y,z}
+ * the page coordinates in the pool). The page contains the tile entries for
+ * each individual block in the same format as {@link LookupTextureARGB}.
+ * <p>
+ * Pages are identified by a key (packed page grid position). A page keeps its
+ * slot in the pool for as long as it is used in consecutive frames, so that
+ * only modified pages need to be uploaded.
+ */
+public class LookupPagePool implements Texture3D
+{
+	/**
+	 * Number of blocks per page along each axis.
+	 * This must match {@code LUT_PAGE_SIZE} in {@code sample_volume_blocks.frag}.
+	 */
+	public static final int PAGE_SIZE = 8;
+
+	/**
+	 * {@code w} value of a directory entry that refers to a page.
+	 * This must match {@code LUT_PAGE_MARKER} in {@code sample_volume_blocks.frag}.
+	 */
+	public static final int PAGE_MARKER = 255;
+
+	private static final int PAGE_ELEMENTS = PAGE_SIZE * PAGE_SIZE * PAGE_SIZE;
+
+	private static final int MASK_LONGS = PAGE_ELEMENTS / 64;
+
+	/**
+	 * Maximum number of pages along Z. Page coordinates must fit into 8 bits.
+	 */
+	private static final int MAX_PAGES_Z = 255;
+
+	private final InternalFormat format;
+
+	private final int bytesPerElement;
+
+	private final int bytesPerPage;
+
+	/**
+	 * Size of the pool in pages. The pool grows along Z, so slot coordinates
+	 * remain valid when it grows.
+	 */
+	private final int[] poolSize = { 16, 16, 1 };
+
+	private int numSlots;
+
+	/**
+	 * Lookup data, in page-major order, i.e., the {@code PAGE_SIZE^3} entries
+	 * of each slot are contiguous.
+	 */
+	private ByteBuffer data;
+
+	/**
+	 * Maps page key to the slot holding the page.
+	 */
+	private final Map< Long, Integer > slots = new HashMap<>();
+
+	/**
+	 * Stack of unused slots.
+	 */
+	private int[] freeSlots;
+
+	private int numFreeSlots;
+
+	/**
+	 * For each slot, the frame in which it was last used.
+	 */
+	private int[] slotFrames;
+
+	/**
+	 * For each slot, a bitmask of entries written in the current frame.
+	 */
+	private long[] masks;
+
+	/**
+	 * For each slot, a bitmask of non-zero entries in {@link #data}.
+	 */
+	private long[] previousMasks;
+
+	/**
+	 * Which slots were modified since the last {@link #upload(GpuContext)}.
+	 */
+	private boolean[] dirty;
+
+	private boolean reallocate = true;
+
+	/**
+	 * By how many bytes the pool may still grow, see {@link #setMaxGrowthBytes(long)}.
+	 */
+	private long maxGrowthBytes = Long.MAX_VALUE;
+
+	private int frame;
+
+	public LookupPagePool()
+	{
+		this( RGBA8UI );
+	}
+
+	/**
+	 * @param format
+	 *            {@code RGBA8UI} or {@code RGBA16UI}, should be the same as the format of the directory.
+	 */
+	public LookupPagePool( final InternalFormat format )
+	{
+		this.format = format;
+		this.bytesPerElement = format.getBytesPerElement();
+		this.bytesPerPage = bytesPerElement * PAGE_ELEMENTS;
+		allocate( poolSize[ 2 ] );
+	}
+
+	private void allocate( final int pagesZ )
+	{
+		final int oldNumSlots = numSlots;
+		poolSize[ 2 ] = pagesZ;
+		numSlots = poolSize[ 0 ] * poolSize[ 1 ] * poolSize[ 2 ];
+
+		final ByteBuffer newData = ByteBuffer.allocateDirect( numSlots * bytesPerPage ).order( ByteOrder.nativeOrder() );
+		if ( data != null )
+		{
+			data.clear();
+			newData.put( data );
+			newData.clear();
+		}
+		data = newData;
+
+		slotFrames = slotFrames == null ? new int[ numSlots ] : Arrays.copyOf( slotFrames, numSlots );
+		masks = masks == null ? new long[ numSlots * MASK_LONGS ] : Arrays.copyOf( masks, numSlots * MASK_LONGS );
+		previousMasks = previousMasks == null ? new long[ numSlots * MASK_LONGS ] : Arrays.copyOf( previousMasks, numSlots * MASK_LONGS );
+		dirty = new boolean[ numSlots ];
+
+		freeSlots = freeSlots == null ? new int[ numSlots ] : Arrays.copyOf( freeSlots, numSlots );
+		for ( int slot = numSlots - 1; slot >= oldNumSlots; --slot )
+			freeSlots[ numFreeSlots++ ] = slot;
+
+		reallocate = true;
+	}
+
+	/**
+	 * Limit by how many bytes the pool may grow until the next call, e.g., to
+	 * stay within a GPU memory budget. If the pool would have to grow beyond
+	 * the limit, {@link #getSlot(Long)} fails instead.
+	 *
+	 * @param bytes
+	 *            maximum growth in bytes, {@code Long.MAX_VALUE} means no limit.
+	 */
+	public void setMaxGrowthBytes( final long bytes )
+	{
+		maxGrowthBytes = bytes;
+	}
+
+	/**
+	 * Start updating the pool for a new frame.
+	 */
+	public void init()
+	{
+		++frame;
+	}
+
+	/**
+	 * Get the slot for the page with the given key, assigning a free slot if
+	 * the page was not used in the previous frame. The page is marked as used
+	 * in the current frame.
+	 *
+	 * @return slot index, or {@code -1} if the pool is full and cannot grow
+	 * further (or not within the {@link #setMaxGrowthBytes growth limit}).
+	 */
+	public int getSlot( final Long pageKey )
+	{
+		Integer slot = slots.get( pageKey );
+		if ( slot == null )
+		{
+			if ( numFreeSlots == 0 )
+			{
+				if ( poolSize[ 2 ] >= MAX_PAGES_Z )
+					return -1;
+				final int pagesZ = Math.min( 2 * poolSize[ 2 ], MAX_PAGES_Z );
+				final long growth = ( long ) ( pagesZ - poolSize[ 2 ] ) * poolSize[ 0 ] * poolSize[ 1 ] * bytesPerPage;
+				if ( growth > maxGrowthBytes )
+					return -1;
+				maxGrowthBytes -= growth;
+				allocate( pagesZ );
+			}
+			slot = freeSlots[ --numFreeSlots ];
+			slots.put( pageKey, slot );
+		}
+		slotFrames[ slot ] = frame;
+		return slot;
+	}
+
+	/**
+	 * Put an entry into a page.
+	 *
+	 * @param slot
+	 *            slot of the page (obtained by {@link #getSlot(Long)} in the current frame)
+	 * @param pos
+	 *            position of the entry within the page
+	 */
+	public void put( final int slot, final int[] pos, final int x, final int y, final int z, final int w )
+	{
+		final int i = ( pos[ 2 ] * PAGE_SIZE + pos[ 1 ] ) * PAGE_SIZE + pos[ 0 ];
+		masks[ slot * MASK_LONGS + ( i >> 6 ) ] |= 1L << ( i & 63 );
+
+		final int o = slot * bytesPerPage + i * bytesPerElement;
+		if ( LookupTextureARGB.putEntry( data, o, format, x, y, z, w ) )
+			dirty[ slot ] = true;
+	}
+
+	/**
+	 * Release the slots of pages not used in the current frame, and clear
+	 * entries of used pages that were not written in the current frame.
+	 */
+	public void finishUpdate()
+	{
+		final Iterator< Integer > it = slots.values().iterator();
+		while ( it.hasNext() )
+		{
+			final int slot = it.next();
+			if ( slotFrames[ slot ] != frame )
+			{
+				it.remove();
+				freeSlots[ numFreeSlots++ ] = slot;
+				continue;
+			}
+
+			for ( int l = 0; l < MASK_LONGS; ++l )
+			{
+				final int m = slot * MASK_LONGS + l;
+				long stale = previousMasks[ m ] & ~masks[ m ];
+				while ( stale != 0 )
+				{
+					final int i = l * 64 + Long.numberOfTrailingZeros( stale );
+					LookupTextureARGB.putEntry( data, slot * bytesPerPage + i * bytesPerElement, format, 0, 0, 0, 0 );
+					stale &= stale - 1;
+					dirty[ slot ] = true;
+				}
+				previousMasks[ m ] = masks[ m ];
+				masks[ m ] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Upload modified pages to the GPU. If the pool was (re-)allocated, the
+	 * texture is re-created and all pages are uploaded.
+	 */
+	public void upload( final GpuContext context )
+	{
+		if ( reallocate )
+		{
+			context.delete( this );
+			Arrays.fill( dirty, true );
+			reallocate = false;
+		}
+
+		for ( int slot = 0; slot < numSlots; ++slot )
+		{
+			if ( dirty[ slot ] )
+			{
+				final ByteBuffer page = data.duplicate();
+				page.position( slot * bytesPerPage );
+				page.limit( ( slot + 1 ) * bytesPerPage );
+				context.texSubImage3D( this,
+						slotX( slot ) * PAGE_SIZE, slotY( slot ) * PAGE_SIZE, slotZ( slot ) * PAGE_SIZE,
+						PAGE_SIZE, PAGE_SIZE, PAGE_SIZE, page );
+				dirty[ slot ] = false;
+			}
+		}
+	}
+
+	public int slotX( final int slot )
+	{
+		return slot % poolSize[ 0 ];
+	}
+
+	public int slotY( final int slot )
+	{
+		return ( slot / poolSize[ 0 ] ) % poolSize[ 1 ];
+	}
+
+	public int slotZ( final int slot )
+	{
+		return slot / ( poolSize[ 0 ] * poolSize[ 1 ] );
+	}
+
+	@Override
+	public InternalFormat texInternalFormat()
+	{
+		return format;
+	}
+
+	@Override
+	public int texWidth()
+	{
+		return poolSize[ 0 ] * PAGE_SIZE;
+	}
+
+	@Override
+	public int texHeight()
+	{
+		return poolSize[ 1 ] * PAGE_SIZE;
+	}
+
+	@Override
+	public int texDepth()
+	{
+		return poolSize[ 2 ] * PAGE_SIZE;
+	}
+
+	@Override
+	public MinFilter texMinFilter()
+	{
+		return MinFilter.NEAREST;
+	}
+
+	@Override
+	public MagFilter texMagFilter()
+	{
+		return MagFilter.NEAREST;
+	}
+
+	@Override
+	public Wrap texWrap()
+	{
+		return Wrap.CLAMP_TO_EDGE;
+	}
+
+	@Override
+	public Category texMemoryCategory()
+	{
+		return Category.LUT;
+	}
+}
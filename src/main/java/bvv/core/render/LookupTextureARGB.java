@@ -30,16 +30,35 @@ package bvv.core.render;
 
 import bvv.core.cache.TextureCache;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import net.imglib2.util.IntervalIndexer;
 import org.joml.Vector3f;
 import bvv.core.backend.GpuContext;
+import bvv.core.backend.GpuMemory.Category;
 import bvv.core.backend.Texture3D;
 import bvv.core.blocks.ByteUtils;
 
+import static bvv.core.backend.Texture.InternalFormat.RGBA16UI;
 import static bvv.core.backend.Texture.InternalFormat.RGBA8UI;
 
+/**
+ * Block lookup table, mapping source grid coordinates to cache tiles.
+ * <p>
+ * {@link VolumeBlocks} uses this as the directory level of a two-level lookup
+ * table, with entries pointing either directly to a tile, or to a page of a
+ * {@link LookupPagePool}.
+ */
 public class LookupTextureARGB implements Texture3D
 {
+	/**
+	 * Either {@code RGBA8UI} or {@code RGBA16UI}.
+	 * 8 bits per channel are enough to address caches with at most 256 tiles per axis.
+	 */
+	private final InternalFormat format;
+
+	private final int bytesPerElement;
+
 	/**
 	 * Size of the lut texture.
 	 */
@@ -61,34 +80,168 @@ public class LookupTextureARGB implements Texture3D
 	 * It is modified voxel-wise with {@link #putTile(int[], TextureCache.Tile, int)},
 	 * then uploaded to the GPU with {@link #upload(GpuContext)}.
 	 * <p>
-	 * Each voxel (4 bytes, "RGBA") represents a tile in the cache:
+	 * Each voxel (4 bytes or 4 shorts, "RGBA") represents a tile in the cache:
 	 * X,Y,Z grid coordinates, and
 	 * resolution relative to {@code baseLevel} (1 means {@code baseLevel}).
+	 * <p>
+	 * The data is kept between frames. Only entries that change are written,
+	 * and only z-slices that contain changed entries are uploaded.
 	 */
 	private ByteBuffer data;
 
 	/**
-	 * Reinitialize the lut data.
+	 * Whether {@link #size} and {@link #offset} changed since the last
+	 * {@link #upload(GpuContext)}, i.e., the texture must be re-allocated on
+	 * the GPU and uploaded completely.
+	 */
+	private boolean reallocate = true;
+
+	/**
+	 * Incremented in every {@link #init(int[], int[], int)}.
+	 */
+	private int frame;
+
+	/**
+	 * For each lut entry, the {@link #frame} in which it was last written.
+	 */
+	private int[] stamps;
+
+	/**
+	 * Indices of the entries written in the current frame.
+	 */
+	private int[] written = new int[ 64 ];
+
+	private int numWritten;
+
+	/**
+	 * Indices of the entries written in the previous frame. The ones that are
+	 * not written again in the current frame are cleared in
+	 * {@link #finishUpdate()}.
+	 */
+	private int[] previousWritten = new int[ 64 ];
+
+	private int numPreviousWritten;
+
+	/**
+	 * Which z-slices of the lut were modified since the last {@link #upload(GpuContext)}.
+	 */
+	private boolean[] dirtySlices;
+
+	/**
+	 * Whether {@link #finishUpdate()} needs to be called before uploading.
+	 */
+	private boolean updatePending;
+
+	public LookupTextureARGB()
+	{
+		this( RGBA8UI );
+	}
+
+	/**
+	 * @param format
+	 *            {@code RGBA8UI} or {@code RGBA16UI}
+	 */
+	public LookupTextureARGB( final InternalFormat format )
+	{
+		if ( format != RGBA8UI && format != RGBA16UI )
+			throw new IllegalArgumentException( "unsupported lut format: " + format );
+		this.format = format;
+		this.bytesPerElement = format.getBytesPerElement();
+	}
+
+	/**
+	 * Get the smallest lut format that can represent tile coordinates of a
+	 * cache with the given grid size.
+	 *
+	 * @param cacheGridSize
+	 *            width, height, depth of the cache in tiles
+	 * @return {@code RGBA8UI} if all dimensions are {@code <= 256}, else {@code RGBA16UI}
+	 */
+	public static InternalFormat formatForCacheGridSize( final int[] cacheGridSize )
+	{
+		for ( final int s : cacheGridSize )
+		{
+			if ( s > 65536 )
+				throw new IllegalArgumentException( "cache grid size exceeds 65536 tiles per axis" );
+			if ( s > 256 )
+				return RGBA16UI;
+		}
+		return RGBA8UI;
+	}
+
+	/**
+	 * Start updating the lut data for a new frame.
+	 * <p>
+	 * If the current lut extent covers {@code rmin, rmax} (and is not much
+	 * larger than required), the existing data and GPU texture are kept.
+	 * Otherwise, the lut is reallocated with some margin around the required
+	 * extent, so that it can be reused for small changes of the view.
 	 *
 	 * @param rmin min source grid coordinate that needs to be represented.
-	 * @param rmin max source grid coordinate that needs to be represented.
+	 * @param rmax max source grid coordinate that needs to be represented.
 	 */
 	public void init( final int[] rmin, final int[] rmax, final int baseLevel )
 	{
+		if ( updatePending )
+			finishUpdate();
+
 		this.baseLevel = baseLevel;
+		++frame;
+		updatePending = true;
+
+		if ( !fits( rmin, rmax ) )
+		{
+			for ( int d = 0; d < 3; ++d )
+			{
+				final int extent = rmax[ d ] - rmin[ d ] + 1;
+				final int margin = extent / 8 + 1;
+				size[ d ] = extent + 2 * pad[ d ] + 2 * margin;
+				offset[ d ] = rmin[ d ] - pad[ d ] - margin;
+			}
+
+			final int numElements = size[ 0 ] * size[ 1 ] * size[ 2 ];
+			final int numBytes = bytesPerElement * numElements;
+			if ( data == null || data.capacity() < numBytes )
+				data = ByteBuffer.allocateDirect( 3 * numBytes / 2 ).order( ByteOrder.nativeOrder() ); // allocate a bit more than needed...
+			ByteUtils.setBytes( ( byte ) 0, data.duplicate(), 0, numBytes );
 
-		size[ 0 ] = rmax[ 0 ] - rmin[ 0 ] + 1 + 2 * pad[ 0 ];
-		size[ 1 ] = rmax[ 1 ] - rmin[ 1 ] + 1 + 2 * pad[ 1 ];
-		size[ 2 ] = rmax[ 2 ] - rmin[ 2 ] + 1 + 2 * pad[ 2 ];
+			if ( stamps == null || stamps.length < numElements )
+				stamps = new int[ 3 * numElements / 2 ];
+			else
+				Arrays.fill( stamps, 0, numElements, 0 );
 
-		offset[ 0 ] = rmin[ 0 ] - pad[ 0 ];
-		offset[ 1 ] = rmin[ 1 ] - pad[ 1 ];
-		offset[ 2 ] = rmin[ 2 ] - pad[ 2 ];
+			dirtySlices = new boolean[ size[ 2 ] ];
+			numWritten = 0;
+			reallocate = true;
+		}
 
-		final int numBytes = 4 * size[ 0 ] * size[ 1 ] * size[ 2 ];
-		if ( data == null || data.capacity() < numBytes )
-			data = ByteBuffer.allocateDirect( 3 * numBytes / 2 ); // allocate a bit more than needed...
-		ByteUtils.setBytes( ( byte ) 0, ByteUtils.addressOf( data ), numBytes );
+		final int[] tmp = previousWritten;
+		previousWritten = written;
+		numPreviousWritten = numWritten;
+		written = tmp;
+		numWritten = 0;
+	}
+
+	/**
+	 * Check whether source grid coordinates {@code rmin} to {@code rmax} fit
+	 * into the current lut (excluding padding), and the current lut is not
+	 * more than about twice as large as required along any axis.
+	 */
+	private boolean fits( final int[] rmin, final int[] rmax )
+	{
+		if ( data == null )
+			return false;
+		for ( int d = 0; d < 3; ++d )
+		{
+			final int min = offset[ d ] + pad[ d ];
+			final int max = offset[ d ] + size[ d ] - 1 - pad[ d ];
+			if ( rmin[ d ] < min || rmax[ d ] > max )
+				return false;
+			final int extent = rmax[ d ] - rmin[ d ] + 1;
+			if ( max - min + 1 > 2 * extent + 2 )
+				return false;
+		}
+		return true;
 	}
 
 	/**
@@ -97,18 +250,128 @@ public class LookupTextureARGB implements Texture3D
 	 * @param level resolution level of the tile
 	 */
 	public void putTile( final int[] g0, final TextureCache.Tile tile, final int level )
+	{
+		put( g0, tile.x(), tile.y(), tile.z(), level - baseLevel + 1 );
+	}
+
+	/**
+	 * Put an arbitrary entry into the lut.
+	 *
+	 * @param g0 source grid coordinate at which to put the entry
+	 */
+	public void put( final int[] g0, final int x, final int y, final int z, final int w )
 	{
 		final int i = IntervalIndexer.positionWithOffsetToIndex( g0, size, offset );
-		data.put( i * 4, ( byte ) tile.x() );
-		data.put( i * 4 + 1, ( byte ) tile.y() );
-		data.put( i * 4 + 2, ( byte ) tile.z() );
-		data.put( i * 4 + 3, ( byte ) ( level - baseLevel + 1 ) );
+		if ( stamps[ i ] != frame )
+		{
+			stamps[ i ] = frame;
+			if ( numWritten == written.length )
+				written = Arrays.copyOf( written, 2 * numWritten );
+			written[ numWritten++ ] = i;
+		}
+
+		if ( putEntry( data, i * bytesPerElement, format, x, y, z, w ) )
+			dirtySlices[ g0[ 2 ] - offset[ 2 ] ] = true;
 	}
 
+	/**
+	 * Write a lut entry into {@code data} at byte offset {@code o}.
+	 *
+	 * @return whether the entry was modified.
+	 */
+	static boolean putEntry( final ByteBuffer data, final int o, final InternalFormat format, final int x, final int y, final int z, final int w )
+	{
+		if ( format == RGBA8UI )
+		{
+			if ( data.get( o ) == ( byte ) x
+					&& data.get( o + 1 ) == ( byte ) y
+					&& data.get( o + 2 ) == ( byte ) z
+					&& data.get( o + 3 ) == ( byte ) w )
+				return false;
+			data.put( o, ( byte ) x );
+			data.put( o + 1, ( byte ) y );
+			data.put( o + 2, ( byte ) z );
+			data.put( o + 3, ( byte ) w );
+		}
+		else
+		{
+			if ( data.getShort( o ) == ( short ) x
+					&& data.getShort( o + 2 ) == ( short ) y
+					&& data.getShort( o + 4 ) == ( short ) z
+					&& data.getShort( o + 6 ) == ( short ) w )
+				return false;
+			data.putShort( o, ( short ) x );
+			data.putShort( o + 2, ( short ) y );
+			data.putShort( o + 4, ( short ) z );
+			data.putShort( o + 6, ( short ) w );
+		}
+		return true;
+	}
+
+	/**
+	 * Clear entries that were set in the previous frame, but not in the
+	 * current one. This is called automatically by {@link #upload(GpuContext)}
+	 * if necessary, but may be called earlier (and off the rendering thread)
+	 * after the last {@link #putTile(int[], TextureCache.Tile, int)} of a frame.
+	 */
+	public void finishUpdate()
+	{
+		if ( !updatePending )
+			return;
+
+		final int sliceSize = size[ 0 ] * size[ 1 ];
+		for ( int j = 0; j < numPreviousWritten; ++j )
+		{
+			final int i = previousWritten[ j ];
+			if ( stamps[ i ] != frame )
+			{
+				stamps[ i ] = 0;
+				putEntry( data, i * bytesPerElement, format, 0, 0, 0, 0 );
+				dirtySlices[ i / sliceSize ] = true;
+			}
+		}
+		numPreviousWritten = 0;
+		updatePending = false;
+	}
+
+	/**
+	 * Upload modified lut data to the GPU. If the lut was reallocated, the
+	 * texture is re-created and uploaded completely, otherwise only
+	 * contiguous runs of modified z-slices are uploaded.
+	 */
 	public void upload( final GpuContext context )
 	{
-		context.delete( this );
-		context.texSubImage3D( this, 0, 0, 0, texWidth(), texHeight(), texDepth(), data );
+		finishUpdate();
+
+		if ( reallocate )
+		{
+			context.delete( this );
+			context.texSubImage3D( this, 0, 0, 0, texWidth(), texHeight(), texDepth(), data );
+			Arrays.fill( dirtySlices, false );
+			reallocate = false;
+			return;
+		}
+
+		final int sliceBytes = bytesPerElement * size[ 0 ] * size[ 1 ];
+		for ( int z0 = 0; z0 < size[ 2 ]; )
+		{
+			if ( !dirtySlices[ z0 ] )
+			{
+				++z0;
+				continue;
+			}
+			int z1 = z0 + 1;
+			while ( z1 < size[ 2 ] && dirtySlices[ z1 ] )
+				++z1;
+
+			final ByteBuffer slab = data.duplicate();
+			slab.position( z0 * sliceBytes );
+			slab.limit( z1 * sliceBytes );
+			context.texSubImage3D( this, 0, 0, z0, size[ 0 ], size[ 1 ], z1 - z0, slab );
+
+			Arrays.fill( dirtySlices, z0, z1, false );
+			z0 = z1;
+		}
 	}
 
 	public Vector3f getOffset3f()
@@ -124,7 +387,7 @@ public class LookupTextureARGB implements Texture3D
 	@Override
 	public InternalFormat texInternalFormat()
 	{
-		return RGBA8UI;
+		return format;
 	}
 
 	@Override
@@ -162,4 +425,10 @@ public class LookupTextureARGB implements Texture3D
 	{
 		return Wrap.CLAMP_TO_EDGE;
 	}
+
+	@Override
+	public Category texMemoryCategory()
+	{
+		return Category.LUT;
+	}
 }
@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import bdv.tools.brightness.ConverterSetup;
+import bvv.core.blocks.TileAccess;
+import bvv.core.multires.MosaicStack3D;
+import bvv.core.multires.MultiResolutionStack3D;
+import bvv.core.multires.Stack3D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates compatible multi-resolution stacks into {@link MosaicStack3D}s,
+ * such that stitched tiles are rendered through a single shader volume slot.
+ * <p>
+ * Stacks are grouped if they are {@link MosaicStack3D#isCompatible
+ * compatible} and their converters have the same display range and color (the
+ * group shares one converter). {@code MosaicStack3D}s are kept from one frame
+ * to the next as long as the same tiles are visible.
+ */
+class MosaicGrouping
+{
+	private Map< List< MultiResolutionStack3D< ? > >, MosaicStack3D< ? > > mosaics = new HashMap<>();
+
+	private static class Group
+	{
+		final List< MultiResolutionStack3D< ? > > tiles = new ArrayList<>();
+
+		final ConverterSetup converter;
+
+		Group( final MultiResolutionStack3D< ? > first, final ConverterSetup converter )
+		{
+			tiles.add( first );
+			this.converter = converter;
+		}
+
+		boolean accepts( final MultiResolutionStack3D< ? > stack, final ConverterSetup c )
+		{
+			return MosaicStack3D.isCompatible( tiles.get( 0 ), stack )
+					&& converter.getDisplayRangeMin() == c.getDisplayRangeMin()
+					&& converter.getDisplayRangeMax() == c.getDisplayRangeMax()
+					&& converter.getColor().get() == c.getColor().get();
+		}
+	}
+
+	/**
+	 * Group {@code stacks} and corresponding {@code converters} into {@code
+	 * outStacks} and {@code outConverters}. A group of several stacks is
+	 * replaced by one {@code MosaicStack3D} at the position of its first
+	 * member. Other stacks are passed through unchanged.
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	void aggregate(
+			final List< Stack3D< ? > > stacks,
+			final List< ConverterSetup > converters,
+			final List< Stack3D< ? > > outStacks,
+			final List< ConverterSetup > outConverters )
+	{
+		final List< Group > groups = new ArrayList<>();
+		final Object[] slots = new Object[ stacks.size() ];
+		for ( int i = 0; i < stacks.size(); ++i )
+		{
+			final Stack3D< ? > stack = stacks.get( i );
+			final ConverterSetup converter = converters.get( i );
+			if ( stack instanceof MultiResolutionStack3D
+					&& !( stack instanceof MosaicStack3D )
+					&& TileAccess.isSupportedType( stack.getType() ) )
+			{
+				final MultiResolutionStack3D< ? > tile = ( MultiResolutionStack3D< ? > ) stack;
+				Group group = null;
+				for ( final Group g : groups )
+					if ( g.accepts( tile, converter ) )
+					{
+						group = g;
+						break;
+					}
+				if ( group == null )
+				{
+					group = new Group( tile, converter );
+					groups.add( group );
+					slots[ i ] = group;
+				}
+				else
+					group.tiles.add( tile );
+			}
+			else
+				slots[ i ] = stack;
+		}
+
+		final Map< List< MultiResolutionStack3D< ? > >, MosaicStack3D< ? > > used = new HashMap<>();
+		for ( int i = 0; i < slots.length; ++i )
+		{
+			if ( slots[ i ] == null )
+				continue;
+			if ( slots[ i ] instanceof Group )
+			{
+				final Group group = ( Group ) slots[ i ];
+				if ( group.tiles.size() == 1 )
+					outStacks.add( group.tiles.get( 0 ) );
+				else
+				{
+					MosaicStack3D< ? > mosaic = mosaics.get( group.tiles );
+					if ( mosaic == null )
+						mosaic = new MosaicStack3D( group.tiles );
+					used.put( group.tiles, mosaic );
+					outStacks.add( mosaic );
+				}
+			}
+			else
+				outStacks.add( ( Stack3D< ? > ) slots[ i ] );
+			outConverters.add( converters.get( i ) );
+		}
+		mosaics = used;
+	}
+}
@@ -31,12 +31,14 @@ package bvv.core.render;
 import bdv.tools.brightness.ConverterSetup;
 import bvv.core.cache.CacheSpec;
 import bvv.core.cache.TextureCache;
+import bvv.core.multires.SourceCrop;
 import bvv.core.multires.SourceStacks;
 import bvv.core.shadergen.Uniform1f;
 import bvv.core.shadergen.Uniform2f;
 import bvv.core.shadergen.Uniform3f;
 import bvv.core.shadergen.Uniform3fv;
 import bvv.core.shadergen.Uniform4f;
+import bvv.core.shadergen.Uniform4fv;
 import bvv.core.shadergen.UniformMatrix4f;
 import bvv.core.shadergen.UniformSampler;
 import bvv.core.shadergen.generate.Segment;
@@ -44,8 +46,11 @@ import bvv.core.shadergen.generate.SegmentTemplate;
 import bvv.core.shadergen.generate.SegmentType;
 import bvv.core.shadergen.generate.SegmentedShader;
 import bvv.core.shadergen.generate.SegmentedShaderBuilder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import net.imglib2.type.numeric.ARGBType;
 import org.joml.Matrix4f;
@@ -54,13 +59,18 @@ import org.joml.Vector2f;
 import org.joml.Vector4f;
 import bvv.core.backend.GpuContext;
 import bvv.core.backend.Texture;
+import bvv.core.backend.Texture.InternalFormat;
 import bvv.core.backend.Texture2D;
+import bvv.core.backend.Texture3D;
 import bvv.core.dither.DitherBuffer;
 
 public class MultiVolumeShaderMip
 {
 	private static final int NUM_BLOCK_SCALES = 10;
 
+	// must match NUM_CLIP_PLANES in sample_volume_blocks.frag
+	private static final int NUM_CLIP_PLANES = SourceCrop.MAX_CLIP_PLANES;
+
 	private final VolumeShaderSignature signature;
 
 	private final boolean useDepthTexture;
@@ -83,6 +93,14 @@ public class MultiVolumeShaderMip
 	private final UniformMatrix4f uniformTransform;
 	private final Uniform2f uniformDsp;
 
+	private TextureCache textureCache;
+
+	/**
+	 * Cache sampler and size uniforms for each {@code TextureCache} format
+	 * used by multi-resolution volumes.
+	 */
+	private final Map< InternalFormat, CacheSegment > cacheSegments;
+
 	private int viewportWidth;
 	private String sceneDepthTextureName;
 
@@ -149,6 +167,11 @@ public class MultiVolumeShaderMip
 		final SegmentTemplate templateAccumulateMipBlocks = segments.get( SegmentType.AccumulatorMultiresolution );
 		final SegmentTemplate templateAccumulateMipSimple = segments.get( SegmentType.Accumulator );
 
+		final SegmentTemplate templateVolumeCache = new SegmentTemplate( MultiVolumeShaderMip.class,
+				"volume_cache.frag",
+				"volumeCache", "cacheSize" );
+		final Map< InternalFormat, Segment > volumeCacheSegs = new EnumMap<>( InternalFormat.class );
+
 		final Segment[] sampleVolumeSegs = new Segment[ numVolumes ];
 		final Segment[] convertSegs = new Segment[ numVolumes ];
 		final Segment[] accumulateSegs = new Segment[ numVolumes ];
@@ -167,6 +190,9 @@ public class MultiVolumeShaderMip
 				instancedSegments.put( SegmentType.AccumulatorMultiresolution, accumulate );
 				sampleVolume = templateVolBlocks.instantiate();
 				instancedSegments.put( SegmentType.SampleMultiresolutionVolume, sampleVolume );
+				final Segment volumeCache = volumeCacheSegs.computeIfAbsent( volumeSignature.getPixelType().getFormat(), f -> templateVolumeCache.instantiate() );
+				accumulate.bind( "volumeCache", volumeCache );
+				accumulate.bind( "cacheSize", volumeCache );
 				break;
 			case SIMPLE:
 				accumulate = templateAccumulateMipSimple.instantiate();
@@ -207,7 +233,9 @@ public class MultiVolumeShaderMip
 			convertSegs[ i ] = convert;
 			accumulateSegs[ i ] = accumulate;
 		}
-		fp.insert( "SampleVolume", sampleVolumeSegs );
+		final List< Segment > volumeSegs = new ArrayList<>( volumeCacheSegs.values() );
+		volumeSegs.addAll( Arrays.asList( sampleVolumeSegs ) );
+		fp.insert( "SampleVolume", volumeSegs );
 		fp.insert( "Convert", convertSegs );
 		fp.insert( "Accumulate", accumulateSegs );
 
@@ -237,6 +265,9 @@ public class MultiVolumeShaderMip
 			converterSegments[ i ] = new ConverterSegment( prog, convertSegs[ i ], volumeSignature.getPixelType() );
 		}
 
+		cacheSegments = new EnumMap<>( InternalFormat.class );
+		volumeCacheSegs.forEach( ( format, segment ) -> cacheSegments.put( format, new CacheSegment( prog, segment ) ) );
+
 		uniformTransform = prog.getUniformMatrix4f( "transform" );
 		uniformDsp = prog.getUniform2f( "dsp" );
 
@@ -257,8 +288,8 @@ public class MultiVolumeShaderMip
 
 		segments.put( SegmentType.SampleMultiresolutionVolume, new SegmentTemplate(
 				"sample_volume_blocks.frag",
-				"im", "sourcemin", "sourcemax", "intersectBoundingBox",
-				"lutSampler", "blockScales", "lutSize", "lutOffset", "sampleVolume" ) );
+				"im", "sourcemin", "sourcemax", "clipPlanes", "intersectBoundingBox",
+				"lutSampler", "lutPageSampler", "blockScales", "lutSize", "lutOffset", "sampleVolume" ) );
 		segments.put( SegmentType.SampleVolume, new SegmentTemplate(
 				"sample_volume_simple.frag",
 				"im", "sourcemax", "intersectBoundingBox",
@@ -281,7 +312,7 @@ public class MultiVolumeShaderMip
 				"intersectBoundingBox", "vis", "SampleVolume", "Convert", "Accumulate" ) );
 		segments.put( SegmentType.AccumulatorMultiresolution, new SegmentTemplate(
 				"accumulate_mip_blocks.frag",
-				"vis", "sampleVolume", "convert" ) );
+				"vis", "sampleVolume", "convert", "volumeCache", "cacheSize" ) );
 		segments.put( SegmentType.Accumulator, new SegmentTemplate(
 				"accumulate_mip_simple.frag",
 				"vis", "sampleVolume", "convert" ) );
@@ -294,8 +325,15 @@ public class MultiVolumeShaderMip
 		this( signature, useDepthTexture, degrade, getDefaultSegments( useDepthTexture ), null, "sceneDepth" );
 	}
 
+	/**
+	 * Set the {@code TextureCache} from which multi-resolution volumes with
+	 * pixel types of the cache format are sampled. This should be called for
+	 * every format in the signature. All caches must have the same block
+	 * size and padding.
+	 */
 	public void setTextureCache( TextureCache textureCache )
 	{
+		this.textureCache = textureCache;
 		CacheSpec spec = textureCache.spec();
 		final int[] bs = spec.blockSize();
 		final int[] pbs = spec.paddedBlockSize();
@@ -304,8 +342,9 @@ public class MultiVolumeShaderMip
 		prog.getUniform3f( "paddedBlockSize" ).set( pbs[ 0 ], pbs[ 1 ], pbs[ 2 ] );
 		prog.getUniform3f( "cachePadOffset" ).set( bo[ 0 ], bo[ 1 ], bo[ 2 ] );
 
-		prog.getUniformSampler( "volumeCache" ).set( textureCache );
-		prog.getUniform3f( "cacheSize" ).set( textureCache.texWidth(), textureCache.texHeight(), textureCache.texDepth() );
+		final CacheSegment cacheSegment = cacheSegments.get( spec.format() );
+		if ( cacheSegment != null )
+			cacheSegment.setData( textureCache );
 	}
 
 	public void setDepthTexture( Texture2D depth )
@@ -431,6 +470,36 @@ public class MultiVolumeShaderMip
 		( ( VolumeSimpleSegment ) volumeSegments[ index ] ).setData( volume );
 	}
 
+	/**
+	 * Make volume {@code index} (a padding slot, see {@link
+	 * VolumeShaderSignature#padded}) empty, such that it is never sampled.
+	 * Samplers are set to the textures of {@code like}, so that every sampler
+	 * refers to a texture of the correct type.
+	 */
+	public void setEmptyVolume( int index, VolumeBlocks like )
+	{
+		final VolumeShaderSignature.VolumeSignature vs = signature.getVolumeSignatures().get( index );
+		if ( vs.getSourceStackType() != SourceStacks.SourceStackType.MULTIRESOLUTION )
+			throw new IllegalArgumentException();
+
+		( ( VolumeBlocksSegment ) volumeSegments[ index ] ).setEmpty( like );
+	}
+
+	/**
+	 * Make simple volume {@code index} (a padding slot, see {@link
+	 * VolumeShaderSignature#padded}) empty, such that it is never sampled.
+	 * The sampler is set to the (last set) volume cache texture (see {@link
+	 * #setTextureCache}).
+	 */
+	public void setEmptyVolume( int index )
+	{
+		final VolumeShaderSignature.VolumeSignature vs = signature.getVolumeSignatures().get( index );
+		if ( vs.getSourceStackType() != SourceStacks.SourceStackType.SIMPLE )
+			throw new IllegalArgumentException();
+
+		( ( VolumeSimpleSegment ) volumeSegments[ index ] ).setEmpty( textureCache );
+	}
+
 
 	public void setDither( DitherBuffer dither, int step )
 	{
@@ -493,6 +562,21 @@ public class MultiVolumeShaderMip
 		uniformViewportSize.set( width, height );
 	}
 
+	/**
+	 * Start compiling the shader program if necessary.
+	 *
+	 * @return {@code true} if the program is ready to {@link #use}.
+	 */
+	public boolean isReady( GpuContext context )
+	{
+		return context.isReady( prog );
+	}
+
+	public VolumeShaderSignature getSignature()
+	{
+		return signature;
+	}
+
 	public void use( GpuContext context )
 	{
 		prog.use( context );
@@ -533,6 +617,9 @@ public class MultiVolumeShaderMip
 			case ARGB:
 				rangeScale = 0xff;
 				break;
+			case FLOAT:
+				rangeScale = 1;
+				break;
 			}
 		}
 
@@ -572,6 +659,24 @@ public class MultiVolumeShaderMip
 		}
 	}
 
+	static class CacheSegment
+	{
+		private final UniformSampler uniformVolumeCache;
+		private final Uniform3f uniformCacheSize;
+
+		public CacheSegment( final SegmentedShader prog, final Segment segment )
+		{
+			uniformVolumeCache = prog.getUniformSampler( segment, "volumeCache" );
+			uniformCacheSize = prog.getUniform3f( segment, "cacheSize" );
+		}
+
+		public void setData( TextureCache textureCache )
+		{
+			uniformVolumeCache.set( textureCache );
+			uniformCacheSize.set( textureCache.texWidth(), textureCache.texHeight(), textureCache.texDepth() );
+		}
+	}
+
 	static abstract class VolumeSegment
 	{
 		final Segment volume;
@@ -586,23 +691,26 @@ public class MultiVolumeShaderMip
 	{
 		private final Uniform3fv uniformBlockScales;
 		private final UniformSampler uniformLutSampler;
+		private final UniformSampler uniformLutPageSampler;
 		private final Uniform3f uniformLutSize;
 		private final Uniform3f uniformLutOffset;
 		private final UniformMatrix4f uniformIm;
 		private final Uniform3f uniformSourcemin;
 		private final Uniform3f uniformSourcemax;
+		private final Uniform4fv uniformClipPlanes;
 
 		public VolumeBlocksSegment( final SegmentedShader prog, final Segment volume )
 		{
 			super( volume );
 			uniformBlockScales = prog.getUniform3fv( volume, "blockScales" );
 			uniformLutSampler = prog.getUniformSampler( volume, "lutSampler" );
+			uniformLutPageSampler = prog.getUniformSampler( volume, "lutPageSampler" );
 			uniformLutSize = prog.getUniform3f( volume, "lutSize" );
 			uniformLutOffset = prog.getUniform3f( volume, "lutOffset" );
 			uniformIm = prog.getUniformMatrix4f( volume, "im" );
 			uniformSourcemin = prog.getUniform3f( volume, "sourcemin" );
 			uniformSourcemax = prog.getUniform3f( volume, "sourcemax" );
-
+			uniformClipPlanes = prog.getUniform4fv( volume, "clipPlanes" );
 		}
 
 		public void setData( VolumeBlocks blocks )
@@ -610,11 +718,23 @@ public class MultiVolumeShaderMip
 			uniformBlockScales.set( blocks.getLutBlockScales( NUM_BLOCK_SCALES ) );
 			final LookupTextureARGB lut = blocks.getLookupTexture();
 			uniformLutSampler.set( lut );
+			uniformLutPageSampler.set( blocks.getLookupPages() );
 			uniformLutSize.set( lut.getSize3f() );
 			uniformLutOffset.set( lut.getOffset3f() );
 			uniformIm.set( blocks.getIms() );
 			uniformSourcemin.set( blocks.getSourceLevelMin() );
 			uniformSourcemax.set( blocks.getSourceLevelMax() );
+			uniformClipPlanes.set( blocks.getClipPlanes( NUM_CLIP_PLANES ) );
+		}
+
+		public void setEmpty( VolumeBlocks like )
+		{
+			setData( like );
+			uniformSourcemin.set( 0, 0, 0 );
+			uniformSourcemax.set( 0, 0, 0 );
+			final float[][] planes = new float[ NUM_CLIP_PLANES ][];
+			Arrays.setAll( planes, i -> new float[] { 0, 0, 0, -1 } );
+			uniformClipPlanes.set( planes );
 		}
 	}
 
@@ -638,5 +758,12 @@ public class MultiVolumeShaderMip
 			uniformIm.set( volume.getIms() );
 			uniformSourcemax.set( volume.getSourceMax() );
 		}
+
+		public void setEmpty( Texture3D texture )
+		{
+			uniformVolumeSampler.set( texture );
+			uniformIm.set( new Matrix4f() );
+			uniformSourcemax.set( 0, 0, 0 );
+		}
 	}
 }
@@ -0,0 +1,269 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.view.Views;
+
+/**
+ * Copy 3D images into (native order) {@code ByteBuffer}s for uploading to
+ * textures.
+ * <p>
+ * {@code ArrayImg}, {@code PlanarImg}, and {@code CellImg} with primitive
+ * array storage are copied with bulk array copies. Other images are copied
+ * with cursors. In both cases, z-slices (or cells) are copied in parallel.
+ */
+final class SimpleStackCopy
+{
+	/**
+	 * Copies {@code length} elements from primitive array {@code src}, starting
+	 * at {@code srcPos}, to the destination buffer, starting at element
+	 * {@code dstPos}.
+	 */
+	private interface RowWriter
+	{
+		void write( Object src, int srcPos, int dstPos, int length );
+	}
+
+	/**
+	 * Chunk size for swizzling ARGB to RGBA.
+	 */
+	private static final int SWIZZLE_CHUNK = 4096;
+
+	static void copyU8( final RandomAccessibleInterval< UnsignedByteType > rai, final ByteBuffer buffer, final ExecutorService executor )
+	{
+		copy( rai, byte[].class, executor,
+				() -> {
+					final ByteBuffer dst = buffer.duplicate();
+					return ( src, srcPos, dstPos, length ) -> {
+						dst.position( dstPos );
+						dst.put( ( byte[] ) src, srcPos, length );
+					};
+				},
+				( cursor, offset ) -> {
+					int i = offset;
+					while ( cursor.hasNext() )
+						buffer.put( i++, cursor.next().getByte() );
+				} );
+	}
+
+	static void copyU16( final RandomAccessibleInterval< UnsignedShortType > rai, final ByteBuffer buffer, final ExecutorService executor )
+	{
+		copy( rai, short[].class, executor,
+				() -> {
+					final ShortBuffer dst = buffer.asShortBuffer();
+					return ( src, srcPos, dstPos, length ) -> {
+						dst.position( dstPos );
+						dst.put( ( short[] ) src, srcPos, length );
+					};
+				},
+				( cursor, offset ) -> {
+					final ShortBuffer dst = buffer.asShortBuffer();
+					int i = offset;
+					while ( cursor.hasNext() )
+						dst.put( i++, cursor.next().getShort() );
+				} );
+	}
+
+	static void copyRGBA8( final RandomAccessibleInterval< ARGBType > rai, final ByteBuffer buffer, final ExecutorService executor )
+	{
+		copy( rai, int[].class, executor,
+				() -> {
+					final IntBuffer dst = buffer.asIntBuffer();
+					final int[] chunk = new int[ SWIZZLE_CHUNK ];
+					return ( src, srcPos, dstPos, length ) -> {
+						final int[] argb = ( int[] ) src;
+						dst.position( dstPos );
+						for ( int o = 0; o < length; o += SWIZZLE_CHUNK )
+						{
+							final int n = Math.min( SWIZZLE_CHUNK, length - o );
+							final int s = srcPos + o;
+							for ( int i = 0; i < n; ++i )
+								chunk[ i ] = toRGBA( argb[ s + i ] );
+							dst.put( chunk, 0, n );
+						}
+					};
+				},
+				( cursor, offset ) -> {
+					final IntBuffer dst = buffer.asIntBuffer();
+					int i = offset;
+					while ( cursor.hasNext() )
+						dst.put( i++, toRGBA( cursor.next().get() ) );
+				} );
+	}
+
+	/**
+	 * Swizzle ARGB to RGBA (that is, ABGR when read as a little-endian int).
+	 * Byte reversal and rotation are compiled to single instructions.
+	 */
+	static int toRGBA( final int argb )
+	{
+		return Integer.rotateRight( Integer.reverseBytes( argb ), 8 );
+	}
+
+	private static < T > void copy(
+			final RandomAccessibleInterval< T > rai,
+			final Class< ? > arrayClass,
+			final ExecutorService executor,
+			final Supplier< RowWriter > writers,
+			final ObjIntConsumer< Cursor< T > > fallback )
+	{
+		final int sx = ( int ) rai.dimension( 0 );
+		final int sy = ( int ) rai.dimension( 1 );
+		final int sz = ( int ) rai.dimension( 2 );
+		final int sliceSize = sx * sy;
+
+		if ( rai instanceof ArrayImg )
+		{
+			final Object data = storage( ( ( ArrayImg< ?, ? > ) rai ).update( null ) );
+			if ( arrayClass.isInstance( data ) )
+			{
+				forEach( executor, sz, z -> writers.get().write( data, z * sliceSize, z * sliceSize, sliceSize ) );
+				return;
+			}
+		}
+		else if ( rai instanceof PlanarImg )
+		{
+			final PlanarImg< ?, ? > img = ( PlanarImg< ?, ? > ) rai;
+			if ( arrayClass.isInstance( storage( img.getPlane( 0 ) ) ) )
+			{
+				forEach( executor, sz, z -> writers.get().write( storage( img.getPlane( z ) ), 0, z * sliceSize, sliceSize ) );
+				return;
+			}
+		}
+		else if ( rai instanceof AbstractCellImg )
+		{
+			final RandomAccessibleInterval< ? extends Cell< ? > > cells = ( ( AbstractCellImg< ?, ?, ? extends Cell< ? >, ? > ) rai ).getCells();
+			final long[] gridDims = new long[ 3 ];
+			cells.dimensions( gridDims );
+			if ( arrayClass.isInstance( storage( cells.randomAccess().get().getData() ) ) )
+			{
+				forEach( executor, ( int ) ( gridDims[ 0 ] * gridDims[ 1 ] * gridDims[ 2 ] ), i -> {
+					final long[] gridPos = new long[ 3 ];
+					IntervalIndexer.indexToPosition( i, gridDims, gridPos );
+					final RandomAccess< ? extends Cell< ? > > access = cells.randomAccess();
+					access.setPosition( gridPos );
+					final Cell< ? > cell = access.get();
+					final Object data = storage( cell.getData() );
+					final int cx = ( int ) cell.dimension( 0 );
+					final int cy = ( int ) cell.dimension( 1 );
+					final int cz = ( int ) cell.dimension( 2 );
+					final int ox = ( int ) cell.min( 0 );
+					final int oy = ( int ) cell.min( 1 );
+					final int oz = ( int ) cell.min( 2 );
+					final RowWriter writer = writers.get();
+					for ( int z = 0; z < cz; ++z )
+						for ( int y = 0; y < cy; ++y )
+							writer.write( data, ( z * cy + y ) * cx, ( ( oz + z ) * sy + oy + y ) * sx + ox, cx );
+				} );
+				return;
+			}
+		}
+
+		final long minZ = rai.min( 2 );
+		forEach( executor, sz, z -> fallback.accept( Views.flatIterable( Views.hyperSlice( rai, 2, minZ + z ) ).cursor(), z * sliceSize ) );
+	}
+
+	private static Object storage( final Object access )
+	{
+		return access instanceof ArrayDataAccess
+				? ( ( ArrayDataAccess< ? > ) access ).getCurrentStorageArray()
+				: null;
+	}
+
+	/**
+	 * Run {@code action} for indices {@code 0 .. n-1} in parallel on the
+	 * {@code executor}, and wait for all to complete.
+	 */
+	private static void forEach( final ExecutorService executor, final int n, final IntConsumer action )
+	{
+		if ( n <= 1 )
+		{
+			for ( int i = 0; i < n; i++ )
+				action.accept( i );
+			return;
+		}
+
+		final List< Callable< Void > > tasks = new ArrayList<>( n );
+		for ( int i = 0; i < n; i++ )
+		{
+			final int index = i;
+			tasks.add( () -> {
+				action.accept( index );
+				return null;
+			} );
+		}
+		try
+		{
+			for ( final Future< Void > future : executor.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof RuntimeException )
+				throw ( RuntimeException ) cause;
+			if ( cause instanceof Error )
+				throw ( Error ) cause;
+			throw new RuntimeException( cause );
+		}
+	}
+
+	private SimpleStackCopy()
+	{}
+}
@@ -28,6 +28,7 @@
  */
 package bvv.core.render;
 
+import bvv.core.backend.Texture;
 import bvv.core.blockmath.FindRequiredBlocks;
 import bvv.core.blockmath.MipmapSizes;
 import bvv.core.blockmath.RequiredBlock;
@@ -39,16 +40,22 @@ import bvv.core.cache.ImageBlockKey;
 import bvv.core.cache.TextureCache;
 import bvv.core.cache.UploadBuffer;
 import bvv.core.multires.ResolutionLevel3D;
+import bvv.core.multires.SourceCrop;
 import bvv.core.util.MatrixMath;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import net.imglib2.Interval;
+import net.imglib2.RealInterval;
+import net.imglib2.algorithm.kdtree.HyperPlane;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.util.LinAlgHelpers;
 import org.joml.Matrix4f;
 import org.joml.Matrix4fc;
 import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.joml.Vector4f;
 import bvv.core.blocks.TileAccess;
 import bvv.core.multires.MultiResolutionStack3D;
 
@@ -56,18 +63,22 @@ import bvv.core.multires.MultiResolutionStack3D;
  * For setting up the volume for one frame, call methods in this order:
  * <ol>
  *     <li>{@link #init(MultiResolutionStack3D, int, Matrix4fc)}</li>
- *     <li>{@link #getFillTasks()}</li>
+ *     <li>{@link #getFillTasks()}, or {@link #findRequiredBlocks()} and {@link #getFillTasksForRequiredBlocks()}</li>
  *     <li>{@link #makeLut(int)}</li>
  * </ol>
  * {@link #getLutBlockScales(int)} can be called at any point after {@code init()}.
  * <p>
  * For the next frame start over with {@code init()}.
+ * <p>
+ * {@code VolumeBlocks} is not thread-safe, but different instances (sharing
+ * the same {@code TextureCache}) can be set up concurrently.
  */
 public class VolumeBlocks
 {
 	private final TextureCache textureCache;
 	private final CacheSpec cacheSpec;
 	private final LookupTextureARGB lut;
+	private final LookupPagePool lutPages;
 	private final TileAccess.Cache tileAccess;
 	private final MipmapSizes sizes;
 
@@ -75,13 +86,30 @@ public class VolumeBlocks
 	{
 		this.textureCache = textureCache;
 		this.cacheSpec = textureCache.spec();
-		this.lut = new LookupTextureARGB();
+		final Texture.InternalFormat lutFormat = LookupTextureARGB.formatForCacheGridSize( textureCache.getGridSize() );
+		this.lut = new LookupTextureARGB( lutFormat );
+		this.lutPages = new LookupPagePool( lutFormat );
 		this.tileAccess = new TileAccess.Cache();
 		this.sizes = new MipmapSizes();
 	}
 
 	private MultiResolutionStack3D< ? > multiResolutionStack;
 
+	private int viewportWidth;
+
+	private int viewportHeight;
+
+	/**
+	 * Crop box of the current stack in source coordinates, or {@code null}.
+	 */
+	private RealInterval cropBox;
+
+	/**
+	 * Half-spaces restricting the visible region of the current stack, in
+	 * source coordinates. (Including the faces of {@link #cropBox}.)
+	 */
+	private final List< HyperPlane > clipPlanes = new ArrayList<>();
+
 	/** {@code projection * view * model} matrix */
 	final Matrix4f pvm = new Matrix4f();
 
@@ -96,6 +124,134 @@ public class VolumeBlocks
 	 */
 	private RequiredBlocks requiredBlocks;
 
+	/**
+	 * Selection state of the blocks in the current {@link #requiredBlocks},
+	 * keyed by {@link #gridKey(int[]) packed} grid position.
+	 */
+	private HashMap< Long, BlockState > currentBlocks = new HashMap<>();
+
+	/**
+	 * Selection state of the blocks of the last frame that made it into the
+	 * LUT. Blocks that stay in the frustum with unchanged best level reuse
+	 * their previous {@code FillTask} instead of walking the resolution
+	 * levels again.
+	 */
+	private HashMap< Long, BlockState > previousBlocks = new HashMap<>();
+
+	/**
+	 * Stack of the last frame that made it into the LUT, or {@code null}.
+	 */
+	private MultiResolutionStack3D< ? > previousStack;
+
+	/**
+	 * Base level of the last frame that made it into the LUT.
+	 */
+	private int previousBaseLevel = -1;
+
+	/**
+	 * Result of the last frustum traversal, see {@link #findRequiredBlocks()}.
+	 * Reused (with new best levels) while the stack, crop, base level, and
+	 * {@link #pvm} stay the same, e.g., for repaints while data is loading.
+	 */
+	private RequiredBlocks traversalBlocks;
+
+	/**
+	 * Inputs of the last frustum traversal.
+	 */
+	private MultiResolutionStack3D< ? > traversalStack;
+
+	private SourceCrop traversalCrop;
+
+	private int traversalBaseLevel = -1;
+
+	private final Matrix4f traversalPvm = new Matrix4f();
+
+	/**
+	 * Best levels assigned by the last {@link #findRequiredBlocks()}, keyed
+	 * by {@link #gridKey(int[]) packed} grid position, and the settings they
+	 * were computed with. While the frustum traversal is reused, a block is
+	 * only evaluated again if its resident level changed.
+	 */
+	private HashMap< Long, LevelChoice > levelChoices = new HashMap<>();
+
+	private RequiredBlocks levelChoicesBlocks;
+
+	private int levelChoicesViewportWidth;
+
+	private int levelChoicesViewportHeight;
+
+	private float levelChoicesHysteresis;
+
+	private Foveation levelChoicesFoveation;
+
+	/**
+	 * Best level of a required block, and the resident level (see {@link
+	 * #residentLevel(Long)}) it was chosen for.
+	 */
+	private static class LevelChoice
+	{
+		final int residentLevel;
+
+		final int bestLevel;
+
+		LevelChoice( final int residentLevel, final int bestLevel )
+		{
+			this.residentLevel = residentLevel;
+			this.bestLevel = bestLevel;
+		}
+	}
+
+	/**
+	 * Which {@code FillTask} was chosen for a required block.
+	 */
+	private static class BlockState
+	{
+		/**
+		 * best resolution level of the block
+		 */
+		final int bestLevel;
+
+		/**
+		 * resolution level of the block that is filled by {@link #task}
+		 */
+		final int level;
+
+		/**
+		 * key of the block that is filled by {@link #task}
+		 */
+		final ImageBlockKey< ? > key;
+
+		final FillTask task;
+
+		BlockState( final int bestLevel, final int level, final ImageBlockKey< ? > key, final FillTask task )
+		{
+			this.bestLevel = bestLevel;
+			this.level = level;
+			this.key = key;
+			this.task = task;
+		}
+	}
+
+	/**
+	 * Whether the warning about a full {@link #lutPages} pool was printed.
+	 */
+	private boolean warnedPagePoolFull = false;
+
+	/**
+	 * Tolerance (in octaves) for keeping blocks at their current resolution level.
+	 */
+	private float lodHysteresis = 0;
+
+	/**
+	 * Focus region for reducing resolution away from the focus point, or {@code null}.
+	 */
+	private Foveation foveation;
+
+	/**
+	 * Whether to load blocks coarse-to-fine, see {@link #setCoarseToFine(boolean)}.
+	 */
+	private boolean coarseToFine = false;
+
 	/**
 	 * @param multiResolutionStack single-channel, multi-resolution source
 	 * @param viewportWidth width of the surface to be rendered
@@ -105,15 +261,90 @@ public class VolumeBlocks
 			final MultiResolutionStack3D< ? > multiResolutionStack,
 			final int viewportWidth,
 			final Matrix4fc pv)
+	{
+		init( multiResolutionStack, viewportWidth, viewportWidth, pv );
+	}
+
+	/**
+	 * @param multiResolutionStack single-channel, multi-resolution source
+	 * @param viewportWidth width of the surface to be rendered
+	 * @param viewportHeight height of the surface to be rendered
+	 * @param pv {@code projection * view} matrix, transforms world coordinates to NDC coordinates
+	 */
+	public void init(
+			final MultiResolutionStack3D< ? > multiResolutionStack,
+			final int viewportWidth,
+			final int viewportHeight,
+			final Matrix4fc pv)
 	{
 		this.multiResolutionStack = multiResolutionStack;
+		this.viewportWidth = viewportWidth;
+		this.viewportHeight = viewportHeight;
 
 		final Matrix4f model = MatrixMath.affine( multiResolutionStack.getSourceTransform(), new Matrix4f() );
 		pvm.set( pv ).mul( model );
-		sizes.init( pvm, viewportWidth, multiResolutionStack.resolutions() );
+		final SourceCrop crop = multiResolutionStack.getCrop();
+		cropBox = crop == null ? null : crop.getSourceBox();
+		clipPlanes.clear();
+		if ( crop != null )
+			clipPlanes.addAll( crop.getSourcePlanes( multiResolutionStack.getSourceTransform() ) );
+		sizes.init( pvm, viewportWidth, viewportHeight, multiResolutionStack.resolutions(), clipPlanes );
 		baseLevel = sizes.getBaseLevel();
 	}
 
+	/**
+	 * Set the tolerance for keeping blocks at the resolution level at which
+	 * they are already present in the cache. A block stays at its current
+	 * level, as long as the screen-space error of that level is within {@code
+	 * hysteresis} octaves of the range that would be accepted for the best
+	 * level. This reduces cache churn for small camera movements.
+	 *
+	 * @param hysteresis
+	 * 		tolerance in octaves. {@code 0} means that always the best level is chosen.
+	 */
+	public void setLodHysteresis( final double hysteresis )
+	{
+		this.lodHysteresis = ( float ) hysteresis;
+	}
+
+	/**
+	 * Set the focus region for foveated level of detail. Away from the focus
+	 * point, blocks are biased towards coarser resolution levels.
+	 *
+	 * @param foveation
+	 * 		the focus region, or {@code null} to use the best level everywhere.
+	 */
+	public void setFoveation( final Foveation foveation )
+	{
+		this.foveation = foveation;
+	}
+
+	/**
+	 * Enable coarse-to-fine loading. The coarsest resolution tile covering
+	 * each required block is always requested (first), and blocks are refined
+	 * at most one level per frame, as the coarser level becomes complete in
+	 * the cache. The lut prefers coarser complete tiles over finer incomplete
+	 * tiles. This way, the view is covered completely as soon as possible
+	 * (although blurry), and then refined.
+	 */
+	public void setCoarseToFine( final boolean coarseToFine )
+	{
+		this.coarseToFine = coarseToFine;
+	}
+
+	/**
+	 * Get the factor by which the screen-space error of a block with the
+	 * given center (in source coordinates) should be scaled to account for
+	 * {@link #foveation}.
+	 */
+	private float foveationErrorScale( final Vector3fc blockCenter, final Vector3f tmp )
+	{
+		if ( foveation == null )
+			return 1;
+		pvm.transformProject( blockCenter, tmp );
+		return ( float ) Math.pow( 2, -foveation.getBias( tmp.x(), tmp.y() ) );
+	}
+
 	/**
 	 * Get the base resolution level for rendering the volume.
 	 * Every block in the volumes LUT is at this level or higher (coarser).
@@ -165,16 +396,167 @@ public class VolumeBlocks
 
 	/**
 	 * Sets up {@code RequiredBlocks} (internally) and creates a list of {@code FillTask}s for the cache to process.
+	 * <p>
+	 * This is equivalent to {@link #findRequiredBlocks()} followed by {@link #getFillTasksForRequiredBlocks()}.
 	 *
 	 * @return list of {@code FillTask}s
 	 */
 	public List< FillTask > getFillTasks()
+	{
+		findRequiredBlocks();
+		return getFillTasksForRequiredBlocks();
+	}
+
+	/**
+	 * Sets up {@code RequiredBlocks} (internally) with the best resolution level for each block.
+	 * The levels may be adjusted (coarsened), before {@code FillTask}s are created with {@link #getFillTasksForRequiredBlocks()}.
+	 * <p>
+	 * If the view, stack, crop, and base level are unchanged since the last
+	 * call, the set of blocks from the last frustum traversal is reused. The
+	 * best level is then only computed again for blocks whose resident level
+	 * in the cache changed (it depends on the cache contents through {@link
+	 * #setLodHysteresis(double) hysteresis}). Otherwise, every block is
+	 * evaluated, because the screen-space errors depend on the view.
+	 *
+	 * @return the {@code RequiredBlocks}, in grid coordinates of {@link #getBaseLevel() base level} resolution
+	 */
+	public RequiredBlocks findRequiredBlocks()
 	{
 		// block coordinates are grid coordinates of baseLevel resolution
-		requiredBlocks = getRequiredBlocks( baseLevel );
-		assignBestLevels( requiredBlocks, baseLevel, baseLevel );
-		final List< FillTask > fillTasks = getFillTasks( requiredBlocks, baseLevel );
-		return fillTasks;
+		final SourceCrop crop = multiResolutionStack.getCrop();
+		if ( traversalBlocks != null
+				&& baseLevel == traversalBaseLevel
+				&& crop == traversalCrop
+				&& pvm.equals( traversalPvm )
+				&& multiResolutionStack.equals( traversalStack ) )
+			requiredBlocks = traversalBlocks;
+		else
+		{
+			requiredBlocks = getRequiredBlocks( baseLevel );
+			traversalBlocks = requiredBlocks;
+			traversalStack = multiResolutionStack;
+			traversalCrop = crop;
+			traversalBaseLevel = baseLevel;
+			traversalPvm.set( pvm );
+		}
+		assignBestLevels( requiredBlocks, baseLevel, baseLevel, canReusePreviousBlocks() );
+		return requiredBlocks;
+	}
+
+	/**
+	 * Creates a list of {@code FillTask}s for the cache to process, for the
+	 * {@code RequiredBlocks} set up by {@link #findRequiredBlocks()}.
+	 * <p>
+	 * If the stack and base level are the same as in the last frame that
+	 * made it into the LUT, the {@code FillTask}s of blocks that remain
+	 * visible at an unchanged best level are reused. Only blocks that
+	 * entered the frustum or changed their best level are resolved against
+	 * the cache again. Otherwise, everything is recomputed.
+	 *
+	 * @return list of {@code FillTask}s
+	 */
+	public List< FillTask > getFillTasksForRequiredBlocks()
+	{
+		return getFillTasks( requiredBlocks, baseLevel, canReusePreviousBlocks() );
+	}
+
+	/**
+	 * Whether {@link #previousBlocks} refer to the same stack and base level as the current frame.
+	 */
+	private boolean canReusePreviousBlocks()
+	{
+		return baseLevel == previousBaseLevel && multiResolutionStack.equals( previousStack );
+	}
+
+	/**
+	 * Get the {@code RequiredBlocks} set up by {@link #findRequiredBlocks()}.
+	 */
+	RequiredBlocks getRequiredBlocks()
+	{
+		return requiredBlocks;
+	}
+
+	/**
+	 * Get the coarsest available resolution level.
+	 */
+	int getMaxLevel()
+	{
+		return multiResolutionStack.resolutions().size() - 1;
+	}
+
+	/**
+	 * Whether coarse-to-fine loading is enabled, see {@link #setCoarseToFine(boolean)}.
+	 */
+	boolean isCoarseToFine()
+	{
+		return coarseToFine;
+	}
+
+	/**
+	 * Get the number of levels by which the block filled by {@code task} (as
+	 * returned by {@link #getFillTasksForRequiredBlocks()}) is finer than the
+	 * coarsest available resolution level.
+	 */
+	int getLevelsBelowMax( final FillTask task )
+	{
+		final ResolutionLevel3D< ? > resolution = ( ResolutionLevel3D< ? > ) task.getKey().image();
+		return getMaxLevel() - resolution.getLevel();
+	}
+
+	/**
+	 * Get the fraction of a cache tile at resolution {@code level} that is
+	 * covered by one block at {@link #baseLevel}. (Blocks at {@code baseLevel}
+	 * occupy one tile each, blocks at coarser levels share tiles.)
+	 */
+	float getTileFraction( final int level )
+	{
+		final int[] r = multiResolutionStack.resolutions().get( baseLevel ).getR();
+		final double[] sj = multiResolutionStack.resolutions().get( level ).getS();
+		return ( float ) ( sj[ 0 ] * r[ 0 ] * sj[ 1 ] * r[ 1 ] * sj[ 2 ] * r[ 2 ] );
+	}
+
+	/**
+	 * Get a key identifying the cache tile at resolution {@code level} that
+	 * contains the given {@code block} (at {@link #baseLevel}). Keys are only
+	 * unique for a given level.
+	 */
+	long getTileKey( final RequiredBlock block, final int level )
+	{
+		final int[] r = multiResolutionStack.resolutions().get( baseLevel ).getR();
+		final double[] sj = multiResolutionStack.resolutions().get( level ).getS();
+		final int[] g0 = block.getGridPos();
+		final int[] gj = new int[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+			gj[ d ] = ( int ) ( g0[ d ] * sj[ d ] * r[ d ] );
+		return gridKey( gj );
+	}
+
+	/**
+	 * Get the screen-space error of rendering the given {@code block} (at
+	 * {@link #baseLevel}) at each resolution level. The error is the
+	 * projected size of a voxel in pixels, weighted by the projected area of
+	 * the block in pixels.
+	 *
+	 * @param errors
+	 * 		array of length {@code maxLevel + 1} to store the error for each level.
+	 */
+	void getScreenSpaceErrors( final RequiredBlock block, final float[] errors )
+	{
+		final int[] r = multiResolutionStack.resolutions().get( baseLevel ).getR();
+		final int[] blockSize = cacheSpec.blockSize();
+		final int[] g0 = block.getGridPos();
+		final float sx = blockSize[ 0 ] * r[ 0 ];
+		final float sy = blockSize[ 1 ] * r[ 1 ];
+		final float sz = blockSize[ 2 ] * r[ 2 ];
+		final Vector3f blockMin = new Vector3f( g0[ 0 ] * sx, g0[ 1 ] * sy, g0[ 2 ] * sz );
+		final Vector3f blockMax = new Vector3f( blockMin ).add( sx, sy, sz );
+		sizes.getScreenSpaceErrors( blockMin, blockMax, errors );
+		// projected area of the block: base level voxel size in pixels times block size in voxels, squared
+		final float blockPixels = errors[ baseLevel ] * ( float ) Math.cbrt( blockSize[ 0 ] * blockSize[ 1 ] * blockSize[ 2 ] );
+		final Vector3f blockCenter = new Vector3f( blockMin ).add( blockMax ).mul( 0.5f );
+		final float weight = blockPixels * blockPixels * foveationErrorScale( blockCenter, new Vector3f() );
+		for ( int level = 0; level < errors.length; ++level )
+			errors[ level ] *= weight;
 	}
 
 	/**
@@ -183,36 +565,131 @@ public class VolumeBlocks
 	 */
 	public boolean makeLut( final int timestamp )
 	{
+		final int P = LookupPagePool.PAGE_SIZE;
 		final int[] rmin = requiredBlocks.getMin();
 		final int[] rmax = requiredBlocks.getMax();
-		lut.init( rmin, rmax, baseLevel );
+		final int[] pmin = new int[ 3 ];
+		final int[] pmax = new int[ 3 ];
+		if ( !requiredBlocks.getBlocks().isEmpty() )
+		{
+			for ( int d = 0; d < 3; ++d )
+			{
+				pmin[ d ] = Math.floorDiv( rmin[ d ], P );
+				pmax[ d ] = Math.floorDiv( rmax[ d ], P );
+			}
+		}
+		lut.init( pmin, pmax, baseLevel );
+		lutPages.init();
 
+		// find tile for each required block, and collect the blocks of each page
 		boolean complete = true;
 		final int maxLevel = multiResolutionStack.resolutions().size() - 1;
 		final int[] r = multiResolutionStack.resolutions().get( baseLevel ).getR();
 		final int[] gj = new int[ 3 ];
-		for ( RequiredBlock block : requiredBlocks.getBlocks() )
+		final List< RequiredBlock > blocks = requiredBlocks.getBlocks();
+		final int[] entries = new int[ 4 * blocks.size() ];
+		final HashMap< Long, LutPage > pages = new HashMap<>();
+		final int[] p0 = new int[ 3 ];
+		for ( int b = 0; b < blocks.size(); ++b )
 		{
+			final RequiredBlock block = blocks.get( b );
 			final int[] g0 = block.getGridPos();
+			// In coarse-to-fine mode, a coarser complete tile is preferred over an incomplete finer one.
+			TextureCache.Tile tile = null;
+			int tileLevel = -1;
 			for ( int level = block.getBestLevel(); level <= maxLevel; ++level )
 			{
 				final ResolutionLevel3D< ? > resolution = multiResolutionStack.resolutions().get( level );
 				final double[] sj = resolution.getS();
 				for ( int d = 0; d < 3; ++d )
 					gj[ d ] = ( int ) ( g0[ d ] * sj[ d ] * r[ d ] );
-				final TextureCache.Tile tile = textureCache.get( new ImageBlockKey<>( resolution, gj ) );
-				if ( tile != null )
+				final TextureCache.Tile t = textureCache.get( new ImageBlockKey<>( resolution, gj ) );
+				if ( t != null )
 				{
-					tile.useAtTimestamp( timestamp );
-					lut.putTile( g0, tile, level );
-					if ( level != block.getBestLevel() || tile.state() == TextureCache.ContentState.INCOMPLETE )
-						complete = false;
-					break;
+					if ( tile == null || t.state() == TextureCache.ContentState.COMPLETE )
+					{
+						tile = t;
+						tileLevel = level;
+					}
+					if ( !coarseToFine || t.state() == TextureCache.ContentState.COMPLETE )
+						break;
 				}
-				else if ( level == maxLevel )
+			}
+			if ( tile != null )
+			{
+				tile.useAtTimestamp( timestamp );
+				entries[ 4 * b ] = tile.x();
+				entries[ 4 * b + 1 ] = tile.y();
+				entries[ 4 * b + 2 ] = tile.z();
+				entries[ 4 * b + 3 ] = tileLevel - baseLevel + 1;
+				if ( tileLevel != block.getBestLevel() || tile.state() == TextureCache.ContentState.INCOMPLETE )
+					complete = false;
+			}
+			else
+				complete = false;
+
+			for ( int d = 0; d < 3; ++d )
+				p0[ d ] = Math.floorDiv( g0[ d ], P );
+			final Long pageKey = gridKey( p0 );
+			LutPage page = pages.get( pageKey );
+			if ( page == null )
+			{
+				page = new LutPage( p0.clone(), entries, 4 * b );
+				pages.put( pageKey, page );
+			}
+			page.add( entries, 4 * b );
+		}
+
+		// pages where all blocks map to the same tile go directly into the directory, the others into the page pool
+		for ( final Map.Entry< Long, LutPage > e : pages.entrySet() )
+		{
+			final LutPage page = e.getValue();
+			if ( page.isUniform() )
+				lut.put( page.pos, page.x, page.y, page.z, page.w );
+			else
+			{
+				page.slot = lutPages.getSlot( e.getKey() );
+				if ( page.slot >= 0 )
+					lut.put( page.pos, lutPages.slotX( page.slot ), lutPages.slotY( page.slot ), lutPages.slotZ( page.slot ), LookupPagePool.PAGE_MARKER );
+				else
+				{
+					// page pool is full: cover the page with a single coarser tile (if possible), and retry next frame
 					complete = false;
+					putCoveringTile( page.pos, r, maxLevel, timestamp );
+					if ( !warnedPagePoolFull )
+					{
+						System.err.println( "WARNING! LUT page pool is full or exceeds the GPU memory budget. Some regions are rendered at reduced resolution." );
+						warnedPagePoolFull = true;
+					}
+				}
+			}
+		}
+
+		final int[] pl = new int[ 3 ];
+		for ( int b = 0; b < blocks.size(); ++b )
+		{
+			final int[] g0 = blocks.get( b ).getGridPos();
+			for ( int d = 0; d < 3; ++d )
+				p0[ d ] = Math.floorDiv( g0[ d ], P );
+			final LutPage page = pages.get( gridKey( p0 ) );
+			if ( page.slot >= 0 )
+			{
+				for ( int d = 0; d < 3; ++d )
+					pl[ d ] = g0[ d ] - p0[ d ] * P;
+				lutPages.put( page.slot, pl, entries[ 4 * b ], entries[ 4 * b + 1 ], entries[ 4 * b + 2 ], entries[ 4 * b + 3 ] );
 			}
 		}
+
+		lut.finishUpdate();
+		lutPages.finishUpdate();
+
+		final HashMap< Long, BlockState > tmp = previousBlocks;
+		previousBlocks = currentBlocks;
+		currentBlocks = tmp;
+		currentBlocks.clear();
+		previousStack = multiResolutionStack;
+		previousBaseLevel = baseLevel;
+
 		return complete;
 	}
 
@@ -259,7 +736,9 @@ public class VolumeBlocks
 	{
 		final Interval lbb = multiResolutionStack.resolutions().get( baseLevel ).getImage();
 		final Vector3f sourceLevelMin = new Vector3f( lbb.min( 0 ), lbb.min( 1 ), lbb.min( 2 ) );
-		return sourceLevelMin;
+		final Vector3f cropMin = new Vector3f( Float.NEGATIVE_INFINITY );
+		getLevelCropBox( baseLevel, cropMin, new Vector3f() );
+		return sourceLevelMin.max( cropMin );
 	}
 
 	// TODO: revise / remove
@@ -267,17 +746,80 @@ public class VolumeBlocks
 	{
 		final Interval lbb = multiResolutionStack.resolutions().get( baseLevel ).getImage();
 		final Vector3f sourceLevelMax = new Vector3f( lbb.max( 0 ), lbb.max( 1 ), lbb.max( 2 ) );
-		return sourceLevelMax;
+		final Vector3f cropMax = new Vector3f( Float.POSITIVE_INFINITY );
+		getLevelCropBox( baseLevel, new Vector3f(), cropMax );
+		return sourceLevelMax.min( cropMax );
 	}
 
-	public LookupTextureARGB getLookupTexture()
+	/**
+	 * Get clip planes for the shader, in coordinates of {@code baseLevel}.
+	 * Planes are homogeneous vectors {@code p}, such that point {@code x} is
+	 * inside if {@code dot(p, (x,1)) >= 0}. Unused planes are filled with {@code
+	 * (0,0,0,1)}, which is always inside.
+	 *
+	 * @param NUM_CLIP_PLANES
+	 * 		number of planes in the shader. Crop box faces are not included, so
+	 * 		only the planes beyond that are used.
+	 */
+	public float[][] getClipPlanes( final int NUM_CLIP_PLANES )
 	{
-		return lut;
+		final float[][] planes = new float[ NUM_CLIP_PLANES ][];
+		final List< Vector4f > levelPlanes = getLevelClipPlanes( baseLevel );
+		final int first = cropBox == null ? 0 : 6; // crop box is handled as bounding box
+		final int n = Math.min( NUM_CLIP_PLANES, levelPlanes.size() - first );
+		for ( int i = 0; i < n; ++i )
+		{
+			final Vector4f p = levelPlanes.get( first + i );
+			planes[ i ] = new float[] { p.x(), p.y(), p.z(), p.w() };
+		}
+		for ( int i = Math.max( n, 0 ); i < NUM_CLIP_PLANES; ++i )
+			planes[ i ] = new float[] { 0, 0, 0, 1 };
+		return planes;
 	}
 
+	/**
+	 * Transform {@link #clipPlanes} to coordinates of the given resolution
+	 * {@code level}, as homogeneous vectors {@code p}, such that point {@code
+	 * x} is inside if {@code dot(p, (x,1)) >= 0}.
+	 */
+	private List< Vector4f > getLevelClipPlanes( final int level )
+	{
+		final Matrix4f T = getUpscale( level ).transpose();
+		final List< Vector4f > planes = new ArrayList<>();
+		for ( final HyperPlane plane : clipPlanes )
+			planes.add( MatrixMath.homogPlane( plane ).mul( T ).normalize3() );
+		return planes;
+	}
 
+	/**
+	 * Transform {@link #cropBox} to coordinates of the given resolution
+	 * {@code level}. If there is no crop box, {@code min} and {@code max} are
+	 * not modified.
+	 */
+	private void getLevelCropBox( final int level, final Vector3f min, final Vector3f max )
+	{
+		if ( cropBox == null )
+			return;
+		final Matrix4f sourceToLevel = getUpscale( level ).invert();
+		sourceToLevel.transformPosition( ( float ) cropBox.realMin( 0 ), ( float ) cropBox.realMin( 1 ), ( float ) cropBox.realMin( 2 ), min );
+		sourceToLevel.transformPosition( ( float ) cropBox.realMax( 0 ), ( float ) cropBox.realMax( 1 ), ( float ) cropBox.realMax( 2 ), max );
+	}
 
+	/**
+	 * Get the directory level of the block lut.
+	 */
+	public LookupTextureARGB getLookupTexture()
+	{
+		return lut;
+	}
 
+	/**
+	 * Get the page level of the block lut.
+	 */
+	public LookupPagePool getLookupPages()
+	{
+		return lutPages;
+	}
 
 	/**
 	 * Get visible blocks in grid coordinates of {@code baseLevel} resolution.
@@ -288,7 +830,10 @@ public class VolumeBlocks
 		final long[] gridMin = new long[ 3 ];
 		final long[] gridMax = new long[ 3 ];
 		getGridMinMax( baseLevel, gridMin, gridMax );
-		return FindRequiredBlocks.getRequiredLevelBlocksFrustum( pvms, cacheSpec.blockSize(), gridMin, gridMax );
+		final List< HyperPlane > levelClipPlanes = new ArrayList<>();
+		for ( final Vector4f plane : getLevelClipPlanes( baseLevel ) )
+			levelClipPlanes.add( MatrixMath.hyperPlane( plane ) );
+		return FindRequiredBlocks.getRequiredLevelBlocksFrustum( pvms, cacheSpec.blockSize(), gridMin, gridMax, levelClipPlanes );
 	}
 
 	/**
@@ -296,9 +841,29 @@ public class VolumeBlocks
 	 * Block coordinates are grid coordinates of {@code baseLevel} resolution
 	 * Best resolution is capped at {@code minLevel}.
 	 * ({@code minLevel <= bestLevel})
+	 * <p>
+	 * If {@code incremental}, blocks that are already present in the cache at
+	 * an acceptable level (see {@link #setLodHysteresis}) keep that level.
+	 * <p>
+	 * If {@code requiredBlocks} are the same as in the last call (and the LOD
+	 * settings did not change), the levels chosen in the last call are reused
+	 * for blocks whose resident level is unchanged.
 	 */
-	private void assignBestLevels( final RequiredBlocks requiredBlocks, final int baseLevel, final int minLevel )
+	private void assignBestLevels( final RequiredBlocks requiredBlocks, final int baseLevel, final int minLevel, final boolean incremental )
 	{
+		final boolean reuseLevels = requiredBlocks == levelChoicesBlocks
+				&& viewportWidth == levelChoicesViewportWidth
+				&& viewportHeight == levelChoicesViewportHeight
+				&& lodHysteresis == levelChoicesHysteresis
+				&& foveation == levelChoicesFoveation;
+		final HashMap< Long, LevelChoice > previousChoices = reuseLevels ? levelChoices : new HashMap<>();
+		levelChoices = new HashMap<>();
+		levelChoicesBlocks = requiredBlocks;
+		levelChoicesViewportWidth = viewportWidth;
+		levelChoicesViewportHeight = viewportHeight;
+		levelChoicesHysteresis = lodHysteresis;
+		levelChoicesFoveation = foveation;
+
 		final int[] r = multiResolutionStack.resolutions().get( baseLevel ).getR();
 		final int[] blockSize = cacheSpec.blockSize();
 		final int[] scale = new int[] {
@@ -306,31 +871,113 @@ public class VolumeBlocks
 				blockSize[ 1 ] * r[ 1 ],
 				blockSize[ 2 ] * r[ 2 ]
 		};
+		final Vector3f blockMin = new Vector3f();
+		final Vector3f blockMax = new Vector3f();
 		final Vector3f blockCenter = new Vector3f();
 		final Vector3f tmp = new Vector3f();
+		final float[] errors = new float[ multiResolutionStack.resolutions().size() ];
 		for ( final RequiredBlock block : requiredBlocks.getBlocks() )
 		{
 			final int[] g0 = block.getGridPos();
-			blockCenter.set(
-					( g0[ 0 ] + 0.5f ) * scale[ 0 ],
-					( g0[ 1 ] + 0.5f ) * scale[ 1 ],
-					( g0[ 2 ] + 0.5f ) * scale[ 2 ] );
-			final int bestLevel = Math.max( minLevel, sizes.bestLevel( blockCenter, tmp ) );
+			final Long gridKey = gridKey( g0 );
+			final int previousLevel = incremental ? residentLevel( gridKey ) : -1;
+			final LevelChoice previous = previousChoices.get( gridKey );
+			if ( previous != null && previous.residentLevel == previousLevel )
+			{
+				block.setBestLevel( previous.bestLevel );
+				levelChoices.put( gridKey, previous );
+				continue;
+			}
+			blockMin.set(
+					g0[ 0 ] * scale[ 0 ],
+					g0[ 1 ] * scale[ 1 ],
+					g0[ 2 ] * scale[ 2 ] );
+			blockMax.set(
+					( g0[ 0 ] + 1 ) * scale[ 0 ],
+					( g0[ 1 ] + 1 ) * scale[ 1 ],
+					( g0[ 2 ] + 1 ) * scale[ 2 ] );
+			blockMin.add( blockMax, blockCenter ).mul( 0.5f );
+			final float errorScale = foveationErrorScale( blockCenter, tmp );
+			final int bestLevel = Math.max( minLevel, sizes.bestLevel( blockMin, blockMax, previousLevel, lodHysteresis, errorScale, errors ) );
 			block.setBestLevel( bestLevel );
+			levelChoices.put( gridKey, new LevelChoice( previousLevel, bestLevel ) );
 		}
 	}
 
-	private List< FillTask > getFillTasks( final RequiredBlocks requiredBlocks, final int baseLevel )
+	/**
+	 * Get the level at which the block with the given {@link #gridKey(int[])
+	 * grid key} was used in the previous frame, if that block is still
+	 * completely present in the cache. Otherwise, return {@code -1}.
+	 */
+	private int residentLevel( final Long gridKey )
+	{
+		final BlockState previous = previousBlocks.get( gridKey );
+		if ( previous == null )
+			return -1;
+		final TextureCache.Tile tile = textureCache.get( previous.key );
+		if ( tile == null || tile.state() != TextureCache.ContentState.COMPLETE )
+			return -1;
+		return previous.level;
+	}
+
+	/**
+	 * @param incremental
+	 * 		whether {@link #previousBlocks} refer to the same stack and {@code baseLevel}, so that their {@code FillTask}s can be reused.
+	 * <p>
+	 * In {@link #setCoarseToFine(boolean) coarse-to-fine} mode, each block
+	 * additionally gets a task for the coarsest level tile covering it, and
+	 * blocks are requested at most one level finer than what is already
+	 * complete in the cache. The returned tasks are ordered from coarse to fine.
+	 */
+	private List< FillTask > getFillTasks( final RequiredBlocks requiredBlocks, final int baseLevel, final boolean incremental )
 	{
 		final int maxLevel = multiResolutionStack.resolutions().size() - 1;
 		final int[] r = multiResolutionStack.resolutions().get( baseLevel ).getR();
-		final HashSet< ImageBlockKey< ? > > existingKeys = new HashSet<>();
+		final HashMap< ImageBlockKey< ? >, FillTask > existingKeys = new HashMap<>();
 		final List< FillTask > fillTasks = new ArrayList<>();
+		final List< List< FillTask > > tasksByLevel = new ArrayList<>();
+		if ( coarseToFine )
+			for ( int level = 0; level <= maxLevel; ++level )
+				tasksByLevel.add( new ArrayList<>() );
 		final int[] gj = new int[ 3 ];
+		currentBlocks.clear();
 		for ( RequiredBlock block : requiredBlocks.getBlocks() )
 		{
 			final int[] g0 = block.getGridPos();
-			for ( int level = block.getBestLevel(); level <= maxLevel; ++level )
+			final Long gridKey = gridKey( g0 );
+			final int bestLevel = block.getBestLevel();
+
+			if ( incremental )
+			{
+				// If the block was already present at its best level in the
+				// previous frame, the choice of level cannot improve.
+				final BlockState previous = previousBlocks.get( gridKey );
+				if ( previous != null && previous.bestLevel == bestLevel && previous.level == bestLevel )
+				{
+					if ( existingKeys.get( previous.key ) == null )
+					{
+						existingKeys.put( previous.key, previous.task );
+						( coarseToFine ? tasksByLevel.get( previous.level ) : fillTasks ).add( previous.task );
+					}
+					currentBlocks.put( gridKey, previous );
+					continue;
+				}
+			}
+
+			int startLevel = bestLevel;
+			if ( coarseToFine )
+			{
+				final ImageBlockKey< ResolutionLevel3D< ? > > coverageKey = getImageBlockKey( g0, r, maxLevel, gj );
+				if ( !existingKeys.containsKey( coverageKey ) )
+				{
+					final FillTask task = new DefaultFillTask( coverageKey, buf -> loadTile( coverageKey, buf ), () -> containsData( coverageKey ) );
+					existingKeys.put( coverageKey, task );
+					tasksByLevel.get( maxLevel ).add( task );
+				}
+				startLevel = getRefinementLevel( g0, r, bestLevel, maxLevel, gj );
+			}
+
+			for ( int level = startLevel; level <= maxLevel; ++level )
 			{
 				final ResolutionLevel3D< ? > resolution = multiResolutionStack.resolutions().get( level );
 				final double[] sj = resolution.getS();
@@ -338,24 +985,172 @@ public class VolumeBlocks
 					gj[ d ] = ( int ) ( g0[ d ] * sj[ d ] * r[ d ] );
 
 				final ImageBlockKey< ResolutionLevel3D< ? > > key = new ImageBlockKey<>( resolution, gj );
-				if ( !existingKeys.contains( key ) )
+				if ( !existingKeys.containsKey( key ) )
 				{
-					existingKeys.add( key );
 					final TextureCache.Tile tile = textureCache.get( key );
 					if ( tile != null || canLoadCompletely( key ) || level == maxLevel )
 					{
-						fillTasks.add( new DefaultFillTask( key, buf -> loadTile( key, buf ), () -> containsData( key ) ) );
+						final FillTask task = new DefaultFillTask( key, buf -> loadTile( key, buf ), () -> containsData( key ) );
+						existingKeys.put( key, task );
+						( coarseToFine ? tasksByLevel.get( level ) : fillTasks ).add( task );
+						currentBlocks.put( gridKey, new BlockState( bestLevel, level, key, task ) );
 						break;
 					}
+					existingKeys.put( key, null );
 				}
 				else
+				{
+					final FillTask existingTask = existingKeys.get( key );
+					if ( existingTask != null )
+						currentBlocks.put( gridKey, new BlockState( bestLevel, level, key, existingTask ) );
 					break; // TODO: is this always ok?
+				}
 			}
 		}
 
+		if ( coarseToFine )
+			for ( int level = maxLevel; level >= 0; --level )
+				fillTasks.addAll( tasksByLevel.get( level ) );
+
 		return fillTasks;
 	}
 
+	/**
+	 * For coarse-to-fine loading, get the level at which the block at
+	 * {@code g0} should be requested in this frame: One level finer than the
+	 * finest level at which the block is completely present in the cache (but
+	 * not finer than {@code bestLevel}), or {@code maxLevel} if it is not
+	 * completely present at any level.
+	 */
+	private int getRefinementLevel( final int[] g0, final int[] r, final int bestLevel, final int maxLevel, final int[] gj )
+	{
+		for ( int level = bestLevel; level <= maxLevel; ++level )
+		{
+			final TextureCache.Tile tile = textureCache.get( getImageBlockKey( g0, r, level, gj ) );
+			if ( tile != null && tile.state() == TextureCache.ContentState.COMPLETE )
+				return Math.max( bestLevel, level - 1 );
+		}
+		return maxLevel;
+	}
+
+	/**
+	 * Get the key of the tile at resolution {@code level} that contains the
+	 * block at {@code baseLevel} grid position {@code g0}.
+	 *
+	 * @param r
+	 * 		resolution of {@code baseLevel}
+	 * @param gj
+	 * 		temporary array, will be modified
+	 */
+	private ImageBlockKey< ResolutionLevel3D< ? > > getImageBlockKey( final int[] g0, final int[] r, final int level, final int[] gj )
+	{
+		final ResolutionLevel3D< ? > resolution = multiResolutionStack.resolutions().get( level );
+		final double[] sj = resolution.getS();
+		for ( int d = 0; d < 3; ++d )
+			gj[ d ] = ( int ) ( g0[ d ] * sj[ d ] * r[ d ] );
+		return new ImageBlockKey<>( resolution, gj );
+	}
+
+	/**
+	 * Put a uniform directory entry for the page at {@code pagePos}, using the
+	 * finest tile in the cache that covers all blocks of the page. If there is
+	 * no such tile, the page is left empty.
+	 *
+	 * @param r
+	 * 		resolution of {@code baseLevel}
+	 */
+	private void putCoveringTile( final int[] pagePos, final int[] r, final int maxLevel, final int timestamp )
+	{
+		final int P = LookupPagePool.PAGE_SIZE;
+		final int[] gmin = new int[ 3 ];
+		final int[] gmax = new int[ 3 ];
+		for ( int level = baseLevel; level <= maxLevel; ++level )
+		{
+			final ResolutionLevel3D< ? > resolution = multiResolutionStack.resolutions().get( level );
+			final double[] sj = resolution.getS();
+			boolean common = true;
+			for ( int d = 0; d < 3; ++d )
+			{
+				gmin[ d ] = ( int ) ( pagePos[ d ] * P * sj[ d ] * r[ d ] );
+				gmax[ d ] = ( int ) ( ( pagePos[ d ] * P + P - 1 ) * sj[ d ] * r[ d ] );
+				common &= gmin[ d ] == gmax[ d ];
+			}
+			if ( !common )
+				continue;
+			final TextureCache.Tile tile = textureCache.get( new ImageBlockKey<>( resolution, gmin ) );
+			if ( tile != null )
+			{
+				tile.useAtTimestamp( timestamp );
+				lut.put( pagePos, tile.x(), tile.y(), tile.z(), level - baseLevel + 1 );
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Collects the lut entries of the required blocks in one page of the
+	 * two-level lut.
+	 */
+	private static class LutPage
+	{
+		/**
+		 * page grid position (source grid position divided by {@code PAGE_SIZE})
+		 */
+		final int[] pos;
+
+		/**
+		 * entry of the first block in the page
+		 */
+		final int x, y, z, w;
+
+		int numBlocks;
+
+		boolean allEqual = true;
+
+		/**
+		 * slot in the {@link LookupPagePool}, or -1 if the page is not in the pool
+		 */
+		int slot = -1;
+
+		LutPage( final int[] pos, final int[] entries, final int o )
+		{
+			this.pos = pos;
+			x = entries[ o ];
+			y = entries[ o + 1 ];
+			z = entries[ o + 2 ];
+			w = entries[ o + 3 ];
+		}
+
+		void add( final int[] entries, final int o )
+		{
+			++numBlocks;
+			if ( allEqual )
+				allEqual = entries[ o ] == x && entries[ o + 1 ] == y && entries[ o + 2 ] == z && entries[ o + 3 ] == w;
+		}
+
+		/**
+		 * Whether the whole page can be represented by a single directory
+		 * entry. This is the case if all blocks in the page are required and
+		 * map to the same tile, or if none of the required blocks map to a
+		 * tile (then the page is the same as an empty directory entry).
+		 */
+		boolean isUniform()
+		{
+			final int P = LookupPagePool.PAGE_SIZE;
+			return allEqual && ( numBlocks == P * P * P || ( x == 0 && y == 0 && z == 0 && w == 0 ) );
+		}
+	}
+
+	/**
+	 * Pack (non-negative) grid coordinates into a {@code long} key, using 21 bits per dimension.
+	 */
+	private static Long gridKey( final int[] g )
+	{
+		return ( ( long ) g[ 0 ] & 0x1fffff )
+				| ( ( ( long ) g[ 1 ] & 0x1fffff ) << 21 )
+				| ( ( ( long ) g[ 2 ] & 0x1fffff ) << 42 );
+	}
+
 	private boolean canLoadCompletely( final ImageBlockKey< ResolutionLevel3D< ? > > key )
 	{
 		return tileAccess.get( key.image(), cacheSpec ).canLoadCompletely( key.pos(), false );
@@ -398,10 +1193,13 @@ public class VolumeBlocks
 		final Vector3f fbbmin = new Vector3f();
 		final Vector3f fbbmax = new Vector3f();
 		ipvms.frustumAabb( fbbmin, fbbmax );
+		final Vector3f cropMin = new Vector3f( Float.NEGATIVE_INFINITY );
+		final Vector3f cropMax = new Vector3f( Float.POSITIVE_INFINITY );
+		getLevelCropBox( level, cropMin, cropMax );
 		for ( int d = 0; d < 3; ++d )
 		{
-			final float lbbmin = lbb.min( d ); // TODO -0.5 offset?
-			final float lbbmax = lbb.max( d ); // TODO -0.5 offset?
+			final float lbbmin = Math.max( lbb.min( d ), cropMin.get( d ) ); // TODO -0.5 offset?
+			final float lbbmax = Math.min( lbb.max( d ), cropMax.get( d ) ); // TODO -0.5 offset?
 			gridMin[ d ] = ( long ) ( Math.max( fbbmin.get( d ), lbbmin ) / cacheSpec.blockSize()[ d ] );
 			gridMax[ d ] = ( long ) ( Math.min( fbbmax.get( d ), lbbmax ) / cacheSpec.blockSize()[ d ] );
 		}
@@ -39,14 +39,12 @@ import static bvv.core.render.VolumeRenderer.RepaintType.DITHER;
 import static bvv.core.render.VolumeRenderer.RepaintType.FULL;
 import static bvv.core.render.VolumeRenderer.RepaintType.LOAD;
 import static bvv.core.render.VolumeRenderer.RepaintType.NONE;
-import static bvv.core.render.VolumeShaderSignature.PixelType.ARGB;
-import static bvv.core.render.VolumeShaderSignature.PixelType.UBYTE;
-import static bvv.core.render.VolumeShaderSignature.PixelType.USHORT;
 import static bvv.core.multires.SourceStacks.SourceStackType.MULTIRESOLUTION;
 import static bvv.core.multires.SourceStacks.SourceStackType.SIMPLE;
 
 import bvv.core.cache.CacheSpec;
 import bvv.core.cache.FillTask;
+import bvv.core.cache.ImageBlockKey;
 import bvv.core.cache.ProcessFillTasks;
 import bvv.core.cache.TextureCache;
 import bvv.core.util.DefaultQuad;
@@ -54,23 +52,29 @@ import com.jogamp.opengl.GL3;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
-import net.imglib2.type.numeric.ARGBType;
-import net.imglib2.type.numeric.integer.UnsignedByteType;
-import net.imglib2.type.numeric.integer.UnsignedShortType;
 import org.joml.Matrix4f;
 
 import bdv.tools.brightness.ConverterSetup;
+import bvv.core.backend.GpuMemory;
+import bvv.core.backend.Texture.InternalFormat;
 import bvv.core.backend.jogl.JoglGpuContext;
 import bvv.core.blocks.TileAccess;
 import bvv.core.cache.PboChain;
 import bvv.core.dither.DitherBuffer;
 import bvv.core.render.VolumeShaderSignature.VolumeSignature;
 import bvv.core.multires.MultiResolutionStack3D;
+import bvv.core.multires.ResolutionLevel3D;
 import bvv.core.multires.SimpleStack3D;
 import bvv.core.multires.Stack3D;
 import bvv.core.offscreen.OffScreenFrameBufferWithDepth;
@@ -133,33 +137,93 @@ public class VolumeRenderer
 
 	// ... gpu cache ...
 	// TODO This could be packaged into one class and potentially shared between renderers?
-	private final CacheSpec cacheSpec; // TODO remove
+	/**
+	 * A {@code TextureCache} for one texture format, with the {@code PboChain}
+	 * for uploading to it, and the {@code VolumeBlocks} of the volumes stored
+	 * in it.
+	 */
+	private static class BlockCache
+	{
+		final TextureCache textureCache;
+
+		final PboChain pboChain;
+
+		/**
+		 * VolumeBlocks for one volume each.
+		 * These have associated lookup textures, so we keep them around and reuse them so that we do not create new textures all the time.
+		 * And deleting textures is not yet in the backend... (TODO)
+		 */
+		final ArrayList< VolumeBlocks > volumes = new ArrayList<>();
+
+		BlockCache( final CacheSpec cacheSpec, final int maxCacheSizeInMB )
+		{
+			final int[] cacheGridDimensions = TextureCache.findSuitableGridSize( cacheSpec, maxCacheSizeInMB );
+			textureCache = new TextureCache( cacheGridDimensions, cacheSpec );
+			pboChain = new PboChain( 5, 100, textureCache );
+		}
+	}
+
+	/**
+	 * One {@code BlockCache} for each format of multi-resolution volumes
+	 * (see {@link VolumeShaderSignature.PixelType#getFormat()}). The {@code
+	 * R16} cache is always present, the others are created when first needed.
+	 */
+	private final Map< InternalFormat, BlockCache > blockCaches;
 
-	private final TextureCache textureCache;
+	private final int[] cacheBlockSize;
 
-	private final PboChain pboChain;
+	private final int maxCacheSizeInMB;
 
 	private final ForkJoinPool forkJoinPool;
 
 	/**
-	 * Shader programs for rendering multiple cached and/or simple volumes.
+	 * {@code TileAccess}es for {@link #prefetch(TextureCache, List)} on the rendering thread.
 	 */
-	private final HashMap< VolumeShaderSignature, MultiVolumeShaderMip > progvols;
+	private final TileAccess.Cache prefetchAccess = new TileAccess.Cache();
 
 	/**
-	 * VolumeBlocks for one volume each.
-	 * These have associated lookup textures, so we keep them around and reuse them so that we do not create new textures all the time.
-	 * And deleting textures is not yet in the backend... (TODO)
+	 * Shader programs for rendering multiple cached and/or simple volumes.
 	 */
-	private final ArrayList< VolumeBlocks > volumes;
+	private final HashMap< VolumeShaderSignature, MultiVolumeShaderMip > progvols;
 
 	/**
 	 * provides SimpleVolumes for SimpleStacks.
 	 */
-	private final SimpleStackManager simpleStackManager = new DefaultSimpleStackManager();
+	private final DefaultSimpleStackManager simpleStackManager;
 
 	private final DefaultQuad quad;
 
+	/**
+	 * Tolerance (in octaves) for keeping blocks at the resolution level at which they are already cached.
+	 */
+	private double lodHysteresis = 0;
+
+	/**
+	 * Focus region for foveated level of detail, or {@code null}.
+	 */
+	private Foveation foveation;
+
+	/**
+	 * Whether to load blocks coarse-to-fine.
+	 */
+	private boolean coarseToFine = false;
+
+	/**
+	 * Aggregates compatible tiles into mosaics, or {@code null} if mosaic mode is disabled.
+	 */
+	private MosaicGrouping mosaicGrouping = null;
+
+	/**
+	 * Shaders are generated for a multiple of this many volumes of each kind.
+	 */
+	private int numVolumeSlots = 4;
+
+	/**
+	 * Budget for GPU memory in bytes, {@code 0} means no limit.
+	 */
+	private final long gpuMemoryBudget;
+
+	private static final long MB = 1024 * 1024;
 
 
 
@@ -172,17 +236,47 @@ public class VolumeRenderer
 			final int[] cacheBlockSize,
 			final int maxCacheSizeInMB )
 	{
+		this( renderWidth, renderHeight, ditherWidth, ditherStep, numDitherSamples, cacheBlockSize, maxCacheSizeInMB, 0 );
+	}
+
+	/**
+	 * @param gpuMemoryBudget
+	 * 		budget for GPU memory held by the renderer (texture caches, lookup
+	 * 		textures, simple volumes, framebuffers, staging buffers) in bytes,
+	 * 		{@code 0} means no limit. Texture caches and lookup page pools are
+	 * 		sized to stay within the budget. See {@link GpuMemory}.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code maxCacheSizeInMB} exceeds the GPU memory budget.
+	 */
+	public VolumeRenderer(
+			final int renderWidth,
+			final int renderHeight,
+			final int ditherWidth,
+			final int ditherStep,
+			final int numDitherSamples,
+			final int[] cacheBlockSize,
+			final int maxCacheSizeInMB,
+			final long gpuMemoryBudget )
+	{
+		if ( gpuMemoryBudget > 0 && MB * maxCacheSizeInMB > gpuMemoryBudget )
+			throw new IllegalArgumentException( String.format(
+					"maxCacheSizeInMB (%d) exceeds the GPU memory budget (%d MB)",
+					maxCacheSizeInMB, gpuMemoryBudget / MB ) );
+
 		this.renderWidth = renderWidth;
 		this.renderHeight = renderHeight;
 
 		// set up gpu cache
 		// TODO This could be packaged into one class and potentially shared between renderers?
-		cacheSpec = new CacheSpec( R16, cacheBlockSize );
-		final int[] cacheGridDimensions = TextureCache.findSuitableGridSize( cacheSpec, maxCacheSizeInMB );
-		textureCache = new TextureCache( cacheGridDimensions, cacheSpec );
-		pboChain = new PboChain( 5, 100, textureCache );
+		this.cacheBlockSize = cacheBlockSize;
+		this.maxCacheSizeInMB = maxCacheSizeInMB;
+		this.gpuMemoryBudget = gpuMemoryBudget;
+		blockCaches = new EnumMap<>( InternalFormat.class );
+		getBlockCache( R16 );
 		final int parallelism = Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 );
 		forkJoinPool = new ForkJoinPool( parallelism );
+		simpleStackManager = new DefaultSimpleStackManager( forkJoinPool );
 
 
 
@@ -199,29 +293,153 @@ public class VolumeRenderer
 		}
 
 
-		volumes = new ArrayList<>();
 		progvols = new HashMap<>();
 		progvols.put( new VolumeShaderSignature( Collections.emptyList() ), null );
 		quad = new DefaultQuad();
 	}
 
 	/**
-	 * Make sure that we can deal with at least {@code n} blocked volumes.
-	 * I.e., add VolumeBlock luts if necessary.
+	 * Get the {@code BlockCache} for the given format, creating it if
+	 * necessary. Each cache is sized to {@code maxCacheSizeInMB}, but at
+	 * most half of the GPU memory budget not taken by the other caches.
+	 */
+	private BlockCache getBlockCache( final InternalFormat format )
+	{
+		return blockCaches.computeIfAbsent( format, f -> new BlockCache( new CacheSpec( f, cacheBlockSize ), cacheSizeInMB() ) );
+	}
+
+	private int cacheSizeInMB()
+	{
+		if ( gpuMemoryBudget <= 0 )
+			return maxCacheSizeInMB;
+		long available = gpuMemoryBudget;
+		for ( final BlockCache cache : blockCaches.values() )
+		{
+			final TextureCache t = cache.textureCache;
+			available -= ( long ) t.texWidth() * t.texHeight() * t.texDepth() * t.texInternalFormat().getBytesPerElement();
+		}
+		return ( int ) Math.max( 1, Math.min( maxCacheSizeInMB, available / 2 / MB ) );
+	}
+
+	/**
+	 * Make sure that we can deal with at least {@code n} blocked volumes in
+	 * {@code cache}. I.e., add VolumeBlock luts if necessary.
 	 *
 	 * @param n
 	 * 		number of blocked volumes that shall be rendered
 	 */
-	private void needAtLeastNumBlockVolumes( final int n )
+	private void needAtLeastNumBlockVolumes( final BlockCache cache, final int n )
+	{
+		while ( cache.volumes.size() < n )
+		{
+			final VolumeBlocks volume = new VolumeBlocks( cache.textureCache );
+			volume.setLodHysteresis( lodHysteresis );
+			volume.setFoveation( foveation );
+			volume.setCoarseToFine( coarseToFine );
+			cache.volumes.add( volume );
+		}
+	}
+
+	private void forAllVolumeBlocks( final Consumer< VolumeBlocks > action )
+	{
+		blockCaches.values().forEach( cache -> cache.volumes.forEach( action ) );
+	}
+
+	/**
+	 * Set the tolerance for keeping blocks at the resolution level at which
+	 * they are already present in the cache. See {@link VolumeBlocks#setLodHysteresis(double)}.
+	 *
+	 * @param hysteresis
+	 * 		tolerance in octaves. {@code 0} means that always the best level is chosen.
+	 */
+	public void setLodHysteresis( final double hysteresis )
+	{
+		lodHysteresis = hysteresis;
+		forAllVolumeBlocks( volume -> volume.setLodHysteresis( hysteresis ) );
+	}
+
+	/**
+	 * Set the focus region for foveated level of detail. Away from the focus
+	 * point, blocks are rendered at coarser resolution levels, so that cache
+	 * and upload budget go into the focus region.
+	 *
+	 * @param foveation
+	 * 		the focus region, or {@code null} to use the best level everywhere.
+	 */
+	public void setFoveation( final Foveation foveation )
+	{
+		this.foveation = foveation;
+		forAllVolumeBlocks( volume -> volume.setFoveation( foveation ) );
+	}
+
+	/**
+	 * Enable coarse-to-fine loading: Make sure that the view is covered by
+	 * low-resolution blocks first, then refine level by level. See {@link
+	 * VolumeBlocks#setCoarseToFine(boolean)}.
+	 */
+	public void setCoarseToFine( final boolean coarseToFine )
+	{
+		this.coarseToFine = coarseToFine;
+		forAllVolumeBlocks( volume -> volume.setCoarseToFine( coarseToFine ) );
+	}
+
+	/**
+	 * Enable mosaic mode: Multi-resolution stacks that differ only by a
+	 * translation (e.g., stitched tiles) and have the same pixel type and
+	 * converter settings are rendered as one {@link
+	 * bvv.core.multires.MosaicStack3D MosaicStack3D}. This keeps the size of
+	 * the generated shader and the per-sample cost independent of the number
+	 * of tiles.
+	 */
+	public void setMosaic( final boolean mosaic )
+	{
+		if ( mosaic != ( mosaicGrouping != null ) )
+			mosaicGrouping = mosaic ? new MosaicGrouping() : null;
+	}
+
+	/**
+	 * Set the granularity of generated shaders: The number of volume slots of
+	 * each kind (multi-resolution, simple of each pixel type) is rounded up to
+	 * a multiple of {@code numVolumeSlots}, and unused slots are set to empty
+	 * volumes. Showing or hiding sources then only requires a new shader when
+	 * a rounded count changes. See {@link VolumeShaderSignature#padded}.
+	 *
+	 * @param numVolumeSlots
+	 * 		granularity of volume slots, {@code 1} compiles a dedicated shader for each combination of visible sources.
+	 */
+	public void setNumVolumeSlots( final int numVolumeSlots )
+	{
+		if ( numVolumeSlots < 1 )
+			throw new IllegalArgumentException();
+		this.numVolumeSlots = numVolumeSlots;
+	}
+
+	/**
+	 * Set the budget for textures of simple (non-multi-resolution) volumes.
+	 * See {@link DefaultSimpleStackManager#setMaxBytes}.
+	 *
+	 * @param bytes
+	 * 		budget in bytes, {@code 0} means no limit.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code bytes} exceeds the GPU memory budget.
+	 */
+	public void setSimpleVolumeBudget( final long bytes )
 	{
-		while ( volumes.size() < n )
-			volumes.add( new VolumeBlocks( textureCache ) );
+		if ( gpuMemoryBudget > 0 && bytes > gpuMemoryBudget )
+			throw new IllegalArgumentException( String.format(
+					"simple volume budget (%d MB) exceeds the GPU memory budget (%d MB)",
+					bytes / MB, gpuMemoryBudget / MB ) );
+		simpleStackManager.setMaxBytes( bytes );
 	}
 
 	private MultiVolumeShaderMip createMultiVolumeShader( final VolumeShaderSignature signature )
 	{
 		final MultiVolumeShaderMip progvol = new MultiVolumeShaderMip( signature, true, 1.0 );
-		progvol.setTextureCache( textureCache );
+		progvol.setTextureCache( getBlockCache( R16 ).textureCache );
+		for ( final VolumeSignature volumeSignature : signature.getVolumeSignatures() )
+			if ( volumeSignature.getSourceStackType() == MULTIRESOLUTION )
+				progvol.setTextureCache( getBlockCache( volumeSignature.getPixelType().getFormat() ).textureCache );
 		return progvol;
 	}
 
@@ -247,6 +465,9 @@ public class VolumeRenderer
 	{
 		final long maxRenderNanoTime = System.nanoTime() + 1_000_000L * maxRenderMillis;
 		final JoglGpuContext context = JoglGpuContext.get( gl );
+		context.invalidate();
+		context.reclaim();
+		context.getMemory().setBudget( gpuMemoryBudget );
 		nextRequestedRepaint.type = NONE;
 		if ( renderStacks.isEmpty() )
 			return nextRequestedRepaint.type;
@@ -266,55 +487,100 @@ public class VolumeRenderer
 
 		if ( type == FULL || type == LOAD )
 		{
+			final List< Stack3D< ? > > stacks;
+			final List< ConverterSetup > converters;
+			if ( mosaicGrouping != null )
+			{
+				stacks = new ArrayList<>();
+				converters = new ArrayList<>();
+				mosaicGrouping.aggregate( renderStacks, renderConverters, stacks, converters );
+			}
+			else
+			{
+				stacks = renderStacks;
+				converters = renderConverters;
+			}
+
+			// multi-resolution stacks are grouped by the format of the cache they are stored in
 			final List< VolumeSignature > volumeSignatures = new ArrayList<>();
-			final List< MultiResolutionStack3D< ? > > multiResStacks = new ArrayList<>();
-			for ( int i = 0; i < renderStacks.size(); i++ )
+			final Map< InternalFormat, List< MultiResolutionStack3D< ? > > > multiResStacks = new EnumMap<>( InternalFormat.class );
+			final int[] blockVolumeIndices = new int[ stacks.size() ];
+			for ( int i = 0; i < stacks.size(); i++ )
 			{
-				final Stack3D< ? > stack = renderStacks.get( i );
+				final Stack3D< ? > stack = stacks.get( i );
 				if ( stack instanceof MultiResolutionStack3D )
 				{
-					if ( !TileAccess.isSupportedType( stack.getType() ) )
-						throw new IllegalArgumentException();
-					multiResStacks.add( ( MultiResolutionStack3D< ? > ) stack );
-					volumeSignatures.add( new VolumeSignature( MULTIRESOLUTION, USHORT ) );
+					final VolumeSignature volumeSignature = VolumeShaderSignature.signatureOf( MULTIRESOLUTION, stack.getType() );
+					final List< MultiResolutionStack3D< ? > > formatStacks = multiResStacks.computeIfAbsent( volumeSignature.getPixelType().getFormat(), f -> new ArrayList<>() );
+					blockVolumeIndices[ i ] = formatStacks.size();
+					formatStacks.add( ( MultiResolutionStack3D< ? > ) stack );
+					volumeSignatures.add( volumeSignature );
 				}
 				else if ( stack instanceof SimpleStack3D )
-				{
-					final Object pixelType = stack.getType();
-					if ( pixelType instanceof UnsignedShortType )
-						volumeSignatures.add( new VolumeSignature( SIMPLE, USHORT ) );
-					else if ( pixelType instanceof UnsignedByteType )
-						volumeSignatures.add( new VolumeSignature( SIMPLE, UBYTE ) );
-					else if ( pixelType instanceof ARGBType )
-						volumeSignatures.add( new VolumeSignature( SIMPLE, ARGB ) );
-					else
-						throw new IllegalArgumentException();
-				}
+					volumeSignatures.add( VolumeShaderSignature.signatureOf( SIMPLE, stack.getType() ) );
 				else
 					throw new IllegalArgumentException();
 			}
-			needAtLeastNumBlockVolumes( multiResStacks.size() );
-			updateBlocks( context, multiResStacks, pv );
+			multiResStacks.forEach( ( format, formatStacks ) -> {
+				final BlockCache cache = getBlockCache( format );
+				needAtLeastNumBlockVolumes( cache, formatStacks.size() );
+				updateBlocks( context, cache, formatStacks, pv );
+			} );
 
 			double minWorldVoxelSize = Double.POSITIVE_INFINITY;
-			progvol = progvols.computeIfAbsent( new VolumeShaderSignature( volumeSignatures ), this::createMultiVolumeShader );
+			final List< Integer > slots = new ArrayList<>();
+			final MultiVolumeShaderMip prog = progvols.computeIfAbsent( VolumeShaderSignature.padded( volumeSignatures, numVolumeSlots, slots ), this::createMultiVolumeShader );
+			if ( prog != progvol && progvol != null && !prog.isReady( context ) )
+			{
+				// While the new program is compiling, render with the previous
+				// one as many volumes as fit into its slots.
+				final List< Integer > fallbackSlots = new ArrayList<>();
+				progvol.getSignature().assign( volumeSignatures, fallbackSlots );
+				if ( fallbackSlots.stream().anyMatch( i -> i >= 0 ) )
+				{
+					slots.clear();
+					slots.addAll( fallbackSlots );
+					nextRequestedRepaint.request( FULL );
+				}
+				else
+					progvol = prog;
+			}
+			else
+				progvol = prog;
+
 			if ( progvol != null )
 			{
-				int mri = 0;
-				for ( int i = 0; i < renderStacks.size(); i++ )
+				for ( int s = 0; s < slots.size(); s++ )
 				{
-					progvol.setConverter( i, renderConverters.get( i ) );
-					if ( volumeSignatures.get( i ).getSourceStackType() == MULTIRESOLUTION )
+					final int i = slots.get( s );
+					final VolumeSignature volumeSignature = progvol.getSignature().getVolumeSignatures().get( s );
+					final boolean multires = volumeSignature.getSourceStackType() == MULTIRESOLUTION;
+					final BlockCache cache = multires ? getBlockCache( volumeSignature.getPixelType().getFormat() ) : null;
+					if ( i < 0 )
 					{
-						final VolumeBlocks volume = volumes.get( mri++ );
-						progvol.setVolume( i, volume );
+						// padding slot
+						if ( multires )
+						{
+							needAtLeastNumBlockVolumes( cache, 1 );
+							progvol.setEmptyVolume( s, cache.volumes.get( 0 ) );
+						}
+						else
+							progvol.setEmptyVolume( s );
+						continue;
+					}
+
+					progvol.setConverter( s, converters.get( i ) );
+					if ( multires )
+					{
+						final VolumeBlocks volume = cache.volumes.get( blockVolumeIndices[ i ] );
+						progvol.setVolume( s, volume );
 						minWorldVoxelSize = Math.min( minWorldVoxelSize, volume.getBaseLevelVoxelSizeInWorldCoordinates() );
 					}
 					else
 					{
-						final SimpleStack3D< ? > simpleStack3D = ( SimpleStack3D< ? > ) renderStacks.get( i );
+						final SimpleStack3D< ? > simpleStack3D = ( SimpleStack3D< ? > ) stacks.get( i );
 						final SimpleVolume volume = simpleStackManager.getSimpleVolume( context, simpleStack3D );
-						progvol.setVolume( i, volume );
+						progvol.setVolume( s, volume );
 						minWorldVoxelSize = Math.min( minWorldVoxelSize, volume.getVoxelSizeInWorldCoordinates() );
 					}
 				}
@@ -374,89 +640,160 @@ public class VolumeRenderer
 		return nextRequestedRepaint.type;
 	}
 
-	static class VolumeAndTasks
+	/**
+	 * Select, load, and upload the blocks of {@code multiResStacks}, which
+	 * are all stored in the given {@code cache}.
+	 */
+	private void updateBlocks(
+			final JoglGpuContext context,
+			final BlockCache cache,
+			final List< ? extends MultiResolutionStack3D< ? > > multiResStacks,
+			final Matrix4f pv )
 	{
-		private final List< FillTask > tasks;
-		private final VolumeBlocks volume;
-		private final int maxLevel;
+		final TextureCache textureCache = cache.textureCache;
+		final int numVolumes = multiResStacks.size();
+		final List< VolumeBlocks > activeVolumes = cache.volumes.subList( 0, numVolumes );
+
+		// cell data looked up while selecting and filling blocks is reused until the next frame
+		TileAccess.nextBatch();
+
+		/*
+		 * The per-volume stages run in parallel. Each VolumeBlocks (with its
+		 * MipmapSizes and LUT buffer) is only touched by one thread at a
+		 * time, TileAccess.Cache is thread-local. The shared TextureCache is
+		 * only used for (concurrent) residency lookups and timestamping.
+		 */
+		forEachVolume( numVolumes, i -> {
+			final VolumeBlocks volume = activeVolumes.get( i );
+			volume.init( multiResStacks.get( i ), renderWidth, renderHeight, pv );
+			volume.findRequiredBlocks();
+		} );
+
+		// coarsen blocks of all volumes together, until they fit into the cache
+		BlockLevelAllocator.assignLevels( activeVolumes, textureCache.getMaxNumTiles() );
+
+		final List< List< FillTask > > tasksPerVolume = new ArrayList<>( Collections.nCopies( numVolumes, null ) );
+		forEachVolume( numVolumes, i -> tasksPerVolume.set( i, activeVolumes.get( i ).getFillTasksForRequiredBlocks() ) );
+		final ArrayList< FillTask > fillTasks = mergeByLevel( activeVolumes, tasksPerVolume );
+		if ( fillTasks.size() > textureCache.getMaxNumTiles() )
+			fillTasks.subList( textureCache.getMaxNumTiles(), fillTasks.size() ).clear();
+
+		// request the data of all tasks that made the cut, in priority order, before filling any of them
+		prefetch( textureCache, fillTasks );
 
-		int numTasks()
+		try
 		{
-			return tasks.size();
+			ProcessFillTasks.parallel( textureCache, cache.pboChain, context, forkJoinPool, fillTasks );
+		}
+		catch ( final InterruptedException e )
+		{
+			e.printStackTrace();
 		}
 
-		VolumeAndTasks( final List< FillTask > tasks, final VolumeBlocks volume, final int maxLevel )
+		// LUT page pools may grow only within the GPU memory budget
+		final long lutGrowthBytes = context.getMemory().getAvailableBytes() / numVolumes;
+		for ( int i = 0; i < numVolumes; i++ )
+			activeVolumes.get( i ).getLookupPages().setMaxGrowthBytes( lutGrowthBytes );
+
+		final int timestamp = textureCache.nextTimestamp();
+		final boolean[] complete = new boolean[ numVolumes ];
+		forEachVolume( numVolumes, i -> complete[ i ] = activeVolumes.get( i ).makeLut( timestamp ) );
+
+		boolean needsRepaint = false;
+		for ( int i = 0; i < numVolumes; i++ )
 		{
-			this.tasks = new ArrayList<>( tasks );
-			this.volume = volume;
-			this.maxLevel = maxLevel;
+			if ( !complete[ i ] )
+				needsRepaint = true;
+			activeVolumes.get( i ).getLookupTexture().upload( context );
+			activeVolumes.get( i ).getLookupPages().upload( context );
 		}
+
+		if ( needsRepaint )
+			nextRequestedRepaint.request( LOAD );
 	}
 
-	private void updateBlocks(
-			final JoglGpuContext context,
-			final List< ? extends MultiResolutionStack3D< ? > > multiResStacks,
-			final Matrix4f pv )
+	/**
+	 * Request the source data for {@code fillTasks}, sequentially in the given
+	 * (priority) order. For volatile sources, this enqueues all missing cells
+	 * of the batch for loading, highest priority first, before any of the
+	 * tasks is filled. (For non-volatile sources, this does nothing.)
+	 */
+	@SuppressWarnings( "unchecked" )
+	private void prefetch( final TextureCache textureCache, final List< FillTask > fillTasks )
 	{
-		final List< VolumeAndTasks > tasksPerVolume = new ArrayList<>();
-		int numTasks = 0;
-		for ( int i = 0; i < multiResStacks.size(); i++ )
+		for ( final FillTask task : fillTasks )
 		{
-			final MultiResolutionStack3D< ? > stack = multiResStacks.get( i );
-			final VolumeBlocks volume = volumes.get( i );
-			volume.init( stack, renderWidth, pv );
-			final List< FillTask > tasks = volume.getFillTasks();
-			numTasks += tasks.size();
-			tasksPerVolume.add( new VolumeAndTasks( tasks, volume, stack.resolutions().size() - 1 ) );
+			final ImageBlockKey< ResolutionLevel3D< ? > > key = ( ImageBlockKey< ResolutionLevel3D< ? > > ) task.getKey();
+			prefetchAccess.get( key.image(), textureCache.spec() ).prefetch( key.pos() );
 		}
+	}
 
-		A:
-		while ( numTasks > textureCache.getMaxNumTiles() )
+	/**
+	 * Merge the {@code FillTask}s of all volumes by resolution level,
+	 * coarsest first. Levels are counted from the coarsest level of each
+	 * volume, such that the coverage tiles of all volumes come first and are
+	 * kept when the list is truncated to the cache size. Within a level, the
+	 * order of the volumes and of each volume's tasks is kept.
+	 */
+	private static ArrayList< FillTask > mergeByLevel( final List< VolumeBlocks > volumes, final List< List< FillTask > > tasksPerVolume )
+	{
+		final List< List< FillTask > > tasksByLevel = new ArrayList<>();
+		for ( int i = 0; i < volumes.size(); i++ )
 		{
-			tasksPerVolume.sort( Comparator.comparingInt( VolumeAndTasks::numTasks ).reversed() );
-			for ( final VolumeAndTasks vat : tasksPerVolume )
+			final VolumeBlocks volume = volumes.get( i );
+			for ( final FillTask task : tasksPerVolume.get( i ) )
 			{
-				final int baseLevel = vat.volume.getBaseLevel();
-				if ( baseLevel < vat.maxLevel )
-				{
-					vat.volume.setBaseLevel( baseLevel + 1 );
-					numTasks -= vat.numTasks();
-					vat.tasks.clear();
-					vat.tasks.addAll( vat.volume.getFillTasks() );
-					numTasks += vat.numTasks();
-					continue A;
-				}
+				final int l = volume.getLevelsBelowMax( task );
+				while ( tasksByLevel.size() <= l )
+					tasksByLevel.add( new ArrayList<>() );
+				tasksByLevel.get( l ).add( task );
 			}
-			break;
 		}
-
 		final ArrayList< FillTask > fillTasks = new ArrayList<>();
-		for ( final VolumeAndTasks vat : tasksPerVolume )
-			fillTasks.addAll( vat.tasks );
-		if ( fillTasks.size() > textureCache.getMaxNumTiles() )
-			fillTasks.subList( textureCache.getMaxNumTiles(), fillTasks.size() ).clear();
+		tasksByLevel.forEach( fillTasks::addAll );
+		return fillTasks;
+	}
 
+	/**
+	 * Run {@code action} for volume indices {@code 0 .. numVolumes-1} in
+	 * parallel on the {@code forkJoinPool}, and wait for all to complete.
+	 */
+	private void forEachVolume( final int numVolumes, final IntConsumer action )
+	{
+		if ( numVolumes <= 1 )
+		{
+			for ( int i = 0; i < numVolumes; i++ )
+				action.accept( i );
+			return;
+		}
+
+		final List< Callable< Void > > tasks = new ArrayList<>( numVolumes );
+		for ( int i = 0; i < numVolumes; i++ )
+		{
+			final int index = i;
+			tasks.add( () -> {
+				action.accept( index );
+				return null;
+			} );
+		}
 		try
 		{
-			ProcessFillTasks.parallel( textureCache, pboChain, context, forkJoinPool, fillTasks );
+			for ( final Future< Void > future : forkJoinPool.invokeAll( tasks ) )
+				future.get();
 		}
 		catch ( final InterruptedException e )
 		{
-			e.printStackTrace();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
 		}
-
-		boolean needsRepaint = false;
-		final int timestamp = textureCache.nextTimestamp();
-		for ( int i = 0; i < multiResStacks.size(); i++ )
+		catch ( final ExecutionException e )
 		{
-			final VolumeBlocks volume = volumes.get( i );
-			final boolean complete = volume.makeLut( timestamp );
-			if ( !complete )
-				needsRepaint = true;
-			volume.getLookupTexture().upload( context );
+			final Throwable cause = e.getCause();
+			if ( cause instanceof RuntimeException )
+				throw ( RuntimeException ) cause;
+			if ( cause instanceof Error )
+				throw ( Error ) cause;
+			throw new RuntimeException( cause );
 		}
-
-		if ( needsRepaint )
-			nextRequestedRepaint.request( LOAD );
 	}
 }
@@ -28,17 +28,73 @@
  */
 package bvv.core.render;
 
+import bvv.core.backend.Texture.InternalFormat;
+import bvv.core.blocks.TileAccess;
 import bvv.core.multires.SourceStacks;
 import java.util.ArrayList;
 import java.util.List;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
 
 public final class VolumeShaderSignature
 {
 	public enum PixelType
 	{
-		USHORT,
-		UBYTE,
-		ARGB
+		USHORT( InternalFormat.R16 ),
+		UBYTE( InternalFormat.R8 ),
+		ARGB( InternalFormat.RGBA8 ),
+		FLOAT( InternalFormat.R32F );
+
+		private final InternalFormat format;
+
+		PixelType( final InternalFormat format )
+		{
+			this.format = format;
+		}
+
+		/**
+		 * Get the texture format in which volumes of this pixel type are
+		 * stored. For multi-resolution volumes, this selects the {@code
+		 * TextureCache}.
+		 */
+		public InternalFormat getFormat()
+		{
+			return format;
+		}
+	}
+
+	/**
+	 * Get the {@code VolumeSignature} for rendering a volume with the given
+	 * source stack type and pixel type (an instance of the stack's pixel
+	 * type {@code T}).
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if the pixel type is not supported for the source stack type.
+	 */
+	public static VolumeSignature signatureOf( final SourceStacks.SourceStackType sourceStackType, final Object type )
+	{
+		switch ( sourceStackType )
+		{
+		case MULTIRESOLUTION:
+			final InternalFormat format = TileAccess.getCacheFormat( type );
+			if ( format != null )
+				for ( final PixelType pixelType : PixelType.values() )
+					if ( pixelType.getFormat() == format )
+						return new VolumeSignature( sourceStackType, pixelType );
+			break;
+		case SIMPLE:
+			if ( type instanceof UnsignedShortType )
+				return new VolumeSignature( sourceStackType, PixelType.USHORT );
+			else if ( type instanceof UnsignedByteType )
+				return new VolumeSignature( sourceStackType, PixelType.UBYTE );
+			else if ( type instanceof ARGBType )
+				return new VolumeSignature( sourceStackType, PixelType.ARGB );
+			break;
+		default:
+			break;
+		}
+		throw new IllegalArgumentException();
 	}
 
 	public static final class VolumeSignature
@@ -89,6 +145,86 @@ public final class VolumeShaderSignature
 		this.volumeSignatures = new ArrayList<>( volumeSignatures );
 	}
 
+	/**
+	 * Create a signature in which volumes are ordered by {@link
+	 * VolumeSignature}, and the number of volumes of each kind is rounded up to
+	 * a multiple of {@code numSlots}. Shaders for padded signatures can be
+	 * reused when sources are shown or hidden, as long as the rounded counts do
+	 * not change. Padding slots should be set to an empty volume.
+	 *
+	 * @param volumeSignatures
+	 * 		signatures of the volumes to render
+	 * @param numSlots
+	 * 		granularity for the number of volumes of each kind
+	 * @param slots
+	 * 		is filled with the index into {@code volumeSignatures} for every
+	 * 		volume of the returned signature, or {@code -1} for padding slots
+	 */
+	public static VolumeShaderSignature padded( final List< VolumeSignature > volumeSignatures, final int numSlots, final List< Integer > slots )
+	{
+		final List< VolumeSignature > padded = new ArrayList<>();
+		slots.clear();
+		for ( final SourceStacks.SourceStackType sourceStackType : SourceStacks.SourceStackType.values() )
+		{
+			for ( final PixelType pixelType : PixelType.values() )
+			{
+				final VolumeSignature signature = new VolumeSignature( sourceStackType, pixelType );
+				int n = 0;
+				for ( int i = 0; i < volumeSignatures.size(); i++ )
+				{
+					if ( volumeSignatures.get( i ).equals( signature ) )
+					{
+						padded.add( signature );
+						slots.add( i );
+						++n;
+					}
+				}
+				for ( ; n % numSlots != 0; ++n )
+				{
+					padded.add( signature );
+					slots.add( -1 );
+				}
+			}
+		}
+		return new VolumeShaderSignature( padded );
+	}
+
+	/**
+	 * Assign volumes to the volume slots of this signature. Each slot is
+	 * assigned the next volume with the same {@link VolumeSignature}. Slots
+	 * that remain unassigned should be set to an empty volume.
+	 *
+	 * @param volumeSignatures
+	 * 		signatures of the volumes to render
+	 * @param slots
+	 * 		is filled with the index into {@code volumeSignatures} for every
+	 * 		volume of this signature, or {@code -1} for unassigned slots
+	 *
+	 * @return {@code true} if every volume was assigned to a slot
+	 */
+	public boolean assign( final List< VolumeSignature > volumeSignatures, final List< Integer > slots )
+	{
+		final boolean[] assigned = new boolean[ volumeSignatures.size() ];
+		int numAssigned = 0;
+		slots.clear();
+		for ( final VolumeSignature slot : this.volumeSignatures )
+		{
+			int index = -1;
+			for ( int i = 0; i < assigned.length; i++ )
+			{
+				if ( !assigned[ i ] && volumeSignatures.get( i ).equals( slot ) )
+				{
+					assigned[ i ] = true;
+					index = i;
+					++numAssigned;
+					break;
+				}
+			}
+			slots.add( index );
+		}
+		return numAssigned == assigned.length;
+	}
+
 	public List< VolumeSignature > getVolumeSignatures()
 	{
 		return volumeSignatures;
@@ -30,6 +30,7 @@ package bvv.core.render;
 
 import java.nio.Buffer;
 import bvv.core.backend.GpuContext;
+import bvv.core.backend.GpuMemory.Category;
 import bvv.core.backend.Texture3D;
 
 import static bvv.core.backend.Texture.InternalFormat.RGBA8;
@@ -38,21 +39,46 @@ public class VolumeTextureRGBA8 implements Texture3D
 {
 	private final int[] size = new int[ 3 ];
 
+	/**
+	 * Whether the size changed since the last upload, i.e., texture storage must be reallocated.
+	 */
+	private boolean resized = true;
+
 	/**
 	 * Reinitialize.
 	 */
 	public void init( final int[] size )
 	{
 		for ( int d = 0; d < 3; d++ )
-			this.size[ d ] = size[ d ];
+		{
+			if ( this.size[ d ] != size[ d ] )
+			{
+				this.size[ d ] = size[ d ];
+				resized = true;
+			}
+		}
 	}
 
 	public void upload( final GpuContext context, final Buffer data )
 	{
-		context.delete( this ); // TODO: is this necessary everytime?
+		if ( resized )
+		{
+			context.delete( this );
+			resized = false;
+		}
 		context.texSubImage3D( this, 0, 0, 0, texWidth(), texHeight(), texDepth(), data );
 	}
 
+	/**
+	 * Update the region of size {@code size} at {@code offset}. The texture
+	 * must have been {@link #upload(GpuContext, Buffer) uploaded} completely
+	 * since the last size change.
+	 */
+	public void upload( final GpuContext context, final int[] offset, final int[] size, final Buffer data )
+	{
+		context.texSubImage3D( this, offset[ 0 ], offset[ 1 ], offset[ 2 ], size[ 0 ], size[ 1 ], size[ 2 ], data );
+	}
+
 	@Override
 	public InternalFormat texInternalFormat()
 	{
@@ -94,4 +120,10 @@ public class VolumeTextureRGBA8 implements Texture3D
 	{
 		return Wrap.CLAMP_TO_BORDER_ZERO;
 	}
+
+	@Override
+	public Category texMemoryCategory()
+	{
+		return Category.SIMPLE_VOLUME;
+	}
 }
@@ -32,6 +32,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -54,6 +55,16 @@ public abstract class AbstractShader implements Shader
 
 	private final List< UniformImpSampler > samplers = new ArrayList<>();
 
+	/**
+	 * Uniforms that have been modified since the last {@link #setUniforms}.
+	 * Swapped with {@code drained} when uniforms are set, to avoid allocation.
+	 */
+	private List< UniformImp > dirty = new ArrayList<>();
+
+	private List< UniformImp > drained = new ArrayList<>();
+
+	private final Object dirtyLock = new Object();
+
 	public AbstractShader( final String vpCode, final String fpCode )
 	{
 		this.vpCode = new StringBuilder( vpCode );
@@ -209,7 +220,7 @@ public abstract class AbstractShader implements Shader
 				if ( uniform.v0 != unit )
 				{
 					uniform.v0 = unit;
-					uniform.modified = true;
+					uniform.markModified();
 				}
 				uniform.valid = true;
 			}
@@ -220,19 +231,53 @@ public abstract class AbstractShader implements Shader
 	public void setUniforms( final GpuContext gpu )
 	{
 		final SetUniforms visitor = gpu.getUniformSetter( this );
-		for ( final UniformImp uniform : uniforms.values() )
+		final List< UniformImp > list;
+		synchronized ( dirtyLock )
 		{
-			synchronized ( uniform )
+			list = dirty;
+			dirty = drained;
+			drained = list;
+		}
+
+		if ( visitor.shouldSet( false ) )
+		{
+			// visitor wants all uniforms, regardless of modification
+			final Collection< UniformImp > all;
+			synchronized ( this )
 			{
-				if ( visitor.shouldSet( uniform.modified ) )
-				{
-					uniform.setInShader( visitor );
-					uniform.modified = false;
-				}
+				all = new ArrayList<>( uniforms.values() );
+			}
+			for ( final UniformImp uniform : all )
+				setInShader( uniform, visitor );
+		}
+		else
+		{
+			for ( final UniformImp uniform : list )
+				setInShader( uniform, visitor );
+		}
+		list.clear();
+	}
+
+	private static void setInShader( final UniformImp uniform, final SetUniforms visitor )
+	{
+		synchronized ( uniform )
+		{
+			if ( visitor.shouldSet( uniform.modified ) )
+			{
+				uniform.setInShader( visitor );
+				uniform.modified = false;
 			}
 		}
 	}
 
+	private void enqueue( final UniformImp uniform )
+	{
+		synchronized ( dirtyLock )
+		{
+			dirty.add( uniform );
+		}
+	}
+
 	@Override
 	public StringBuilder getVertexShaderCode()
 	{
@@ -255,6 +300,8 @@ public abstract class AbstractShader implements Shader
 		if ( uniform == null )
 		{
 			final T u = create.apply( name );
+			u.shader = this;
+			enqueue( u );
 			uniforms.put( name, u );
 			if ( UniformImpSampler.class.isInstance( u ) )
 				samplers.add( ( UniformImpSampler ) u );
@@ -283,12 +330,33 @@ public abstract class AbstractShader implements Shader
 
 		boolean modified;
 
+		/**
+		 * The shader that owns this uniform. Modified uniforms are enqueued
+		 * in its dirty list.
+		 */
+		AbstractShader shader;
+
 		UniformImp( final String name )
 		{
 			this.name = name;
 			modified = true;
 		}
 
+		/**
+		 * Flag this uniform as modified and, if it was not modified before,
+		 * add it to the dirty list of its shader. Must be called while
+		 * holding the lock on this uniform.
+		 */
+		final void markModified()
+		{
+			if ( !modified )
+			{
+				modified = true;
+				if ( shader != null )
+					shader.enqueue( this );
+			}
+		}
+
 		abstract void setInShader( SetUniforms visitor );
 	}
 
@@ -307,7 +375,7 @@ public abstract class AbstractShader implements Shader
 			if ( this.v0 != v0 )
 			{
 				this.v0 = v0;
-				modified = true;
+				markModified();
 			}
 		}
 
@@ -335,7 +403,7 @@ public abstract class AbstractShader implements Shader
 			{
 				this.v0 = v0;
 				this.v1 = v1;
-				modified = true;
+				markModified();
 			}
 		}
 
@@ -365,7 +433,7 @@ public abstract class AbstractShader implements Shader
 				this.v0 = v0;
 				this.v1 = v1;
 				this.v2 = v2;
-				modified = true;
+				markModified();
 			}
 		}
 
@@ -397,7 +465,7 @@ public abstract class AbstractShader implements Shader
 				this.v1 = v1;
 				this.v2 = v2;
 				this.v3 = v3;
-				modified = true;
+				markModified();
 			}
 		}
 
@@ -428,7 +496,7 @@ public abstract class AbstractShader implements Shader
 		public synchronized void set( final int[] value )
 		{
 			this.v = value.clone();
-			modified = true;
+			markModified();
 		}
 	}
 
@@ -452,7 +520,7 @@ public abstract class AbstractShader implements Shader
 		public synchronized void set( final int[] value )
 		{
 			this.v = value.clone();
-			modified = true;
+			markModified();
 		}
 	}
 
@@ -476,7 +544,7 @@ public abstract class AbstractShader implements Shader
 		public synchronized void set( final int[] value )
 		{
 			this.v = value.clone();
-			modified = true;
+			markModified();
 		}
 	}
 
@@ -500,7 +568,7 @@ public abstract class AbstractShader implements Shader
 		public synchronized void set( final int[] value )
 		{
 			this.v = value.clone();
-			modified = true;
+			markModified();
 		}
 	}
 
@@ -520,7 +588,7 @@ public abstract class AbstractShader implements Shader
 			if ( this.v0 != v0 )
 			{
 				this.v0 = v0;
-				modified = true;
+				markModified();
 			}
 		}
 
@@ -548,7 +616,7 @@ public abstract class AbstractShader implements Shader
 			{
 				this.v0 = v0;
 				this.v1 = v1;
-				modified = true;
+				markModified();
 			}
 		}
 
@@ -578,7 +646,7 @@ public abstract class AbstractShader implements Shader
 				this.v0 = v0;
 				this.v1 = v1;
 				this.v2 = v2;
-				modified = true;
+				markModified();
 			}
 		}
 
@@ -610,7 +678,7 @@ public abstract class AbstractShader implements Shader
 				this.v1 = v1;
 				this.v2 = v2;
 				this.v3 = v3;
-				modified = true;
+				markModified();
 			}
 		}
 
@@ -641,7 +709,7 @@ public abstract class AbstractShader implements Shader
 		public synchronized void set( final float[] value )
 		{
 			this.v = value.clone();
-			modified = true;
+			markModified();
 		}
 	}
 
@@ -665,7 +733,7 @@ public abstract class AbstractShader implements Shader
 		public synchronized void set( final float[] value )
 		{
 			this.v = value.clone();
-			modified = true;
+			markModified();
 		}
 	}
 
@@ -689,7 +757,7 @@ public abstract class AbstractShader implements Shader
 		public synchronized void set( final float[] value )
 		{
 			this.v = value.clone();
-			modified = true;
+			markModified();
 		}
 	}
 
@@ -713,7 +781,7 @@ public abstract class AbstractShader implements Shader
 		public synchronized void set( final float[] value )
 		{
 			this.v = value.clone();
-			modified = true;
+			markModified();
 		}
 	}
 
@@ -736,7 +804,7 @@ public abstract class AbstractShader implements Shader
 		public synchronized void set( final Matrix3fc m33 )
 		{
 			m33.get( 0, value );
-			modified = true;
+			markModified();
 		}
 	}
 
@@ -759,7 +827,7 @@ public abstract class AbstractShader implements Shader
 		public synchronized void set( final Matrix4fc m44 )
 		{
 			m44.get( 0, value );
-			modified = true;
+			markModified();
 		}
 	}
 
@@ -789,7 +857,7 @@ public abstract class AbstractShader implements Shader
 		{
 			this.texture = texture;
 			valid = false;
-			modified = true;
+			markModified();
 		}
 
 		@Override
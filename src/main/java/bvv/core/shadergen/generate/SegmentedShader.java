@@ -38,6 +38,7 @@ import bvv.core.shadergen.Uniform4fv;
 import bvv.core.shadergen.Uniform4iv;
 import bvv.core.shadergen.UniformMatrix3f;
 import java.util.Map;
+import java.util.function.UnaryOperator;
 
 import bvv.core.shadergen.AbstractShader;
 import bvv.core.shadergen.Uniform1f;
@@ -64,10 +65,16 @@ public class SegmentedShader extends AbstractShader
 {
 	private final Map< String, Object > uniforms;
 
-	SegmentedShader( final StringBuilder vpCode, final StringBuilder fpCode, final Map< String, Object > uniforms )
+	/**
+	 * Maps identifiers of instantiated segments to the (canonical) identifiers used in the code.
+	 */
+	private final UnaryOperator< String > rename;
+
+	SegmentedShader( final StringBuilder vpCode, final StringBuilder fpCode, final Map< String, Object > uniforms, final UnaryOperator< String > rename )
 	{
 		super( vpCode, fpCode );
 		this.uniforms = uniforms;
+		this.rename = rename;
 	}
 
 	@Override
@@ -77,7 +84,7 @@ public class SegmentedShader extends AbstractShader
 		if ( o == SegmentedShaderBuilder.NOT_UNIQUE )
 			throw new IllegalArgumentException( "uniform name '" + key + "' is not unique across segments." );
 		else if ( o == null )
-			return key;
+			return rename.apply( key );
 		else
 			return ( String ) o;
 	}
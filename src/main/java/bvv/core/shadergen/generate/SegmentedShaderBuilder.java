@@ -30,11 +30,16 @@ package bvv.core.shadergen.generate;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class SegmentedShaderBuilder
 {
 	static final Object NOT_UNIQUE = new Object();
 
+	// matches the number in instantiated identifiers, see SegmentTemplate.proposeKeyToIdentifierMap()
+	private static final Pattern IDENTIFIER = Pattern.compile( "_x_(\\d+)_x_" );
+
 	// maps uniform name to either NOT_UNIQUE or instantiated identifier (String
 	private final Map< String, Object > uniforms = new HashMap<>();
 
@@ -71,6 +76,52 @@ public class SegmentedShaderBuilder
 
 	public SegmentedShader build()
 	{
-		return new SegmentedShader( vpCode, fpCode, uniforms );
+		final Map< String, String > numbers = new HashMap<>();
+		final StringBuilder vp = canonicalize( vpCode, numbers );
+		final StringBuilder fp = canonicalize( fpCode, numbers );
+		final Map< String, Object > canonicalUniforms = new HashMap<>();
+		uniforms.forEach( ( name, value ) -> canonicalUniforms.put( name,
+				value instanceof String ? rename( ( String ) value, numbers ) : value ) );
+		return new SegmentedShader( vp, fp, canonicalUniforms, identifier -> rename( identifier, numbers ) );
+	}
+
+	/**
+	 * Instantiated identifiers ({@code key_x_N_x_}) are numbered globally, so
+	 * code for the same shader would differ depending on which shaders were
+	 * built before. Renumber identifiers in order of appearance, such that
+	 * generated code is reproducible and can be used as a key for caching
+	 * compiled programs.
+	 *
+	 * @param numbers
+	 * 		maps global to canonical numbers. New numbers are added as they appear in {@code code}.
+	 */
+	private static StringBuilder canonicalize( final CharSequence code, final Map< String, String > numbers )
+	{
+		final Matcher matcher = IDENTIFIER.matcher( code );
+		final StringBuffer sb = new StringBuffer();
+		while ( matcher.find() )
+		{
+			final String number = numbers.computeIfAbsent( matcher.group( 1 ), n -> Integer.toString( numbers.size() ) );
+			matcher.appendReplacement( sb, "_x_" + number + "_x_" );
+		}
+		matcher.appendTail( sb );
+		return new StringBuilder( sb );
+	}
+
+	/**
+	 * Rename an instantiated identifier according to {@code numbers}.
+	 * Identifiers that do not appear in the code are left as they are.
+	 */
+	private static String rename( final String identifier, final Map< String, String > numbers )
+	{
+		final Matcher matcher = IDENTIFIER.matcher( identifier );
+		final StringBuffer sb = new StringBuffer();
+		while ( matcher.find() )
+		{
+			final String number = numbers.getOrDefault( matcher.group( 1 ), matcher.group( 1 ) );
+			matcher.appendReplacement( sb, "_x_" + number + "_x_" );
+		}
+		matcher.appendTail( sb );
+		return sb.toString();
 	}
 }
@@ -33,18 +33,56 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.stringtemplate.v4.ST;
 
 public class StringTemplateUtils
 {
+	/**
+	 * Parsed snippets, by resource and keys. {@link #loadAndPatchSnippet}
+	 * returns copies of these, which share the compiled template.
+	 */
+	private static final Map< List< Object >, ST > snippets = new ConcurrentHashMap<>();
+
+	/**
+	 * Load (or get cached copy of) shader snippet {@code resourceName} and
+	 * patch it into a template with attributes {@code keys}.
+	 */
 	public static ST loadAndPatchSnippet(
 			final Class< ? > resourceContext,
 			final String resourceName,
 			final List< String > keys )
 			throws IOException
+	{
+		final List< Object > cacheKey = Arrays.asList( resourceContext, resourceName, new ArrayList<>( keys ) );
+		ST proto = snippets.get( cacheKey );
+		if ( proto == null )
+		{
+			proto = loadAndPatch( resourceContext, resourceName, keys );
+			snippets.put( cacheKey, proto );
+		}
+		return new ST( proto );
+	}
+
+	/**
+	 * Clear cached snippets, so that they are loaded again from resources.
+	 * (Required for hot-loading modified shaders.)
+	 */
+	public static void clearCache()
+	{
+		snippets.clear();
+	}
+
+	private static ST loadAndPatch(
+			final Class< ? > resourceContext,
+			final String resourceName,
+			final List< String > keys )
+			throws IOException
 	{
 		final ArrayList< String > searchList = new ArrayList<>();
 		final ArrayList< String > replacementList = new ArrayList<>();
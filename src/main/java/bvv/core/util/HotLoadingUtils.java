@@ -35,6 +35,7 @@ import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import bvv.core.shadergen.generate.StringTemplateUtils;
 import org.scijava.listeners.Listeners;
 
 /**
@@ -47,6 +48,7 @@ import org.scijava.listeners.Listeners;
  * them to {@code target/classes/...}, so that they will be picked up when the program loads from resources.
  * <p>
  * Note that this class doesn't do any shader loading itself, it's just for support...
+ * (Apart from clearing the {@link StringTemplateUtils} snippet cache when a resource changed.)
  */
 public class HotLoadingUtils
 {
@@ -74,6 +76,7 @@ public class HotLoadingUtils
 			{
 				lastModified = mod;
 				Files.copy( resource.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING );
+				StringTemplateUtils.clearCache();
 				listeners.list.forEach( Runnable::run );
 			}
 		}
@@ -232,6 +232,139 @@ public class BvvOptions
 		return this;
 	}
 
+	/**
+	 * Sets the tolerance for keeping blocks at the resolution level at which
+	 * they are already present in the GPU cache. A block stays at its current
+	 * level while the screen-space error of that level is within this many
+	 * octaves of the range that would be accepted for the best level.
+	 *
+	 * @param h
+	 * 		tolerance in octaves. {@code 0} means that always the best level is chosen.
+	 * @return this instance.
+	 */
+	public BvvOptions lodHysteresis( final double h )
+	{
+		values.lodHysteresis = h;
+		return this;
+	}
+
+	/**
+	 * Enable foveated level of detail. Within {@code radius} screen pixels of
+	 * the focus point (by default the mouse position), volumes are rendered
+	 * at the best resolution. Further out, the resolution is reduced by one
+	 * level per {@code falloff} screen pixels.
+	 *
+	 * @param radius
+	 * 		radius (in screen pixels) around the focus point that is rendered at best resolution.
+	 * @param falloff
+	 * 		distance (in screen pixels) over which resolution is reduced by one level. {@code falloff <= 0} disables foveation.
+	 * @return this instance.
+	 */
+	public BvvOptions foveation( final double radius, final double falloff )
+	{
+		values.foveationRadius = radius;
+		values.foveationFalloff = falloff;
+		return this;
+	}
+
+	/**
+	 * Enable coarse-to-fine loading. The coarsest resolution level covering
+	 * the whole view is loaded first, then blocks are refined level by level
+	 * over consecutive frames. Frames show complete (although blurry) volumes
+	 * as early as possible, instead of holes where fine blocks are missing.
+	 *
+	 * @param c
+	 * 		whether to load blocks coarse-to-fine.
+	 * @return this instance.
+	 */
+	public BvvOptions coarseToFine( final boolean c )
+	{
+		values.coarseToFine = c;
+		return this;
+	}
+
+	/**
+	 * Enable mosaic mode. Multi-resolution sources with the same pixel type,
+	 * converter settings, and resolution levels, whose transforms differ only
+	 * by a translation (e.g., stitched tiles), are rendered as one volume.
+	 * Shader size and per-sample cost then do not grow with the number of
+	 * tiles.
+	 *
+	 * @param m
+	 * 		whether to aggregate tiles into mosaics.
+	 * @return this instance.
+	 */
+	public BvvOptions mosaic( final boolean m )
+	{
+		values.mosaic = m;
+		return this;
+	}
+
+	/**
+	 * Set the granularity of generated shaders. The number of volumes of each
+	 * kind in a shader is rounded up to a multiple of {@code n}, so that
+	 * showing or hiding sources usually does not require compiling a new
+	 * shader.
+	 *
+	 * @param n
+	 * 		granularity of volume slots ({@code 1} compiles a shader for every
+	 * 		combination of visible sources).
+	 * @return this instance.
+	 */
+	public BvvOptions volumeSlots( final int n )
+	{
+		values.volumeSlots = n;
+		return this;
+	}
+
+	/**
+	 * Set the budget for GPU memory (texture cache, lookup textures, simple
+	 * volumes, framebuffers, staging buffers). The texture cache and lookup
+	 * textures are sized to stay within the budget. Building the viewer fails
+	 * if {@code maxCacheSizeInMB} or {@code simpleVolumeBudgetInMB} exceed the
+	 * budget.
+	 *
+	 * @param mb
+	 * 		GPU memory budget in MB, {@code 0} means no limit.
+	 * @return this instance.
+	 */
+	public BvvOptions gpuMemoryBudgetInMB( final int mb )
+	{
+		values.gpuMemoryBudgetInMB = mb;
+		return this;
+	}
+
+	/**
+	 * Set the budget for textures of simple (non-multi-resolution) volumes.
+	 * Within the budget, textures of hidden volumes are kept for quick
+	 * re-display. Volumes that do not fit are drawn from a downsampled proxy.
+	 *
+	 * @param mb
+	 * 		simple volume budget in MB, {@code 0} means no limit.
+	 * @return this instance.
+	 */
+	public BvvOptions simpleVolumeBudgetInMB( final int mb )
+	{
+		values.simpleVolumeBudgetInMB = mb;
+		return this;
+	}
+
+	/**
+	 * Set the size above which simple (non-multi-resolution) volumes are
+	 * rendered as multi-resolution volumes instead. The image is cut into
+	 * cells and downsampled lazily, and blocks are streamed through the
+	 * texture cache, instead of uploading the whole image as a single texture.
+	 *
+	 * @param mb
+	 * 		threshold in MB, {@code 0} means never.
+	 * @return this instance.
+	 */
+	public BvvOptions multiResolutionThresholdInMB( final int mb )
+	{
+		values.multiResolutionThresholdInMB = mb;
+		return this;
+	}
+
 	/**
 	 * Set how many source groups there are initially.
 	 *
@@ -347,6 +480,15 @@ public class BvvOptions
 		private double dClipNear = 1000;
 		private double dClipFar = 1000;
 		private double maxAllowedStepInVoxels = 1.0;
+		private double lodHysteresis = 0.25;
+		private double foveationRadius = 0;
+		private double foveationFalloff = 0;
+		private boolean coarseToFine = false;
+		private boolean mosaic = false;
+		private int volumeSlots = 4;
+		private int gpuMemoryBudgetInMB = 0;
+		private int simpleVolumeBudgetInMB = 0;
+		private int multiResolutionThresholdInMB = 0;
 
 		private int numSourceGroups = 10;
 		private InputTriggerConfig inputTriggerConfig = null;
@@ -374,6 +516,14 @@ public class BvvOptions
 					.dClipFar( dClipFar )
 					.dClipNear( dClipNear )
 					.maxAllowedStepInVoxels( maxAllowedStepInVoxels )
+					.lodHysteresis( lodHysteresis )
+					.foveation( foveationRadius, foveationFalloff )
+					.coarseToFine( coarseToFine )
+					.mosaic( mosaic )
+					.volumeSlots( volumeSlots )
+					.gpuMemoryBudgetInMB( gpuMemoryBudgetInMB )
+					.simpleVolumeBudgetInMB( simpleVolumeBudgetInMB )
+					.multiResolutionThresholdInMB( multiResolutionThresholdInMB )
 					.numSourceGroups( numSourceGroups )
 					.inputTriggerConfig( inputTriggerConfig )
 					.sourceTransform( sourceTransform )
@@ -396,6 +546,14 @@ public class BvvOptions
 					.dClipFar( dClipFar )
 					.dClipNear( dClipNear )
 					.maxAllowedStepInVoxels( maxAllowedStepInVoxels )
+					.lodHysteresis( lodHysteresis )
+					.foveation( foveationRadius, foveationFalloff )
+					.coarseToFine( coarseToFine )
+					.mosaic( mosaic )
+					.volumeSlots( volumeSlots )
+					.gpuMemoryBudgetInMB( gpuMemoryBudgetInMB )
+					.simpleVolumeBudgetInMB( simpleVolumeBudgetInMB )
+					.multiResolutionThresholdInMB( multiResolutionThresholdInMB )
 					.numSourceGroups( numSourceGroups )
 					.inputTriggerConfig( inputTriggerConfig );
 			if ( hasPreferredSize() )
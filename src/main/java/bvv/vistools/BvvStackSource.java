@@ -36,6 +36,7 @@ import bdv.viewer.ConverterSetupBounds;
 import bdv.viewer.SourceAndConverter;
 import java.util.HashSet;
 import java.util.List;
+import net.imglib2.Interval;
 import net.imglib2.type.numeric.ARGBType;
 import bvv.core.multires.SourceStacks;
 
@@ -138,9 +139,23 @@ public class BvvStackSource< T > extends BvvSource
 	}
 
 	public void invalidate()
+	{
+		invalidate( null );
+	}
+
+	/**
+	 * Notify that the given region of the image data was modified, and
+	 * repaint. For simple (non-multiresolution) sources, only that region
+	 * is uploaded again.
+	 *
+	 * @param region
+	 * 		modified region, in image coordinates, or {@code null} if the
+	 * 		whole image was modified.
+	 */
+	public void invalidate( final Interval region )
 	{
 		for ( final SourceAndConverter< T > source : sources )
-			SourceStacks.invalidate( source.getSpimSource() );
+			SourceStacks.invalidate( source.getSpimSource(), region );
 
 		final BvvHandle bvv = getBvvHandle();
 		if ( bvv != null )
@@ -1,17 +1,46 @@
 #define NUM_BLOCK_SCALES 10
 
+#define NUM_CLIP_PLANES 8
+
 uniform mat4 im;
 uniform vec3 sourcemin;
 uniform vec3 sourcemax;
 
+// Clip planes in source level coordinates. Point x is inside if dot(plane, vec4(x, 1)) >= 0.
+// Unused planes are (0, 0, 0, 1).
+uniform vec4 clipPlanes[ NUM_CLIP_PLANES ];
+
 void intersectBoundingBox( vec4 wfront, vec4 wback, out float tnear, out float tfar )
 {
 	vec4 mfront = im * wfront;
 	vec4 mback = im * wback;
-	intersectBox( mfront.xyz, (mback - mfront).xyz, sourcemin, sourcemax, tnear, tfar );
+	vec3 mdir = (mback - mfront).xyz;
+	intersectBox( mfront.xyz, mdir, sourcemin, sourcemax, tnear, tfar );
+	for ( int i = 0; i < NUM_CLIP_PLANES; ++i )
+	{
+		float a = dot( clipPlanes[ i ], vec4( mfront.xyz, 1 ) );
+		float b = dot( clipPlanes[ i ].xyz, mdir );
+		if ( b > 0 )
+			tnear = max( tnear, -a / b );
+		else if ( b < 0 )
+			tfar = min( tfar, -a / b );
+		else if ( a < 0 )
+			tfar = tnear;
+	}
 }
 
+// The block lut has two levels:
+// lutSampler is the directory, each entry covers LUT_PAGE_SIZE^3 blocks.
+// lutPageSampler contains pages of LUT_PAGE_SIZE^3 entries, one entry per block.
+// Entries are (tile x, tile y, tile z, level) in RGBA8UI or RGBA16UI format
+// (depending on cache grid size). Both are read as uvec4 through usampler3D.
+// A directory entry with w == LUT_PAGE_MARKER refers to the page at (x, y, z)
+// in lutPageSampler. Otherwise the entry applies to all blocks of the page.
+#define LUT_PAGE_SIZE 8
+#define LUT_PAGE_MARKER 255u
+
 uniform usampler3D lutSampler;
+uniform usampler3D lutPageSampler;
 uniform vec3 blockScales[ NUM_BLOCK_SCALES ];
 uniform vec3 lutSize;
 uniform vec3 lutOffset;
@@ -19,9 +48,13 @@ uniform vec3 lutOffset;
 float sampleVolume( vec4 wpos, sampler3D volumeCache, vec3 cacheSize, vec3 blockSize, vec3 paddedBlockSize, vec3 padOffset )
 {
 	vec3 pos = (im * wpos).xyz + 0.5;
-	vec3 q = floor( pos / blockSize ) - lutOffset + 0.5;
+	ivec3 g = ivec3( floor( pos / blockSize ) );
+	ivec3 p = ivec3( floor( vec3( g ) / float( LUT_PAGE_SIZE ) ) );
+	ivec3 d = clamp( p - ivec3( lutOffset ), ivec3( 0 ), ivec3( lutSize ) - 1 );
 
-	uvec4 lutv = texture( lutSampler, q / lutSize );
+	uvec4 lutv = texelFetch( lutSampler, d, 0 );
+	if ( lutv.w == LUT_PAGE_MARKER )
+		lutv = texelFetch( lutPageSampler, ivec3( lutv.xyz ) * LUT_PAGE_SIZE + ( g - p * LUT_PAGE_SIZE ), 0 );
 	vec3 B0 = lutv.xyz * paddedBlockSize + padOffset;
 	vec3 sj = blockScales[ lutv.w ];
 
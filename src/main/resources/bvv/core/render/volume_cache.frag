@@ -0,0 +1,3 @@
+// -- comes from TextureCache (one for each cache format) --
+uniform sampler3D volumeCache;
+uniform vec3 cacheSize;// TODO: get from texture!?
@@ -0,0 +1,262 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.backend.jogl;
+
+import bvv.core.backend.StagingBuffer;
+import bvv.core.backend.Texture3D;
+import com.jogamp.opengl.GL3;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.jogamp.opengl.GL.GL_ACTIVE_TEXTURE;
+import static com.jogamp.opengl.GL.GL_TEXTURE0;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link JoglGpuContext} tracks bindings in shadow state, i.e.,
+ * that it queries GL state only after {@link JoglGpuContext#invalidate()}
+ * and does not repeat binds. Uses a {@code GL3} proxy that counts calls.
+ */
+public class JoglGpuContextBindingTest
+{
+	private static final int N = 10;
+
+	private CountingGL counts;
+
+	private JoglGpuContext context;
+
+	private final Texture3D texture = new TestTexture( 34, 34, 34 );
+
+	private final StagingBuffer pbo = () -> 34 * 34 * 34 * 2;
+
+	@Before
+	public void setUp()
+	{
+		JoglGpuContext.setProgramBinaryCacheDirectory( null );
+		counts = new CountingGL();
+		context = JoglGpuContext.get( counts.gl );
+	}
+
+	@Test
+	public void testRepeatedUploadsDoNotQueryState()
+	{
+		// first use creates GL objects and queries bindings
+		upload();
+		counts.reset();
+
+		for ( int i = 0; i < N; ++i )
+			upload();
+
+		assertEquals( 0, counts.get( "glGetIntegerv" ) );
+		// bind and restore for each of map, unmap, texSubImage3D
+		assertEquals( 6 * N, counts.get( "glBindBuffer" ) );
+		// bind and restore for texSubImage3D
+		assertEquals( 2 * N, counts.get( "glBindTexture" ) );
+	}
+
+	@Test
+	public void testInvalidateQueriesStateOnce()
+	{
+		upload();
+		context.invalidate();
+		counts.reset();
+
+		for ( int i = 0; i < N; ++i )
+			upload();
+
+		// GL_PIXEL_UNPACK_BUFFER_BINDING, GL_ACTIVE_TEXTURE, GL_TEXTURE_BINDING_3D
+		assertEquals( 3, counts.get( "glGetIntegerv" ) );
+	}
+
+	@Test
+	public void testRedundantBindsAreSkipped()
+	{
+		context.bindStagingBuffer( pbo );
+		context.bindTexture( texture, 0 );
+		counts.reset();
+
+		for ( int i = 0; i < N; ++i )
+		{
+			context.bindStagingBuffer( pbo );
+			context.bindTexture( texture, 0 );
+		}
+
+		assertEquals( 0, counts.get( "glGetIntegerv" ) );
+		assertEquals( 0, counts.get( "glBindBuffer" ) );
+		assertEquals( 0, counts.get( "glBindTexture" ) );
+		assertEquals( 0, counts.get( "glActiveTexture" ) );
+	}
+
+	private void upload()
+	{
+		context.map( pbo );
+		context.unmap( pbo );
+		context.texSubImage3D( pbo, texture, 0, 0, 0, 34, 34, 34, 0 );
+	}
+
+	/**
+	 * Creates a {@code GL3} proxy that counts calls by method name. Generated
+	 * object names are consecutive, {@code glGetIntegerv} reports texture
+	 * unit 0 and no bindings. All other methods do nothing.
+	 */
+	private static class CountingGL
+	{
+		final GL3 gl;
+
+		private final Map< String, Integer > counts = new HashMap<>();
+
+		private int nextName = 1;
+
+		CountingGL()
+		{
+			gl = ( GL3 ) Proxy.newProxyInstance( GL3.class.getClassLoader(), new Class< ? >[] { GL3.class }, ( proxy, method, args ) -> {
+				final String name = method.getName();
+				switch ( name )
+				{
+				case "hashCode":
+					return System.identityHashCode( proxy );
+				case "equals":
+					return proxy == args[ 0 ];
+				case "toString":
+					return "CountingGL";
+				case "glGenTextures":
+				case "glGenBuffers":
+					if ( args.length == 3 && args[ 1 ] instanceof int[] )
+					{
+						final int[] ids = ( int[] ) args[ 1 ];
+						final int offset = ( Integer ) args[ 2 ];
+						for ( int i = 0; i < ( Integer ) args[ 0 ]; ++i )
+							ids[ offset + i ] = nextName++;
+					}
+					break;
+				case "glGetIntegerv":
+					if ( args.length == 3 && args[ 1 ] instanceof int[] )
+						( ( int[] ) args[ 1 ] )[ ( Integer ) args[ 2 ] ] = ( Integer ) args[ 0 ] == GL_ACTIVE_TEXTURE ? GL_TEXTURE0 : 0;
+					break;
+				}
+				counts.merge( name, 1, Integer::sum );
+				return defaultValue( method );
+			} );
+		}
+
+		int get( final String name )
+		{
+			return counts.getOrDefault( name, 0 );
+		}
+
+		void reset()
+		{
+			counts.clear();
+		}
+
+		private static Object defaultValue( final Method method )
+		{
+			final Class< ? > type = method.getReturnType();
+			if ( !type.isPrimitive() || type == void.class )
+				return null;
+			if ( type == boolean.class )
+				return false;
+			if ( type == long.class )
+				return 0L;
+			if ( type == float.class )
+				return 0f;
+			if ( type == double.class )
+				return 0.0;
+			if ( type == char.class )
+				return ( char ) 0;
+			if ( type == byte.class )
+				return ( byte ) 0;
+			if ( type == short.class )
+				return ( short ) 0;
+			return 0;
+		}
+	}
+
+	private static class TestTexture implements Texture3D
+	{
+		private final int w;
+
+		private final int h;
+
+		private final int d;
+
+		TestTexture( final int w, final int h, final int d )
+		{
+			this.w = w;
+			this.h = h;
+			this.d = d;
+		}
+
+		@Override
+		public InternalFormat texInternalFormat()
+		{
+			return InternalFormat.R16;
+		}
+
+		@Override
+		public int texWidth()
+		{
+			return w;
+		}
+
+		@Override
+		public int texHeight()
+		{
+			return h;
+		}
+
+		@Override
+		public int texDepth()
+		{
+			return d;
+		}
+
+		@Override
+		public MinFilter texMinFilter()
+		{
+			return MinFilter.LINEAR;
+		}
+
+		@Override
+		public MagFilter texMagFilter()
+		{
+			return MagFilter.LINEAR;
+		}
+
+		@Override
+		public Wrap texWrap()
+		{
+			return Wrap.CLAMP_TO_EDGE;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Locale;
+
+import bvv.core.cache.UploadBuffer;
+
+/**
+ * Measures the {@link CopySubArrayImp} kernels for 34^3 and 66^3 padded tiles
+ * (32^3 and 64^3 blocks with a 1-voxel border), writing into a pool of tiles in
+ * a direct buffer through {@link UploadBuffer}s, like a mapped PBO:
+ * <ul>
+ * <li>{@code block}: copy a block into the tile interior (row by row),</li>
+ * <li>{@code tile}: copy a whole tile (one contiguous copy),</li>
+ * <li>{@code clear}: zero a whole tile.</li>
+ * </ul>
+ * Run with {@code -Dbvv.blocks.unsafe=true} to measure the optional {@code
+ * Unsafe.copyMemory} path instead of {@code ByteBuffer} bulk puts, see {@link
+ * ByteUtils}.
+ */
+public class CopySubArrayBenchmark
+{
+	private static final int NUM_TILES = 16;
+
+	private static final int WARMUP_ROUNDS = 5;
+
+	private static final int ROUNDS = 10;
+
+	private static final long NANOS_PER_ROUND = 200_000_000L;
+
+	public static void main( final String[] args )
+	{
+		System.out.println( "path: " + ( ByteUtils.isUnsafeAvailable() ? "Unsafe.copyMemory" : "ByteBuffer" ) );
+		for ( final int n : new int[] { 34, 66 } )
+		{
+			run( "u16", n, 2, new CopySubArrayImp.ShortToAddress(), new short[ n * n * n ] );
+			run( "u8 ", n, 1, new CopySubArrayImp.ByteToAddress(), new byte[ n * n * n ] );
+			run( "f32", n, 4, new CopySubArrayImp.FloatToAddress(), new float[ n * n * n ] );
+		}
+	}
+
+	private static < A > void run( final String name, final int n, final int bytesPerElement, final CopySubArray< A, ByteUtils.Address > kernel, final A src )
+	{
+		final int bytesPerTile = bytesPerElement * n * n * n;
+		final ByteBuffer buffer = ByteBuffer.allocateDirect( NUM_TILES * bytesPerTile ).order( ByteOrder.nativeOrder() );
+		final ByteUtils.Address[] tiles = new ByteUtils.Address[ NUM_TILES ];
+		for ( int i = 0; i < NUM_TILES; ++i )
+			tiles[ i ] = new UploadBuffer( buffer, i * bytesPerTile );
+
+		final int b = n - 2;
+		final double block = measure( i -> kernel.copysubarray3d( src, 0, 0, 0, b, b, tiles[ i % NUM_TILES ], 1, 1, 1, n, n, b, b, b ) );
+		final double tile = measure( i -> kernel.copysubarray3d( src, 0, 0, 0, n, n, tiles[ i % NUM_TILES ], 0, 0, 0, n, n, n, n, n ) );
+		final double clear = measure( i -> kernel.clearsubarray3d( tiles[ i % NUM_TILES ], 0, 0, 0, n, n, n, n, n ) );
+
+		final double blockBytes = ( double ) bytesPerElement * b * b * b;
+		System.out.println( String.format( Locale.ROOT,
+				"%s %d^3:  block %8.0f ns (%5.1f GB/s)   tile %8.0f ns (%5.1f GB/s)   clear %8.0f ns (%5.1f GB/s)",
+				name, n,
+				block, blockBytes / block,
+				tile, bytesPerTile / tile,
+				clear, bytesPerTile / clear ) );
+	}
+
+	/**
+	 * @return median time per operation in ns over {@link #ROUNDS} rounds.
+	 */
+	private static double measure( final Operation operation )
+	{
+		final double[] times = new double[ ROUNDS ];
+		for ( int round = -WARMUP_ROUNDS; round < ROUNDS; ++round )
+		{
+			final long start = System.nanoTime();
+			long elapsed;
+			int count = 0;
+			do
+			{
+				for ( int i = 0; i < 100; ++i )
+					operation.run( count++ );
+				elapsed = System.nanoTime() - start;
+			}
+			while ( elapsed < NANOS_PER_ROUND );
+			if ( round >= 0 )
+				times[ round ] = ( double ) elapsed / count;
+		}
+		Arrays.sort( times );
+		return times[ ROUNDS / 2 ];
+	}
+
+	private interface Operation
+	{
+		void run( int i );
+	}
+}
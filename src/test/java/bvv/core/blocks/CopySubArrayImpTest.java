@@ -0,0 +1,238 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2023 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the {@link CopySubArrayImp} kernels against a naive per-element
+ * reference, for random source and destination boxes. The sizes are chosen
+ * such that whole rows, whole planes, and partial rows occur.
+ */
+public class CopySubArrayImpTest
+{
+	private static final int NUM_TRIALS = 2000;
+
+	/**
+	 * Destination bytes before and after the box that must not be touched.
+	 */
+	private static final int GUARD_BYTES = 16;
+
+	@Test
+	public void testShortToAddress()
+	{
+		test( new ShortElements(), 1 );
+	}
+
+	@Test
+	public void testByteToAddress()
+	{
+		test( new ByteElements(), 2 );
+	}
+
+	@Test
+	public void testFloatToAddress()
+	{
+		test( new FloatElements(), 3 );
+	}
+
+	private static < A > void test( final Elements< A > elements, final long seed )
+	{
+		final Random random = new Random( seed );
+		for ( int trial = 0; trial < NUM_TRIALS; ++trial )
+		{
+			// source and destination dimensions, often equal in X or Y so that rows or planes are contiguous
+			final int ssx = 1 + random.nextInt( 6 ), ssy = 1 + random.nextInt( 6 ), ssz = 1 + random.nextInt( 6 );
+			final int dsx = random.nextBoolean() ? ssx : 1 + random.nextInt( 6 );
+			final int dsy = random.nextBoolean() ? ssy : 1 + random.nextInt( 6 );
+			final int dsz = 1 + random.nextInt( 6 );
+
+			// box size, often the full (common) extent in X or Y
+			final int csx = random.nextBoolean() ? Math.min( ssx, dsx ) : 1 + random.nextInt( Math.min( ssx, dsx ) );
+			final int csy = random.nextBoolean() ? Math.min( ssy, dsy ) : 1 + random.nextInt( Math.min( ssy, dsy ) );
+			final int csz = 1 + random.nextInt( Math.min( ssz, dsz ) );
+
+			final int sox = random.nextInt( ssx - csx + 1 ), soy = random.nextInt( ssy - csy + 1 ), soz = random.nextInt( ssz - csz + 1 );
+			final int dox = random.nextInt( dsx - csx + 1 ), doy = random.nextInt( dsy - csy + 1 ), doz = random.nextInt( dsz - csz + 1 );
+
+			final int numSrc = ssx * ssy * ssz;
+			final int numDst = dsx * dsy * dsz;
+			final A src = elements.random( random, numSrc );
+
+			// destination, filled with a marker, in a larger buffer with guard regions
+			final int bytes = elements.bytesPerElement * numDst;
+			final ByteBuffer buffer = ByteBuffer.allocateDirect( bytes + 2 * GUARD_BYTES ).order( ByteOrder.nativeOrder() );
+			for ( int i = 0; i < buffer.capacity(); ++i )
+				buffer.put( i, ( byte ) 0x55 );
+			final ByteBuffer view = ByteUtils.view( buffer, GUARD_BYTES );
+			final ByteUtils.Address address = () -> view;
+
+			final long marker = elements.get( view, 0 );
+			final long[] expected = new long[ numDst ];
+			Arrays.fill( expected, marker );
+
+			final boolean clear = random.nextBoolean();
+			for ( int z = 0; z < csz; ++z )
+				for ( int y = 0; y < csy; ++y )
+					for ( int x = 0; x < csx; ++x )
+					{
+						final int di = ( dox + x ) + dsx * ( ( doy + y ) + dsy * ( doz + z ) );
+						final int si = ( sox + x ) + ssx * ( ( soy + y ) + ssy * ( soz + z ) );
+						expected[ di ] = clear ? 0 : elements.get( src, si );
+					}
+
+			if ( clear )
+				elements.kernel.clearsubarray3d( address, dox, doy, doz, dsx, dsy, csx, csy, csz );
+			else
+				elements.kernel.copysubarray3d( src, sox, soy, soz, ssx, ssy, address, dox, doy, doz, dsx, dsy, csx, csy, csz );
+
+			for ( int i = 0; i < numDst; ++i )
+				assertEquals( "trial " + trial + ", element " + i, expected[ i ], elements.get( view, i ) );
+			for ( int i = 0; i < GUARD_BYTES; ++i )
+			{
+				assertEquals( "trial " + trial + ", guard before", 0x55, buffer.get( i ) );
+				assertEquals( "trial " + trial + ", guard after", 0x55, buffer.get( GUARD_BYTES + bytes + i ) );
+			}
+		}
+	}
+
+	/**
+	 * Element type of a kernel. Elements are compared as (raw) {@code long} bits.
+	 */
+	private static abstract class Elements< A >
+	{
+		final int bytesPerElement;
+
+		final CopySubArray< A, ByteUtils.Address > kernel;
+
+		Elements( final int bytesPerElement, final CopySubArray< A, ByteUtils.Address > kernel )
+		{
+			this.bytesPerElement = bytesPerElement;
+			this.kernel = kernel;
+		}
+
+		abstract A random( Random random, int size );
+
+		abstract long get( A array, int i );
+
+		abstract long get( ByteBuffer buffer, int i );
+	}
+
+	private static class ShortElements extends Elements< short[] >
+	{
+		ShortElements()
+		{
+			super( 2, new CopySubArrayImp.ShortToAddress() );
+		}
+
+		@Override
+		short[] random( final Random random, final int size )
+		{
+			final short[] array = new short[ size ];
+			for ( int i = 0; i < size; ++i )
+				array[ i ] = ( short ) random.nextInt();
+			return array;
+		}
+
+		@Override
+		long get( final short[] array, final int i )
+		{
+			return array[ i ];
+		}
+
+		@Override
+		long get( final ByteBuffer buffer, final int i )
+		{
+			return buffer.getShort( 2 * i );
+		}
+	}
+
+	private static class ByteElements extends Elements< byte[] >
+	{
+		ByteElements()
+		{
+			super( 1, new CopySubArrayImp.ByteToAddress() );
+		}
+
+		@Override
+		byte[] random( final Random random, final int size )
+		{
+			final byte[] array = new byte[ size ];
+			random.nextBytes( array );
+			return array;
+		}
+
+		@Override
+		long get( final byte[] array, final int i )
+		{
+			return array[ i ];
+		}
+
+		@Override
+		long get( final ByteBuffer buffer, final int i )
+		{
+			return buffer.get( i );
+		}
+	}
+
+	private static class FloatElements extends Elements< float[] >
+	{
+		FloatElements()
+		{
+			super( 4, new CopySubArrayImp.FloatToAddress() );
+		}
+
+		@Override
+		float[] random( final Random random, final int size )
+		{
+			final float[] array = new float[ size ];
+			for ( int i = 0; i < size; ++i )
+				array[ i ] = random.nextFloat() - 0.5f;
+			return array;
+		}
+
+		@Override
+		long get( final float[] array, final int i )
+		{
+			return Float.floatToRawIntBits( array[ i ] );
+		}
+
+		@Override
+		long get( final ByteBuffer buffer, final int i )
+		{
+			return Float.floatToRawIntBits( buffer.getFloat( 4 * i ) );
+		}
+	}
+}